@@ -0,0 +1,56 @@
+package emuos.bench;
+
+import emuos.compiler.TinyCompiler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TinyCompiler#compile(String)} on large generated sources.
+ *
+ * @author Link
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerBenchmark {
+    private static final long SEED = 42;
+    @Param({"1000", "10000"})
+    public int lineCount;
+    private String source;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(SEED);
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0; i < lineCount; ++i) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    stringBuilder.append("x=").append(random.nextInt(100));
+                    break;
+                case 1:
+                    stringBuilder.append("x++");
+                    break;
+                case 2:
+                    stringBuilder.append("x--");
+                    break;
+                default:
+                    stringBuilder.append('!').append((char) ('A' + random.nextInt(3))).append(1 + random.nextInt(9));
+                    break;
+            }
+            stringBuilder.append('\n');
+        }
+        source = stringBuilder.append("end").toString();
+    }
+
+    @Benchmark
+    public byte[] compile() throws Exception {
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile(source);
+        return compiler.getByteCode();
+    }
+}
@@ -0,0 +1,72 @@
+package emuos.bench;
+
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.InputStream;
+import emuos.diskmanager.OutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The path resolution of the file system, and the throughput of its streams.
+ *
+ * @author Link
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileSystemBenchmark {
+    @Param({"1", "4"})
+    public int depth;
+    @Param({"64", "1024"})
+    public int fileSize;
+    private FilePath file;
+    private byte[] content;
+
+    @Setup
+    public void setUp() throws IOException {
+        FileSystem.getFileSystem().init();
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < depth - 1; ++i) {
+            path.append("/d").append(i);
+            new FilePath(path.toString()).mkdir();
+        }
+        file = new FilePath(path.append("/f.t").toString());
+        file.create();
+        content = new byte[fileSize];
+        Arrays.fill(content, (byte) 'x');
+        try (OutputStream outputStream = new OutputStream(file)) {
+            outputStream.write(content);
+        }
+    }
+
+    @Benchmark
+    public boolean resolve() {
+        return new FilePath(file.getPath()).exists();
+    }
+
+    @Benchmark
+    public int read() throws IOException {
+        int sum = 0;
+        try (InputStream inputStream = new InputStream(file)) {
+            int value;
+            while ((value = inputStream.read()) != -1) {
+                sum += value;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        try (OutputStream outputStream = new OutputStream(file)) {
+            outputStream.write(content);
+        }
+    }
+}
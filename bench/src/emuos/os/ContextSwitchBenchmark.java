@@ -0,0 +1,50 @@
+package emuos.os;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving the register file of the running process into its PCB and loading
+ * the next one in place, an operation is one switch. Run it with {@code -prof gc},
+ * the gc.alloc.rate.norm of the profiler is the allocation per switch, which
+ * should be zero.
+ *
+ * @author Link
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextSwitchBenchmark {
+    private Kernel kernel;
+    private Processor processor;
+    private ProcessControlBlock[] pcbs;
+    private int switchCount;
+
+    @Setup
+    public void setUp() {
+        kernel = new Kernel();
+        processor = kernel.getBootProcessor();
+        pcbs = new ProcessControlBlock[]{new ProcessControlBlock(1, 0), new ProcessControlBlock(2, 100)};
+    }
+
+    @TearDown
+    public void tearDown() {
+        kernel.close();
+    }
+
+    @Benchmark
+    public Kernel.Context switchContext() {
+        Kernel.Context context = processor.getContext();
+        int i = switchCount++;
+        context.setAX(context.getAX() + 1);
+        context.setPC(context.getPC() + 1);
+        context.setFlag(Kernel.Context.PSW_ZF);
+        pcbs[i & 1].saveContext(context);
+        processor.setContext(pcbs[~i & 1].getContext());
+        return processor.getContext();
+    }
+}
@@ -0,0 +1,65 @@
+package emuos.os;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The instruction dispatch of a processor: every operation is a tick on the
+ * virtual clock of the simulated mode, so the timer and the threads of the
+ * other modes aren't measured. A new process is created when the last one exits.
+ *
+ * @author Link
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final int PROGRAM_LENGTH = 40;
+    // 0 disables the JIT
+    @Param({"0", "16"})
+    public int jitThreshold;
+    private Kernel kernel;
+    private FilePath image;
+
+    @Setup
+    public void setUp() throws Exception {
+        FileSystem.getFileSystem().init();
+        TinyCompiler compiler = new TinyCompiler();
+        StringBuilder source = new StringBuilder("x=1\n");
+        for (int i = 0; i < PROGRAM_LENGTH; ++i) {
+            source.append("x++\n");
+        }
+        compiler.compile(source.append("end").toString());
+        image = new FilePath("/d.e");
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compiler.getByteCode());
+        }
+        kernel = new Kernel(Kernel.ExecutionMode.SIMULATED);
+        kernel.setJitThreshold(jitThreshold);
+        kernel.getBootProcessor().start(Kernel.ExecutionMode.SIMULATED);
+    }
+
+    @TearDown
+    public void tearDown() {
+        kernel.getBootProcessor().stop();
+        kernel.close();
+    }
+
+    @Benchmark
+    public boolean tick() throws Exception {
+        if (kernel.getSimulationEngine().isEmpty()) {
+            // the processor is idle after the exit
+            kernel.getProcessManager().create(image);
+        }
+        return kernel.getSimulationEngine().step();
+    }
+}
@@ -0,0 +1,68 @@
+package emuos.os;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The first fit allocation of {@link MemoryManager} on a fragmented user space.
+ * The user space is filled with random spaces and every other one is freed,
+ * then every operation frees the oldest space and allocates a new one.
+ *
+ * @author Link
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryBenchmark {
+    private static final long SEED = 42;
+    private static final int MAX_SPACE_SIZE = 32;
+    @Param({"512", "65536"})
+    public int userSpaceSize;
+    private final Deque<Integer> addresses = new ArrayDeque<>();
+    private MemoryManager memoryManager;
+    private Random random;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        memoryManager = new MemoryManager(userSpaceSize);
+        random = new Random(SEED);
+        addresses.clear();
+        int address;
+        while ((address = memoryManager.alloc(nextSize())) >= 0) {
+            addresses.add(address);
+        }
+        int count = addresses.size();
+        for (int i = 0; i < count; ++i) {
+            address = addresses.poll();
+            if (i % 2 == 0) {
+                memoryManager.free(address);
+            } else {
+                addresses.add(address);
+            }
+        }
+    }
+
+    private int nextSize() {
+        return 1 + random.nextInt(MAX_SPACE_SIZE);
+    }
+
+    @Benchmark
+    public int allocAndFree() {
+        Integer oldest = addresses.poll();
+        if (oldest != null) {
+            memoryManager.free(oldest);
+        }
+        int address = memoryManager.alloc(nextSize());
+        if (address >= 0) {
+            addresses.add(address);
+        }
+        return address;
+    }
+}
@@ -0,0 +1,59 @@
+package emuos.os;
+
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ProcessManager#schedule(Processor)} with a number of ready processes
+ * and a scheduling policy, every operation switches the running process out
+ * and the next one in.
+ *
+ * @author Link
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScheduleBenchmark {
+    // every process takes a byte of the user space
+    @Param({"1", "10", "1000", "10000"})
+    public int processCount;
+    @Param({"ROUND_ROBIN", "ADAPTIVE_ROUND_ROBIN", "MULTILEVEL_FEEDBACK", "COMPLETELY_FAIR"})
+    public Scheduler.Policy policy;
+    private Kernel kernel;
+    private Processor processor;
+
+    @Setup
+    public void setUp() throws Exception {
+        FileSystem.getFileSystem().init();
+        FilePath image = new FilePath("/s.e");
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            // end
+            outputStream.write(0);
+        }
+        kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 1,
+                Math.max(MemoryManager.DEFAULT_USER_SPACE_SIZE, processCount), FileSystem.getFileSystem(), policy);
+        for (int i = 0; i < processCount; ++i) {
+            kernel.getProcessManager().create(image);
+        }
+        processor = kernel.getBootProcessor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        kernel.close();
+    }
+
+    @Benchmark
+    public ProcessControlBlock schedule() {
+        kernel.getProcessManager().schedule(processor);
+        return processor.getRunningProcess();
+    }
+}
@@ -70,6 +70,10 @@ public class Generator {
         write(time);
     }
 
+    public void fork() {
+        write(OPCODE_FORK);
+    }
+
     public void end() {
         write(OPCODE_END);
     }
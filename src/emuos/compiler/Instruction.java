@@ -15,6 +15,7 @@ public class Instruction {
     public static final byte OPCODE_END = 0;
     public static final byte OPCODE_INCREASE = 2;
     public static final byte OPCODE_IO = 4;
+    public static final byte OPCODE_FORK = 5;
     protected Type type;
 
     public static String getName(int opcode) {
@@ -29,16 +30,34 @@ public class Instruction {
                 return "OPCODE_INCREASE";
             case OPCODE_IO:
                 return "OPCODE_IO";
+            case OPCODE_FORK:
+                return "OPCODE_FORK";
             default:
                 return "OPCODE_UNKNOWN";
         }
     }
 
+    /**
+     * @param opcode opcode
+     * @return the length of the instruction in bytes, including its operands
+     */
+    public static int getLength(int opcode) {
+        switch (opcode) {
+            case OPCODE_ASSIGNMENT:
+                return 2;
+            case OPCODE_IO:
+                return 3;
+            default:
+                return 1;
+        }
+    }
+
     public enum Type {
         ASSIGNMENT,
         INCREASE,
         DECREASE,
         IOCOMMAND,
+        FORK,
         END
     }
 
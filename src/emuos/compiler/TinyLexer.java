@@ -91,6 +91,12 @@ public class TinyLexer extends Lexer {
                             consume();
                             return new Token(Token.Type.END, "<END>");
                         }
+                        if (input.substring(p).startsWith("fork")) {
+                            for (int i = 0; i < 4; ++i) {
+                                consume();
+                            }
+                            return new Token(Token.Type.FORK, "fork");
+                        }
                         return ID();
                     } else if (Character.isDigit(c)) {
                         return INT();
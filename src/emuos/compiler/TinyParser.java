@@ -41,6 +41,9 @@ public class TinyParser extends Parser {
                 case IO_COMMAND:
                     io_command();
                     break;
+                case FORK:
+                    fork();
+                    break;
                 case END:
                     end();
                     return;
@@ -77,6 +80,11 @@ public class TinyParser extends Parser {
         generator.io(idToken.text, Byte.valueOf(timeToken.text));
     }
 
+    private void fork() throws TokenMismatchException {
+        match(Type.FORK);
+        generator.fork();
+    }
+
     private void end() throws TokenMismatchException {
         match(Type.END);
         generator.end();
@@ -33,6 +33,7 @@ public class Token {
         ID,
         INT,
         IO_COMMAND,
+        FORK,
         END,
         NUMBER,
         UNKNOWN
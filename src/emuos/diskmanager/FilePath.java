@@ -16,9 +16,15 @@ public class FilePath {
     public static final String separatorChar = "/";
     public static final FilePath NULL = new FilePath("");
     private final String path;
-    private FileSystem fs = FileSystem.getFileSystem();
+    // null for the default file system, it's resolved when it's used
+    private final FileSystem fileSystem;
 
     public FilePath(String path) {
+        this((FileSystem) null, path);
+    }
+
+    public FilePath(FileSystem fileSystem, String path) {
+        this.fileSystem = fileSystem;
         if (path.startsWith(separatorChar)) {
             this.path = path;
         } else {
@@ -27,6 +33,7 @@ public class FilePath {
     }
 
     public FilePath(FilePath parent, String name) {
+        this.fileSystem = parent.fileSystem;
         if (parent.isRootDir()) {
             this.path = parent.getPath() + name;
         } else {
@@ -58,40 +65,47 @@ public class FilePath {
         return path;
     }
 
+    /**
+     * @return the file system of the path
+     */
+    public FileSystem getFileSystem() {
+        return fileSystem != null ? fileSystem : FileSystem.getFileSystem();
+    }
+
     public int getAttrubite() throws FileNotFoundException {
-        return fs.getAttribute(this);
+        return getFileSystem().getAttribute(this);
     }
 
     public boolean isFile() throws FileNotFoundException {
-        return (fs.getAttribute(this) & MetaInfo.MASK_FILE) != 0;
+        return (getFileSystem().getAttribute(this) & MetaInfo.MASK_FILE) != 0;
     }
 
     public boolean isDir() throws FileNotFoundException {
-        return (fs.getAttribute(this) & MetaInfo.MASK_FILE) == 0;
+        return (getFileSystem().getAttribute(this) & MetaInfo.MASK_FILE) == 0;
     }
 
     public boolean exists() {
-        return fs.exists(this);
+        return getFileSystem().exists(this);
     }
 
     public int size() throws FileNotFoundException {
-        return fs.getSize(this);
+        return getFileSystem().getSize(this);
     }
 
     public void mkdir() throws IOException {
-        fs.mkdir(this);
+        getFileSystem().mkdir(this);
     }
 
     public boolean create() throws IOException {
-        return fs.createNewFile(this);
+        return getFileSystem().createNewFile(this);
     }
 
     public void delete() throws IOException {
-        fs.delete(this);
+        getFileSystem().delete(this);
     }
 
     public void renameTo(String name) throws IOException {
-        fs.rename(this, name);
+        getFileSystem().rename(this, name);
     }
 
     public void moveTo(FilePath path) {
@@ -99,7 +113,7 @@ public class FilePath {
     }
 
     public FilePath[] list() {
-        return fs.list(this);
+        return getFileSystem().list(this);
     }
 
     @Override
@@ -116,6 +130,6 @@ public class FilePath {
     }
 
     public FilePath getParentFile() {
-        return new FilePath(getParent());
+        return new FilePath(fileSystem, getParent());
     }
 }
@@ -6,6 +6,7 @@
 package emuos.diskmanager;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.FileAlreadyExistsException;
@@ -15,6 +16,12 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * The file system on a disk image.
+ * <p>
+ * The default file system is mapped from the file {@code disk} in the working directory,
+ * and a kernel can have its own one, e.g. in memory, so there can be many machines in a JVM.
+ * The {@link FilePath}s and the streams work on the file system they are created with.
+ *
  * @author Link
  */
 public class FileSystem {
@@ -28,31 +35,57 @@ public class FileSystem {
     private final static String DISK_FILENAME = "disk";
     private final static int DISK_SIZE = BLOCK_SIZE * BLOCK_COUNT;
     private final static int DATA_BLOCK_INDEX = ROOT_BLOCK_INDEX + 1;
-    private static final FileSystem fs = new FileSystem();
-    private MappedByteBuffer mappedByteBuffer;
+    private final ByteBuffer mappedByteBuffer;
+    // the versions of the directory entries, indexed by the address of the entry
+    private final int[] entryVersions = new int[DISK_SIZE / FILEINFO_SIZE];
+    // it's changed on every write
+    private volatile long modCount;
 
-    private FileSystem() {
-        File diskFile = new File(DISK_FILENAME);
-        boolean isNew = false;
-        if (!diskFile.exists()) {
-            try {
-                isNew = diskFile.createNewFile();
-            } catch (IOException ex) {
-                Logger.getLogger(FileSystem.class.getName()).log(Level.SEVERE, null, ex);
+    private FileSystem(ByteBuffer buffer) {
+        mappedByteBuffer = buffer;
+    }
+
+    /**
+     * @return the default file system on the file {@code disk} in the working directory
+     */
+    public static FileSystem getFileSystem() {
+        return DefaultHolder.FILE_SYSTEM;
+    }
+
+    /**
+     * Map a disk image file, it's formatted if it's new.
+     *
+     * @param diskFile disk image file
+     * @return the file system
+     * @throws IOException IOException
+     */
+    public static FileSystem open(File diskFile) throws IOException {
+        boolean isNew = diskFile.createNewFile();
+        try (RandomAccessFile memoryMappedFile = new RandomAccessFile(diskFile, "rw")) {
+            FileSystem fileSystem = new FileSystem(
+                    memoryMappedFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DISK_SIZE));
+            if (isNew) {
+                fileSystem.init();
             }
-        }
-        try (RandomAccessFile memoryMappedFile = new RandomAccessFile(DISK_FILENAME, "rw")) {
-            mappedByteBuffer = memoryMappedFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DISK_SIZE);
-        } catch (IOException ex) {
-            Logger.getLogger(FileSystem.class.getName()).log(Level.SEVERE, null, ex);
-        }
-        if (isNew) {
-            init();
+            return fileSystem;
         }
     }
 
-    public static FileSystem getFileSystem() {
-        return fs;
+    /**
+     * @return a formatted file system in memory
+     */
+    public static FileSystem createInMemory() {
+        FileSystem fileSystem = new FileSystem(ByteBuffer.allocate(DISK_SIZE));
+        fileSystem.init();
+        return fileSystem;
+    }
+
+    /**
+     * @param path absolute path
+     * @return the path on this file system
+     */
+    public FilePath getFilePath(String path) {
+        return new FilePath(this, path);
     }
 
     public static String convertStreamToString(InputStream is) {
@@ -76,12 +109,52 @@ public class FileSystem {
         return readShort(blockIndex * BLOCK_SIZE + offset);
     }
 
+    /**
+     * bulk read in a block
+     *
+     * @param blockIndex block index
+     * @param offset     offset in the block
+     * @param dst        destination
+     * @param dstOffset  offset in the destination
+     * @param length     length
+     */
+    void read(int blockIndex, int offset, byte[] dst, int dstOffset, int length) {
+        ByteBuffer buffer = mappedByteBuffer.duplicate();
+        buffer.position(blockIndex * BLOCK_SIZE + offset);
+        buffer.get(dst, dstOffset, length);
+    }
+
     public void write(int blockIndex, int offset, byte value) {
-        mappedByteBuffer.put(blockIndex * BLOCK_SIZE + offset, value);
+        write(blockIndex * BLOCK_SIZE + offset, value);
     }
 
     public void write(int address, byte value) {
         mappedByteBuffer.put(address, value);
+        ++modCount;
+    }
+
+    /**
+     * @return a count which is changed on every write, so nothing has changed if it's the same
+     */
+    public long getModCount() {
+        return modCount;
+    }
+
+    /**
+     * The version of a file, it's the identity of the directory entry of the file
+     * along with a counter of the writes to the entry. Every write through
+     * {@link OutputStream} updates the length in the entry, so the version is
+     * changed when the file is rewritten, deleted, moved or renamed.
+     *
+     * @param file file
+     * @return the version, or -1 if there isn't such a file or it's a directory
+     */
+    public long getVersion(FilePath file) {
+        MetaInfo metaInfo = readMetaInfo(file.getPath());
+        if (metaInfo == null || !metaInfo.isFile()) {
+            return -1;
+        }
+        return (long) metaInfo.address << 32 | (entryVersions[metaInfo.address / FILEINFO_SIZE] & 0xffffffffL);
     }
 
     int allocFreeBlock() {
@@ -118,10 +191,13 @@ public class FileSystem {
         for (int i = DATA_BLOCK_INDEX * BLOCK_SIZE; i < BLOCK_COUNT * BLOCK_SIZE; ++i) {
             mappedByteBuffer.put(i, (byte) 0);
         }
-        mappedByteBuffer.force();
+        ++modCount;
+        flush();
     }
 
     private void writeMetaInfo(MetaInfo metaInfo, int address) {
+        ++entryVersions[address / FILEINFO_SIZE];
+        ++modCount;
         for (int i = 0; i < metaInfo.name_ext.length; ++i) {
             mappedByteBuffer.put(address++, metaInfo.name_ext[i]);
         }
@@ -140,6 +216,7 @@ public class FileSystem {
 
     private MetaInfo readMetaInfo(int address) {
         MetaInfo metaInfo = new MetaInfo();
+        metaInfo.fileSystem = this;
         metaInfo.address = address;
         for (int i = 0; i < 4; ++i) {
             metaInfo.name_ext[i] = read(address++);
@@ -162,7 +239,9 @@ public class FileSystem {
      */
     MetaInfo readMetaInfo(String path) {
         if (path.equals("/")) {
-            return MetaInfo.rootDir();
+            MetaInfo rootDir = MetaInfo.rootDir();
+            rootDir.fileSystem = this;
+            return rootDir;
         }
         String[] names = path.split("/");
         if (names.length < 2 || !names[0].isEmpty()) {
@@ -211,7 +290,7 @@ public class FileSystem {
         for (int i = 0; i < BLOCK_FILEINFO_COUNT; ++i) {
             MetaInfo metaInfo = readMetaInfo(ROOT_BLOCK_INDEX, i * FILEINFO_SIZE);
             if (metaInfo.name_ext[0] != '$') {
-                filePaths[pos++] = new FilePath("/" + metaInfo.getName());
+                filePaths[pos++] = new FilePath(this, "/" + metaInfo.getName());
             }
         }
         FilePath[] results = new FilePath[pos];
@@ -307,7 +386,7 @@ public class FileSystem {
      */
     private boolean createNewFile(FilePath file, byte attribute) throws IOException {
         String[] filenames = file.getPath().split("/");
-        FilePath parentPath = new FilePath("/");
+        FilePath parentPath = new FilePath(this, "/");
         for (int i = 1; i < filenames.length - 1; ++i) {
             FilePath current = new FilePath(parentPath, filenames[i]);
             if (current.exists()) {
@@ -451,7 +530,7 @@ public class FileSystem {
 
     public void rename(FilePath file, String name) throws IOException {
         if (file.getName().equals(name)) return;
-        FilePath target = new FilePath(file.getParent(), name);
+        FilePath target = new FilePath(file.getParentFile(), name);
         if (exists(target)) {
             throw new FileAlreadyExistsException("File '" + target.getPath() + "' already exists.");
         }
@@ -488,6 +567,24 @@ public class FileSystem {
     }
 
     public void flush() {
-        mappedByteBuffer.force();
+        if (mappedByteBuffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) mappedByteBuffer).force();
+        }
+    }
+
+    /**
+     * The default file system, it's mapped when it's used at the first time
+     */
+    private static final class DefaultHolder {
+        static final FileSystem FILE_SYSTEM = openDefault();
+
+        private static FileSystem openDefault() {
+            try {
+                return open(new File(DISK_FILENAME));
+            } catch (IOException ex) {
+                Logger.getLogger(FileSystem.class.getName()).log(Level.SEVERE, null, ex);
+                return createInMemory();
+            }
+        }
     }
 }
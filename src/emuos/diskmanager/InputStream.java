@@ -8,7 +8,7 @@ import java.io.IOException;
  */
 public class InputStream extends java.io.InputStream {
 
-    private static final FileSystem fs = FileSystem.getFileSystem();
+    private final FileSystem fs;
     private MetaInfo metaInfo;
     private int currentBlockIndex;
     private int currentOffset;
@@ -16,6 +16,7 @@ public class InputStream extends java.io.InputStream {
 
     @SuppressWarnings("DuplicateThrows")
     public InputStream(FilePath file) throws IOException, FileNotFoundException {
+        fs = file.getFileSystem();
         metaInfo = fs.readMetaInfo(file.getPath());
         if (metaInfo == null) {
             throw new FileNotFoundException(file.getPath());
@@ -46,4 +47,29 @@ public class InputStream extends java.io.InputStream {
             return fs.read(currentBlockIndex, currentOffset++);
         }
     }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) return 0;
+        int count = 0;
+        while (count < len) {
+            if (currentOffset >= FileSystem.BLOCK_SIZE) {
+                currentBlockIndex = fs.read(currentBlockIndex);
+                currentOffset = 0;
+            }
+            if (available <= 0 || currentBlockIndex == -1) {
+                break;
+            }
+            // the rest of the block at most
+            int length = Math.min(Math.min(len - count, available), FileSystem.BLOCK_SIZE - currentOffset);
+            fs.read(currentBlockIndex, currentOffset, b, off + count, length);
+            currentOffset += length;
+            available -= length;
+            count += length;
+        }
+        return count == 0 ? -1 : count;
+    }
 }
@@ -30,6 +30,8 @@ class MetaInfo implements Iterable<MetaInfo> {
 
     // extra info
     int address;
+    // the file system it's read from
+    FileSystem fileSystem;
 
     static MetaInfo newDir(int address, String name, byte startBlockIndex) throws IOException {
         MetaInfo metaInfo = new MetaInfo();
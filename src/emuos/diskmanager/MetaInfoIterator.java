@@ -7,12 +7,14 @@ import java.util.Iterator;
  */
 public class MetaInfoIterator implements Iterator<MetaInfo> {
     private MetaInfo parent;
+    private FileSystem fs;
     private int currentBlockIndex;
     private int currentIndexInBlock;
     private int rest;
 
     MetaInfoIterator(MetaInfo parent) {
         this.parent = parent;
+        fs = parent.fileSystem;
         currentBlockIndex = parent.startBlockIndex;
         currentIndexInBlock = 0;
         rest = parent.length;
@@ -32,7 +34,6 @@ public class MetaInfoIterator implements Iterator<MetaInfo> {
 
     @Override
     public MetaInfo next() {
-        FileSystem fs = FileSystem.getFileSystem();
         if (rest <= 0 || currentBlockIndex == -1) return null;
         MetaInfo metaInfo = fs.readMetaInfo(currentBlockIndex, currentIndexInBlock * FileSystem.FILEINFO_SIZE);
         currentIndexInBlock++;
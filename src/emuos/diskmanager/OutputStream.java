@@ -8,12 +8,13 @@ import java.io.IOException;
  */
 public class OutputStream extends java.io.OutputStream {
 
-    private static final FileSystem fs = FileSystem.getFileSystem();
+    private final FileSystem fs;
     private MetaInfo metaInfo;
     private int currentBlockIndex;
     private int currentOffset;
 
     public OutputStream(FilePath file) throws IOException {
+        fs = file.getFileSystem();
         metaInfo = fs.readMetaInfo(file.getPath());
         if (metaInfo == null) {
             throw new FileNotFoundException(file.getPath());
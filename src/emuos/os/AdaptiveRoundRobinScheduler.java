@@ -0,0 +1,49 @@
+package emuos.os;
+
+/**
+ * The round robin scheduler with an adaptive time slice.
+ * <p>
+ * The CPU burst of a process, the instructions it executes between two IO
+ * requests, is estimated by the exponential average of its recent bursts.
+ * The time slice is the share of {@link #TARGET_LATENCY} by the ready
+ * processes, so a CPU-bound process runs longer and is switched less when
+ * there are few of them, and shorter when many are waiting. A process whose
+ * burst is expected to end within {@link #MAX_TIME_SLICE} gets enough to
+ * reach its next IO request, so an IO-bound process isn't preempted just
+ * before it would block anyway. The time slice is in
+ * [{@link #MIN_TIME_SLICE}, {@link #MAX_TIME_SLICE}].
+ *
+ * @author Link
+ */
+class AdaptiveRoundRobinScheduler extends RoundRobinScheduler {
+    // in instructions
+    static final int TARGET_LATENCY = 4 * Kernel.INIT_TIME_SLICE;
+    static final int MIN_TIME_SLICE = 2;
+    static final int MAX_TIME_SLICE = 4 * Kernel.INIT_TIME_SLICE;
+
+    @Override
+    public void block(ProcessControlBlock pcb) {
+        super.block(pcb);
+        // the average of the last burst and the previous estimate, the IO instruction
+        // itself is ticked after the block, so it's counted in the next burst
+        pcb.setBurstEstimate(pcb.getBurstEstimate() < 0 ? pcb.getBurstTicks() : (pcb.getBurstEstimate() + pcb.getBurstTicks()) / 2);
+        pcb.setBurstTicks(0);
+    }
+
+    @Override
+    public void tick(ProcessControlBlock pcb, int count) {
+        pcb.setBurstTicks(pcb.getBurstTicks() + count);
+    }
+
+    @Override
+    public int getTimeSlice(ProcessControlBlock pcb) {
+        // the process has been picked, so the ready ones are the others
+        int timeSlice = TARGET_LATENCY / (size() + 1);
+        if (pcb.getBurstEstimate() >= 0 && pcb.getBurstEstimate() < MAX_TIME_SLICE) {
+            // the rest of the burst and the IO instruction
+            long rest = pcb.getBurstEstimate() - pcb.getBurstTicks() + 1;
+            timeSlice = (int) Math.max(timeSlice, Math.min(rest, MAX_TIME_SLICE));
+        }
+        return Math.max(MIN_TIME_SLICE, Math.min(timeSlice, MAX_TIME_SLICE));
+    }
+}
@@ -0,0 +1,445 @@
+package emuos.os;
+
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The headless batch runner.
+ * <p>
+ * It runs a workload on the virtual clock of the simulated mode, as fast as
+ * the host allows, until every process exits, then reports the throughput,
+ * the turnaround and the device utilisation. The workload manifest has a line
+ * per group of arrivals, the blank lines and the lines starting with '#' are ignored:
+ * <pre>
+ * # image  arrival (virtual ms)  count  [interval (virtual ms)]
+ * /a/a.e   0                     5
+ * /a/b.e   1000                  10     500
+ * </pre>
+ * An arrival which can't be created for lack of memory or PCBs waits for the
+ * exits of the earlier processes, the arrivals are created in order.
+ * It fails if the image doesn't exist, or it can't be created in an empty memory.
+ * <p>
+ * The batch can be run on the engine thread with {@link #run(long)}, or in the
+ * calling thread with {@link #runInCurrentThread()}, e.g. by {@link ParallelBatchRunner}.
+ *
+ * @author Link
+ */
+public class BatchRunner {
+    private static final long DEFAULT_TIMEOUT_MS = 10 * 60 * 1000;
+    private final Kernel kernel;
+    private final List<Arrival> arrivals = new ArrayList<>();
+    // the arrivals waiting for memory, only used on the engine thread
+    private final Queue<FilePath> backlog = new ArrayDeque<>();
+    private final List<Long> turnarounds = Collections.synchronizedList(new ArrayList<>());
+    private CountDownLatch latch;
+    private int failedCount;
+
+    /**
+     * @param processorCount the count of virtual CPUs
+     */
+    public BatchRunner(int processorCount) {
+        this(processorCount, MemoryManager.DEFAULT_USER_SPACE_SIZE, FileSystem.getFileSystem());
+    }
+
+    /**
+     * @param processorCount the count of virtual CPUs
+     * @param userSpaceSize  the size of the user space in bytes
+     * @param fileSystem     the file system of the images
+     */
+    public BatchRunner(int processorCount, int userSpaceSize, FileSystem fileSystem) {
+        this(processorCount, userSpaceSize, fileSystem, Scheduler.Policy.ROUND_ROBIN);
+    }
+
+    /**
+     * @param processorCount  the count of virtual CPUs
+     * @param userSpaceSize   the size of the user space in bytes
+     * @param fileSystem      the file system of the images
+     * @param schedulerPolicy the scheduling policy
+     */
+    public BatchRunner(int processorCount, int userSpaceSize, FileSystem fileSystem, Scheduler.Policy schedulerPolicy) {
+        kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, processorCount, userSpaceSize, fileSystem,
+                schedulerPolicy);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, TimeoutException {
+        // Usage: BatchRunner [workload manifest] [count of CPUs] [scheduling policy]
+        List<Arrival> arrivals;
+        if (args.length > 0) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(args[0]), StandardCharsets.UTF_8))) {
+                arrivals = parse(reader);
+            }
+        } else {
+            // It's required to create the file '/a/a.e'
+            arrivals = Collections.singletonList(new Arrival("/a/a.e", 0, 5, 0));
+        }
+        BatchRunner runner = new BatchRunner(args.length > 1 ? Integer.parseInt(args[1]) : 1,
+                MemoryManager.DEFAULT_USER_SPACE_SIZE, FileSystem.getFileSystem(),
+                args.length > 2 ? Scheduler.Policy.valueOf(args[2]) : Scheduler.Policy.ROUND_ROBIN);
+        arrivals.forEach(runner::add);
+        Report report = runner.run(DEFAULT_TIMEOUT_MS);
+        System.out.print(report);
+        if (report.getFailedCount() > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * parse a workload manifest
+     *
+     * @param reader reader
+     * @return the arrivals
+     * @throws IOException if it's malformed
+     */
+    public static List<Arrival> parse(BufferedReader reader) throws IOException {
+        List<Arrival> arrivals = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            ++lineNumber;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] fields = line.split("\\s+");
+            if (fields.length < 3 || fields.length > 4) {
+                throw new IOException("line " + lineNumber + ": expected \"image arrival count [interval]\"");
+            }
+            try {
+                long time = Long.parseLong(fields[1]);
+                int count = Integer.parseInt(fields[2]);
+                long interval = fields.length > 3 ? Long.parseLong(fields[3]) : 0;
+                if (time < 0 || count < 0 || interval < 0) {
+                    throw new IOException("line " + lineNumber + ": negative number");
+                }
+                arrivals.add(new Arrival(fields[0], time, count, interval));
+            } catch (NumberFormatException e) {
+                throw new IOException("line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return arrivals;
+    }
+
+    /**
+     * @return the kernel of the batch, e.g. to configure it before {@link #run(long)}
+     */
+    public Kernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * add a group of arrivals to the workload
+     *
+     * @param arrival arrival
+     */
+    public void add(Arrival arrival) {
+        arrivals.add(arrival);
+    }
+
+    /**
+     * Run the workload until every process exits, it can be run only once.
+     *
+     * @param timeout the timeout in milliseconds of the host clock
+     * @return the report
+     * @throws InterruptedException InterruptedException
+     * @throws TimeoutException     if there are processes left after the timeout
+     */
+    public Report run(long timeout) throws InterruptedException, TimeoutException {
+        Kernel.Listener exitListener = prepare();
+        long startNanos = System.nanoTime();
+        kernel.run();
+        try {
+            if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException(latch.getCount() + " processes haven't exited in " + timeout + "ms.");
+            }
+        } finally {
+            kernel.stop();
+            kernel.removeIntExitListener(exitListener);
+            kernel.close();
+        }
+        return report(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Run the workload in the calling thread until every process exits, it can be run only once.
+     * The batch is over when there isn't any event left on the virtual clock.
+     *
+     * @return the report
+     */
+    public Report runInCurrentThread() {
+        Kernel.Listener exitListener = prepare();
+        long startNanos = System.nanoTime();
+        kernel.start(false);
+        try {
+            SimulationEngine engine = kernel.getSimulationEngine();
+            while (engine.step()) {
+                // run the next event
+            }
+        } finally {
+            // the exit events are delivered before the event bus stops
+            kernel.stop();
+            kernel.removeIntExitListener(exitListener);
+            kernel.close();
+        }
+        if (latch.getCount() != 0) {
+            throw new IllegalStateException(latch.getCount() + " processes haven't exited.");
+        }
+        return report(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * schedule the arrivals, and listen to the exits
+     *
+     * @return the exit listener
+     */
+    private Kernel.Listener prepare() {
+        int total = 0;
+        for (Arrival arrival : arrivals) {
+            total += arrival.count;
+        }
+        latch = new CountDownLatch(total);
+        Kernel.Listener exitListener = info -> {
+            turnarounds.add(info.getTime() - info.getPCB().getStatistics().getCreatedAt());
+            latch.countDown();
+        };
+        kernel.addIntExitListener(exitListener);
+        SimulationEngine engine = kernel.getSimulationEngine();
+        for (Arrival arrival : arrivals) {
+            FilePath imageFile = new FilePath(kernel.getFileSystem(), arrival.imagePath);
+            for (int i = 0; i < arrival.count; ++i) {
+                engine.scheduleAt(arrival.time + i * arrival.interval, () -> admit(imageFile));
+            }
+        }
+        return exitListener;
+    }
+
+    private Report report(long wallNanos) {
+        SimulationEngine engine = kernel.getSimulationEngine();
+        Metrics metrics = kernel.getMetrics();
+        long virtualTime = engine.now();
+        Map<Character, Double> utilisation = new TreeMap<>();
+        DeviceManager deviceManager = kernel.getDeviceManager();
+        for (int type : deviceManager.getDeviceTypes()) {
+            long busy = metrics.counter("device." + (char) type + ".busy").sum();
+            long capacity = deviceManager.getDeviceCount(type) * virtualTime;
+            utilisation.put((char) type, capacity == 0 ? 0 : (double) busy / capacity);
+        }
+        long[] sorted;
+        synchronized (turnarounds) {
+            sorted = turnarounds.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+        return new Report(sorted, failedCount, kernel.getInstructionCount(), wallNanos, virtualTime, utilisation);
+    }
+
+    /**
+     * create a process on the engine thread, or put it in the backlog if there isn't enough memory
+     *
+     * @param imageFile image file
+     */
+    private void admit(FilePath imageFile) {
+        if (!backlog.isEmpty()) {
+            backlog.add(imageFile);
+            return;
+        }
+        if (!tryCreate(imageFile)) {
+            backlog.add(imageFile);
+            retryLater();
+        }
+    }
+
+    private void retryLater() {
+        kernel.getSimulationEngine().schedule(Kernel.CPU_PERIOD_MS, () -> {
+            FilePath imageFile;
+            while ((imageFile = backlog.peek()) != null && tryCreate(imageFile)) {
+                backlog.poll();
+            }
+            if (!backlog.isEmpty()) {
+                retryLater();
+            }
+        });
+    }
+
+    /**
+     * @param imageFile image file
+     * @return false if it should be retried after some processes exit
+     */
+    private boolean tryCreate(FilePath imageFile) {
+        try {
+            if (kernel.getProcessManager().create(imageFile) == null) {
+                fail("No such image: " + imageFile.getPath());
+            }
+            return true;
+        } catch (ProcessManager.ProcessException e) {
+            if (!kernel.getMemoryManager().isAllFree()) {
+                return false;
+            }
+            // there isn't any process to free the memory
+            fail(e.getMessage());
+            return true;
+        } catch (IOException e) {
+            fail(e.getMessage());
+            return true;
+        }
+    }
+
+    private void fail(String message) {
+        System.err.println(message);
+        ++failedCount;
+        latch.countDown();
+    }
+
+    /**
+     * A group of arrivals of an image
+     */
+    public static final class Arrival {
+        private final String imagePath;
+        private final long time;
+        private final int count;
+        private final long interval;
+
+        /**
+         * @param imagePath the path of the image file on the file system of the kernel
+         * @param time      the time of the first arrival in virtual milliseconds
+         * @param count     the count of arrivals
+         * @param interval  the interval between the arrivals in virtual milliseconds
+         */
+        public Arrival(String imagePath, long time, int count, long interval) {
+            this.imagePath = imagePath;
+            this.time = time;
+            this.count = count;
+            this.interval = interval;
+        }
+
+        public String getImagePath() {
+            return imagePath;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getInterval() {
+            return interval;
+        }
+    }
+
+    /**
+     * The report of a batch
+     */
+    public static final class Report {
+        // the turnarounds of the exited processes in ticks, sorted
+        private final long[] turnarounds;
+        private final int failedCount;
+        private final long instructionCount;
+        private final long wallNanos;
+        private final long virtualTime;
+        private final Map<Character, Double> utilisation;
+
+        Report(long[] turnarounds, int failedCount, long instructionCount, long wallNanos, long virtualTime,
+               Map<Character, Double> utilisation) {
+            this.turnarounds = turnarounds;
+            this.failedCount = failedCount;
+            this.instructionCount = instructionCount;
+            this.wallNanos = wallNanos;
+            this.virtualTime = virtualTime;
+            this.utilisation = Collections.unmodifiableMap(utilisation);
+        }
+
+        /**
+         * @return the count of the exited processes
+         */
+        public int getExitedCount() {
+            return turnarounds.length;
+        }
+
+        /**
+         * @return the count of the arrivals which failed to be created
+         */
+        public int getFailedCount() {
+            return failedCount;
+        }
+
+        /**
+         * @return the count of the executed instructions
+         */
+        public long getInstructionCount() {
+            return instructionCount;
+        }
+
+        /**
+         * @return the time of the host clock in nanoseconds
+         */
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        /**
+         * @return the time of the virtual clock in milliseconds
+         */
+        public long getVirtualTime() {
+            return virtualTime;
+        }
+
+        /**
+         * @return exited processes per second of the host clock
+         */
+        public double getProcessThroughput() {
+            return turnarounds.length * 1e9 / Math.max(1, wallNanos);
+        }
+
+        /**
+         * @return executed instructions per second of the host clock
+         */
+        public double getInstructionThroughput() {
+            return instructionCount * 1e9 / Math.max(1, wallNanos);
+        }
+
+        /**
+         * @return the mean turnaround in ticks
+         */
+        public double getMeanTurnaround() {
+            return turnarounds.length == 0 ? 0 : Arrays.stream(turnarounds).average().orElse(0);
+        }
+
+        /**
+         * @param percentile the percentile, in (0, 100]
+         * @return the turnaround of the percentile in ticks (nearest rank), 0 if no process exited
+         */
+        public long getTurnaround(double percentile) {
+            if (turnarounds.length == 0) return 0;
+            int rank = (int) Math.ceil(turnarounds.length * percentile / 100);
+            return turnarounds[Math.min(turnarounds.length, Math.max(rank, 1)) - 1];
+        }
+
+        /**
+         * @return device type --> the busy fraction of its devices over the virtual time
+         */
+        public Map<Character, Double> getUtilisation() {
+            return utilisation;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append(String.format("Processes:    %d exited, %d failed%n", getExitedCount(), failedCount));
+            stringBuilder.append(String.format("Wall time:    %.3f s%n", wallNanos / 1e9));
+            stringBuilder.append(String.format("Virtual time: %.1f s%n", virtualTime / 1e3));
+            stringBuilder.append(String.format("Throughput:   %.1f processes/s, %.0f instructions/s%n",
+                    getProcessThroughput(), getInstructionThroughput()));
+            stringBuilder.append(String.format("Turnaround:   mean %.1f, p50 %d, p90 %d, p99 %d, max %d ticks%n",
+                    getMeanTurnaround(), getTurnaround(50), getTurnaround(90), getTurnaround(99), getTurnaround(100)));
+            utilisation.forEach((type, fraction) ->
+                    stringBuilder.append(String.format("Device %c:     %.1f%% busy%n", type, fraction * 100)));
+            return stringBuilder.toString();
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package emuos.os;
+
+import emuos.compiler.Instruction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static emuos.compiler.Instruction.*;
+
+/**
+ * The second tier of the execution engine.
+ * It counts the executions of the straight-line blocks of the loaded images,
+ * and translates the hot ones into JVM classes which apply the effects
+ * of the whole block on AX and FLAGS in one call.
+ * <p>
+ * The blocks are keyed by their code, so the processes created from
+ * the same image share the counters and the compiled classes.
+ *
+ * @author Link
+ */
+class BlockCompiler {
+    static final int DEFAULT_THRESHOLD = 16;
+    private static final String CLASS_NAME_PREFIX = "emuos/os/CompiledBlock$";
+    private static final String INTERFACE_NAME = CompiledBlock.class.getName().replace('.', '/');
+    private final ConcurrentMap<Block, Block> blocks = new ConcurrentHashMap<>();
+    private final BlockClassLoader classLoader = new BlockClassLoader(BlockCompiler.class.getClassLoader());
+    private final AtomicInteger compiledCount = new AtomicInteger();
+
+    /**
+     * @param code the instructions of the block, it must only contain
+     *             {@code OPCODE_ASSIGNMENT}, {@code OPCODE_INCREASE} and {@code OPCODE_DECREASE}
+     * @return the shared block of the code
+     */
+    Block getBlock(byte[] code) {
+        Block block = new Block(code);
+        Block sharedBlock = blocks.putIfAbsent(block, block);
+        return sharedBlock == null ? block : sharedBlock;
+    }
+
+    /**
+     * Count an execution of the block, and compile it once it gets hot.
+     * The counter is a plain int shared by the processors, the racing increments
+     * may be lost, which only delays the compilation by a few executions, and
+     * it's cheaper than an atomic on the hot path. The compilation itself is
+     * done once under the lock of the block.
+     *
+     * @param block     block
+     * @param threshold the count of executions before compiling
+     * @return the compiled block, or null if the block isn't hot yet
+     */
+    CompiledBlock enter(Block block, int threshold) {
+        CompiledBlock compiled = block.compiled;
+        if (compiled == null && ++block.counter >= threshold) {
+            synchronized (block) {
+                if (block.compiled == null) {
+                    block.compiled = compile(block);
+                }
+                compiled = block.compiled;
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * @return the count of the compiled blocks
+     */
+    int getCompiledCount() {
+        return compiledCount.get();
+    }
+
+    private CompiledBlock compile(Block block) {
+        String name = CLASS_NAME_PREFIX + compiledCount.incrementAndGet();
+        byte[] classFile = generateClass(name, generateCode(block.code));
+        try {
+            Class<?> clazz = classLoader.define(name.replace('/', '.'), classFile);
+            return (CompiledBlock) clazz.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Generate the body of {@code long execute(int AX)}.
+     * The local 1 is AX, the local 2 is FLAGS. AX is folded into a constant
+     * after an assignment, and the flags are computed without branches,
+     * so the method doesn't need a stack map table.
+     *
+     * @param code the instructions of the block
+     * @return the bytecode
+     */
+    private static byte[] generateCode(byte[] code) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean known = false;
+        int AX = 0;
+        int FLAGS = 0;
+        out.write(0x03);            // iconst_0
+        out.write(0x3d);            // istore_2
+        int i = 0;
+        while (i < code.length) {
+            int opcode = code[i];
+            switch (opcode) {
+                case OPCODE_ASSIGNMENT:
+                    known = true;
+                    AX = code[i + 1];
+                    if (AX == 0) FLAGS |= 1 << Kernel.Context.PSW_ZF;
+                    if (AX < 0) FLAGS |= 1 << Kernel.Context.PSW_SF;
+                    break;
+                case OPCODE_INCREASE:
+                case OPCODE_DECREASE:
+                    if (known) {
+                        AX = (AX + (opcode == OPCODE_INCREASE ? 1 : -1)) % 0xff;
+                        if (AX == 0) FLAGS |= 1 << Kernel.Context.PSW_ZF;
+                    } else {
+                        out.write(0x1b);    // iload_1
+                        out.write(0x04);    // iconst_1
+                        out.write(opcode == OPCODE_INCREASE ? 0x60 : 0x64); // iadd / isub
+                        pushInt(out, 0xff);
+                        out.write(0x70);    // irem
+                        out.write(0x3c);    // istore_1
+                        // FLAGS |= ((AX | -AX) >>> 31 ^ 1) << PSW_ZF
+                        out.write(0x1c);    // iload_2
+                        out.write(0x1b);    // iload_1
+                        out.write(0x1b);    // iload_1
+                        out.write(0x74);    // ineg
+                        out.write(0x80);    // ior
+                        pushInt(out, 31);
+                        out.write(0x7c);    // iushr
+                        out.write(0x04);    // iconst_1
+                        out.write(0x82);    // ixor
+                        pushInt(out, Kernel.Context.PSW_ZF);
+                        out.write(0x78);    // ishl
+                        out.write(0x80);    // ior
+                        out.write(0x3d);    // istore_2
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported opcode in a block: " + opcode);
+            }
+            i += getLength(opcode);
+        }
+        if (known) {
+            pushInt(out, AX);
+            out.write(0x3c);        // istore_1
+        }
+        // return (long) (FLAGS | constant FLAGS) << 32 | AX & 0xffffffffL
+        out.write(0x1c);            // iload_2
+        pushInt(out, FLAGS);
+        out.write(0x80);            // ior
+        out.write(0x85);            // i2l
+        pushInt(out, 32);
+        out.write(0x79);            // lshl
+        out.write(0x1b);            // iload_1
+        out.write(0x85);            // i2l
+        pushInt(out, 32);
+        out.write(0x79);            // lshl
+        pushInt(out, 32);
+        out.write(0x7d);            // lushr
+        out.write(0x81);            // lor
+        out.write(0xad);            // lreturn
+        return out.toByteArray();
+    }
+
+    private static void pushInt(ByteArrayOutputStream out, int value) {
+        if (value >= -1 && value <= 5) {
+            out.write(0x03 + value);        // iconst_<n>
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            out.write(0x10);                // bipush
+            out.write(value);
+        } else {
+            out.write(0x11);                // sipush
+            out.write(value >> 8);
+            out.write(value);
+        }
+    }
+
+    private static byte[] generateClass(String name, byte[] code) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);              // minor version
+            out.writeShort(52);             // major version, Java 8
+            // constant pool
+            out.writeShort(14);
+            out.writeByte(1);               // #1 Utf8
+            out.writeUTF(name);
+            out.writeByte(7);               // #2 Class
+            out.writeShort(1);
+            out.writeByte(1);               // #3 Utf8
+            out.writeUTF("java/lang/Object");
+            out.writeByte(7);               // #4 Class
+            out.writeShort(3);
+            out.writeByte(1);               // #5 Utf8
+            out.writeUTF(INTERFACE_NAME);
+            out.writeByte(7);               // #6 Class
+            out.writeShort(5);
+            out.writeByte(1);               // #7 Utf8
+            out.writeUTF("<init>");
+            out.writeByte(1);               // #8 Utf8
+            out.writeUTF("()V");
+            out.writeByte(12);              // #9 NameAndType
+            out.writeShort(7);
+            out.writeShort(8);
+            out.writeByte(10);              // #10 Methodref
+            out.writeShort(4);
+            out.writeShort(9);
+            out.writeByte(1);               // #11 Utf8
+            out.writeUTF("execute");
+            out.writeByte(1);               // #12 Utf8
+            out.writeUTF("(I)J");
+            out.writeByte(1);               // #13 Utf8
+            out.writeUTF("Code");
+            out.writeShort(0x0031);         // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+            out.writeShort(2);              // this class
+            out.writeShort(4);              // super class
+            out.writeShort(1);              // interfaces
+            out.writeShort(6);
+            out.writeShort(0);              // fields
+            out.writeShort(2);              // methods
+            // public <init>() { super(); }
+            out.writeShort(0x0001);
+            out.writeShort(7);
+            out.writeShort(8);
+            writeCode(out, 1, 1, new byte[]{0x2a, (byte) 0xb7, 0, 10, (byte) 0xb1});
+            // public long execute(int AX)
+            out.writeShort(0x0001);
+            out.writeShort(11);
+            out.writeShort(12);
+            writeCode(out, 6, 3, code);
+            out.writeShort(0);              // attributes
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void writeCode(DataOutputStream out, int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(1);                  // attributes
+        out.writeShort(13);                 // "Code"
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);                  // exception table
+        out.writeShort(0);                  // attributes
+    }
+
+    /**
+     * A compiled block
+     */
+    public interface CompiledBlock {
+        /**
+         * @param AX AX before the block
+         * @return AX after the block in the low 32 bits, and the FLAGS set by the block in the high 32 bits
+         */
+        long execute(int AX);
+    }
+
+    /**
+     * A straight-line block of instructions
+     */
+    static final class Block {
+        private final byte[] code;
+        private final int hash;
+        private final int length;
+        private final int lastOpcode;
+        // racy on purpose, see enter
+        private int counter;
+        private volatile CompiledBlock compiled;
+
+        private Block(byte[] code) {
+            this.code = code;
+            hash = Arrays.hashCode(code);
+            int count = 0;
+            int opcode = OPCODE_END;
+            for (int i = 0; i < code.length; i += Instruction.getLength(opcode)) {
+                opcode = code[i];
+                count++;
+            }
+            length = count;
+            lastOpcode = opcode;
+        }
+
+        /**
+         * @return the count of instructions
+         */
+        int getLength() {
+            return length;
+        }
+
+        /**
+         * @return the size in bytes
+         */
+        int getSize() {
+            return code.length;
+        }
+
+        int getLastOpcode() {
+            return lastOpcode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Block && Arrays.equals(code, ((Block) o).code);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class BlockClassLoader extends ClassLoader {
+        BlockClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package emuos.os;
+
+import emuos.diskmanager.FileSystem;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * The checkpoint file of the whole machine.
+ * <p>
+ * The file is written with {@link DataOutputStream} and read back from a
+ * memory-mapped {@link ByteBuffer}, both are big-endian. Every manager writes
+ * and reads its own section, the processes are referred by their PIDs
+ * after the PCB table of the memory section.
+ * <pre>
+ * magic, version
+ * the simulation clock, the next event sequence, the count of processors, the scheduling policy
+ * memory: user space, allocated spaces, free spaces, PCB table with the statistics and the scheduling state,
+ *         the generations of the PCB slots
+ * processes: ready queue, blocked queue
+ * processors: registers, counters, running process, next tick
+ * devices: the PCB, the rest time and the completion of every device, waiting queues
+ * </pre>
+ * The next ticks and the device completions keep their sequences, so the
+ * events at the same time run in the same order after a restore.
+ * The pending arrivals, the listeners, the trace, the JIT, the boost countdown
+ * of {@link MultilevelFeedbackScheduler} and the least virtual runtime of
+ * {@link CompletelyFairScheduler} are not saved. The code segments are restored from the
+ * processes, but they aren't shared with the processes created after the restore.
+ *
+ * @author Link
+ */
+class Checkpoint {
+    private static final int MAGIC = 0x454D554B; // "EMUK"
+    private static final int VERSION = 7;
+
+    private Checkpoint() {
+    }
+
+    /**
+     * save the state of a stopped kernel
+     *
+     * @param kernel kernel
+     * @param file   checkpoint file
+     * @throws IOException IOException
+     */
+    static void save(Kernel kernel, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(kernel.getSimulationEngine().now());
+            out.writeLong(kernel.getSimulationEngine().getNextSequence());
+            out.writeInt(kernel.getProcessorCount());
+            writeString(out, kernel.getSchedulerPolicy().name());
+            kernel.getProcessManager().getScheduler().settle();
+            kernel.getMemoryManager().save(out);
+            kernel.getProcessManager().save(out);
+            for (Processor processor : kernel.getProcessors()) {
+                processor.save(out);
+            }
+            kernel.getDeviceManager().save(out);
+        }
+    }
+
+    /**
+     * create a kernel from a checkpoint file
+     *
+     * @param file          checkpoint file
+     * @param executionMode the execution mode of the new kernel
+     * @param fileSystem    the file system of the image paths of the processes
+     * @return the stopped kernel
+     * @throws IOException IOException
+     */
+    static Kernel load(File file, Kernel.ExecutionMode executionMode, FileSystem fileSystem) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 8 || in.getInt() != MAGIC) {
+                throw new IOException(file + " isn't a checkpoint file.");
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint version: " + version);
+            }
+            long now = in.getLong();
+            long nextSequence = in.getLong();
+            int processorCount = in.getInt();
+            Scheduler.Policy schedulerPolicy = Scheduler.Policy.valueOf(readString(in));
+            // the memory section starts with the size of the user space
+            int userSpaceSize = in.getInt(in.position());
+            Kernel kernel = new Kernel(executionMode, processorCount, userSpaceSize, fileSystem,
+                    schedulerPolicy);
+            kernel.getSimulationEngine().reset(now, nextSequence);
+            Map<Integer, ProcessControlBlock> pcbs = kernel.getMemoryManager().load(in, fileSystem);
+            kernel.getProcessManager().load(in, pcbs);
+            for (Processor processor : kernel.getProcessors()) {
+                processor.load(in, pcbs);
+            }
+            kernel.getDeviceManager().load(in, pcbs);
+            return kernel;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException(file + " is truncated or corrupted.", e);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param pcbs PID --> PCB
+     * @param PID  PID
+     * @return the PCB of the PID
+     * @throws IOException if there isn't such a PCB
+     */
+    static ProcessControlBlock getPCB(Map<Integer, ProcessControlBlock> pcbs, int PID) throws IOException {
+        ProcessControlBlock pcb = pcbs.get(PID);
+        if (pcb == null) {
+            throw new IOException("The checkpoint refers to an unknown process: " + PID);
+        }
+        return pcb;
+    }
+}
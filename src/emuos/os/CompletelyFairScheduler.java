@@ -0,0 +1,122 @@
+package emuos.os;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * The completely fair scheduler.
+ * <p>
+ * Every process has a virtual runtime, the instructions it has executed weighted
+ * by its nice value, and the ready process with the least virtual runtime runs next.
+ * The ready processes are kept in a red-black tree ordered by the virtual runtime,
+ * so picking, adding and removing a process are O(log n). The time slice is the share
+ * of {@link #TARGET_LATENCY} by the weight, so every ready process runs once in the
+ * target latency, but not shorter than {@link #MIN_GRANULARITY}.
+ * <p>
+ * A new process starts half of the target latency after the least virtual runtime
+ * of the ready ones, so a stream of new processes can't starve the ready ones, and
+ * a waking process is credited with at most half of the target latency, so it can't
+ * monopolize the processor.
+ *
+ * @author Link
+ */
+class CompletelyFairScheduler implements Scheduler {
+    // in instructions
+    static final int TARGET_LATENCY = 24;
+    static final int MIN_GRANULARITY = 3;
+    // the virtual runtime is in 1/1024 instructions
+    static final int VIRTUAL_RUNTIME_SHIFT = 10;
+    static final int NICE_0_WEIGHT = 1024;
+    // the weights of the nice values from -20 to 19, every step is about 10% of CPU
+    private static final int[] WEIGHTS = {
+            88761, 71755, 56483, 46273, 36291,
+            29154, 23254, 18705, 14949, 11916,
+            9548, 7620, 6100, 4904, 3906,
+            3121, 2501, 1991, 1586, 1277,
+            1024, 820, 655, 526, 423,
+            335, 272, 215, 172, 137,
+            110, 87, 70, 56, 45,
+            36, 29, 23, 18, 15,
+    };
+    private final TreeSet<ProcessControlBlock> readyTree = new TreeSet<>(
+            Comparator.comparingLong(ProcessControlBlock::getVirtualRuntime)
+                    .thenComparingInt(ProcessControlBlock::getPID));
+    // the total weight of the ready processes
+    private long readyWeight;
+    // it never goes back, so the new and the waking processes can't go back in time
+    private long minVirtualRuntime;
+
+    /**
+     * @param nice nice value
+     * @return the weight of the nice value
+     */
+    static int getWeight(int nice) {
+        return WEIGHTS[nice - ProcessControlBlock.MIN_NICE];
+    }
+
+    @Override
+    public void enqueue(ProcessControlBlock pcb) {
+        // a process which has never run is new
+        long debit = pcb.getVirtualRuntime() == 0 ? (long) TARGET_LATENCY << VIRTUAL_RUNTIME_SHIFT >> 1 : 0;
+        pcb.setVirtualRuntime(Math.max(pcb.getVirtualRuntime(), minVirtualRuntime + debit));
+        add(pcb);
+    }
+
+    @Override
+    public ProcessControlBlock pickNext() {
+        ProcessControlBlock pcb = readyTree.pollFirst();
+        if (pcb == null) return null;
+        readyWeight -= getWeight(pcb.getNice());
+        minVirtualRuntime = Math.max(minVirtualRuntime, pcb.getVirtualRuntime());
+        return pcb;
+    }
+
+    @Override
+    public void block(ProcessControlBlock pcb) {
+        remove(pcb);
+    }
+
+    @Override
+    public void wake(ProcessControlBlock pcb) {
+        long credit = (long) TARGET_LATENCY << VIRTUAL_RUNTIME_SHIFT >> 1;
+        pcb.setVirtualRuntime(Math.max(pcb.getVirtualRuntime(), minVirtualRuntime - credit));
+        add(pcb);
+    }
+
+    @Override
+    public void tick(ProcessControlBlock pcb, int count) {
+        pcb.setVirtualRuntime(pcb.getVirtualRuntime() + ((long) count << VIRTUAL_RUNTIME_SHIFT) * NICE_0_WEIGHT / getWeight(pcb.getNice()));
+    }
+
+    @Override
+    public boolean remove(ProcessControlBlock pcb) {
+        if (!readyTree.remove(pcb)) {
+            return false;
+        }
+        readyWeight -= getWeight(pcb.getNice());
+        return true;
+    }
+
+    @Override
+    public int getTimeSlice(ProcessControlBlock pcb) {
+        long weight = getWeight(pcb.getNice());
+        return (int) Math.max(MIN_GRANULARITY, TARGET_LATENCY * weight / (readyWeight + weight));
+    }
+
+    @Override
+    public int size() {
+        return readyTree.size();
+    }
+
+    @Override
+    public List<ProcessControlBlock> getReadyProcesses() {
+        return new ArrayList<>(readyTree);
+    }
+
+    private void add(ProcessControlBlock pcb) {
+        readyTree.add(pcb);
+        readyWeight += getWeight(pcb.getNice());
+    }
+}
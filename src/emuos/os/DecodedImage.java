@@ -0,0 +1,180 @@
+package emuos.os;
+
+import emuos.compiler.Instruction;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static emuos.compiler.Instruction.*;
+
+/**
+ * The pre-decoded form of a program image loaded in the user space.
+ * <p>
+ * An image is shared by the processors running the processes of it, so every
+ * decoding builds a new {@link Code} and publishes it through a volatile
+ * reference, and a processor fetches from one {@link Code} for a whole
+ * instruction. A write to the image bumps the generation, the {@link Code} of
+ * an older generation is decoded again before the next use, and a write during
+ * the decoding makes it start over, so an invalidation is never lost.
+ *
+ * @author Link
+ */
+class DecodedImage {
+    private final MemoryManager memoryManager;
+    private final int base;
+    private final int size;
+    private final AtomicInteger generation = new AtomicInteger();
+    private volatile Code code;
+
+    DecodedImage(MemoryManager memoryManager, int base, int size) {
+        this.memoryManager = memoryManager;
+        this.base = base;
+        this.size = size;
+        decode();
+    }
+
+    /**
+     * @return the decoded form which matches the user space, it's decoded again if it's invalid
+     */
+    Code get() {
+        Code code = this.code;
+        return code.generation == generation.get() ? code : decode();
+    }
+
+    /**
+     * decode the image from the user space
+     *
+     * @return the decoded form
+     */
+    synchronized Code decode() {
+        Code code = this.code;
+        int generation = this.generation.get();
+        while (code == null || code.generation != generation) {
+            code = new Code(generation);
+            this.code = code;
+            generation = this.generation.get();
+        }
+        return code;
+    }
+
+    /**
+     * Invalidate the decoded form, it'll be decoded again before the next use.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    int getBase() {
+        return base;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * An immutable decoding of the image.
+     * The arrays are indexed by the offset of the instruction in the image,
+     * the offsets which aren't the start of an instruction have a negative next PC.
+     */
+    final class Code {
+        // the generation of the image when it was decoded
+        private final int generation;
+        private final byte[] opcodes = new byte[size];
+        private final byte[] operands0 = new byte[size];
+        private final byte[] operands1 = new byte[size];
+        private final int[] nextPCs = new int[size];
+        // the code of the image when it was decoded
+        private final byte[] code = new byte[size];
+        // offset --> the block starting at the offset, it's filled in by the processors
+        private final AtomicReferenceArray<BlockCompiler.Block> blocks = new AtomicReferenceArray<>(size);
+
+        private Code(int generation) {
+            this.generation = generation;
+            for (int i = 0; i < size; ++i) {
+                code[i] = memoryManager.read(base + i);
+            }
+            int offset = 0;
+            while (offset < size) {
+                byte opcode = code[offset];
+                int length = Instruction.getLength(opcode);
+                if (offset + length > size) {
+                    // the operands are out of the image, leave them to the slow path
+                    break;
+                }
+                opcodes[offset] = opcode;
+                operands0[offset] = length > 1 ? code[offset + 1] : 0;
+                operands1[offset] = length > 2 ? code[offset + 2] : 0;
+                nextPCs[offset] = base + offset + length;
+                for (int i = 1; i < length; ++i) {
+                    nextPCs[offset + i] = -1;
+                }
+                offset += length;
+            }
+            for (; offset < size; ++offset) {
+                nextPCs[offset] = -1;
+            }
+        }
+
+        /**
+         * @param PC PC
+         * @return true if there is a decoded instruction at the PC
+         */
+        boolean contains(int PC) {
+            int offset = PC - base;
+            return offset >= 0 && offset < size && nextPCs[offset] >= 0;
+        }
+
+        /**
+         * Get the straight-line block starting at the PC. The block ends before
+         * {@code OPCODE_IO}, {@code OPCODE_END} or any unknown opcode, so the
+         * instructions which may interrupt the process are left to the interpreter.
+         *
+         * @param PC        PC, it must be the start of a decoded instruction
+         * @param maxLength the max count of instructions, i.e. the rest of the time slice
+         * @param compiler  the block compiler
+         * @return the block, or null if there are less than two instructions
+         */
+        BlockCompiler.Block getBlock(int PC, int maxLength, BlockCompiler compiler) {
+            int offset = PC - base;
+            BlockCompiler.Block block = blocks.get(offset);
+            if (block != null && block.getLength() <= maxLength) {
+                return block;
+            }
+            int end = offset;
+            int length = 0;
+            while (length < maxLength && end < size && nextPCs[end] >= 0) {
+                int opcode = opcodes[end];
+                if (opcode != OPCODE_ASSIGNMENT && opcode != OPCODE_INCREASE && opcode != OPCODE_DECREASE) {
+                    break;
+                }
+                end = nextPCs[end] - base;
+                length++;
+            }
+            if (length < 2) {
+                return null;
+            }
+            // the compiler shares the blocks of the same code, so a racing processor stores the same one
+            block = compiler.getBlock(Arrays.copyOfRange(code, offset, end));
+            blocks.set(offset, block);
+            return block;
+        }
+
+        int getOpcode(int PC) {
+            return opcodes[PC - base];
+        }
+
+        int getOperand0(int PC) {
+            return operands0[PC - base];
+        }
+
+        int getOperand1(int PC) {
+            return operands1[PC - base];
+        }
+
+        int getNextPC(int PC) {
+            return nextPCs[PC - base];
+        }
+    }
+}
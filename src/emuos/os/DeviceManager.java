@@ -5,9 +5,13 @@
  */
 package emuos.os;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author Link
@@ -22,11 +26,24 @@ public class DeviceManager {
     private final BlockingQueue<ProcessControlBlock> finishedQueue = new LinkedBlockingDeque<>();
     private final Collection<Handler> finishedHandlers = new LinkedList<>();
     private boolean running;
+    // the count of the requests waiting for or using a device
+    private int pendingCount;
+    // the engine of the simulated mode, the devices are driven by its events instead of the timer
+    private SimulationEngine engine;
 
     public DeviceManager() {
-        DeviceList deviceListA = new DeviceList('A', 2);
-        DeviceList deviceListB = new DeviceList('B', 3);
-        DeviceList deviceListC = new DeviceList('C', 3);
+        this(new Metrics());
+    }
+
+    /**
+     * ctor
+     *
+     * @param metrics the registry of the request counters and the queue wait histograms
+     */
+    DeviceManager(Metrics metrics) {
+        DeviceList deviceListA = new DeviceList('A', 2, metrics);
+        DeviceList deviceListB = new DeviceList('B', 3, metrics);
+        DeviceList deviceListC = new DeviceList('C', 3, metrics);
         deviceListMap.put((int) 'A', deviceListA);
         deviceListMap.put((int) 'B', deviceListB);
         deviceListMap.put((int) 'C', deviceListC);
@@ -56,10 +73,48 @@ public class DeviceManager {
         }
     }
 
+    /**
+     * Start the devices on the virtual clock of an engine. A device finishes
+     * exactly {@code time * PERIOD} virtual milliseconds after it's allocated.
+     *
+     * @param engine simulation engine
+     */
+    public synchronized void start(SimulationEngine engine) {
+        if (!running) {
+            this.engine = engine;
+            running = true;
+            for (DeviceList list : deviceListMap.values()) {
+                // the devices which were busy when the engine was stopped, or restored from a checkpoint
+                for (DeviceInfo deviceInfo : list.getDeviceInfoList()) {
+                    if (!deviceInfo.isIdle() && deviceInfo.completion == null) {
+                        deviceInfo.allocatedAt = now();
+                        scheduleCompletion(list, deviceInfo, deviceInfo.restDelay, deviceInfo.completionSequence);
+                    }
+                }
+                dispatch(list);
+            }
+        }
+    }
+
     public synchronized void stop() {
         if (running) {
-            timer.cancel();
-            timer.purge();
+            if (engine != null) {
+                for (DeviceList list : deviceListMap.values()) {
+                    for (DeviceInfo deviceInfo : list.getDeviceInfoList()) {
+                        deviceInfo.restDelay = getRestDelay(deviceInfo);
+                        deviceInfo.restTime = getRestTime(deviceInfo);
+                        if (deviceInfo.completion != null) {
+                            deviceInfo.completionSequence = deviceInfo.completion.getSequence();
+                        }
+                        cancelCompletion(deviceInfo);
+                        accountBusyTime(deviceInfo);
+                    }
+                }
+                engine = null;
+            } else {
+                timer.cancel();
+                timer.purge();
+            }
             running = false;
         }
     }
@@ -68,33 +123,160 @@ public class DeviceManager {
         assert requestInfo.pcb.getState() == ProcessControlBlock.ProcessState.BLOCKED;
         DeviceList deviceList = deviceListMap.get(requestInfo.getDeviceType());
         if (deviceList != null) {
+            requestInfo.requestedAt = now();
+            requestInfo.pcb.setIORequest(requestInfo);
+            deviceList.requestCounter.increment();
             deviceList.getWaitingQueue().add(requestInfo);
+            ++pendingCount;
+            if (engine != null) {
+                dispatch(deviceList);
+            }
         }
     }
 
+    /**
+     * allocate the idle devices of the list to the waiting requests, and schedule their completions
+     *
+     * @param list device list
+     */
+    private void dispatch(DeviceList list) {
+        for (DeviceInfo deviceInfo : list.getDeviceInfoList()) {
+            if (list.getWaitingQueue().isEmpty()) {
+                return;
+            }
+            if (deviceInfo.isIdle()) {
+                RequestInfo head = list.pollWaiting();
+                list.recordWait(head, now());
+                head.device = deviceInfo;
+                deviceInfo.alloc(head.getPCB(), head.getTime());
+                deviceInfo.allocatedAt = now();
+                scheduleCompletion(list, deviceInfo, (long) head.getTime() * PERIOD, -1);
+            }
+        }
+    }
+
+    /**
+     * @param list       device list
+     * @param deviceInfo device
+     * @param delay      the delay in virtual milliseconds
+     * @param sequence   the sequence of the completion before the devices stopped, -1 if it's a new one
+     */
+    private void scheduleCompletion(DeviceList list, DeviceInfo deviceInfo, long delay, long sequence) {
+        Runnable action = () -> {
+            synchronized (DeviceManager.this) {
+                deviceInfo.completion = null;
+                finish(deviceInfo);
+                dispatch(list);
+            }
+        };
+        long time = engine.now() + Math.max(0, delay);
+        deviceInfo.completion = sequence < 0 ? engine.scheduleAt(time, action) : engine.scheduleAt(time, sequence, action);
+    }
+
+    /**
+     * @param deviceInfo device
+     * @return the rest time in milliseconds
+     */
+    private long getRestDelay(DeviceInfo deviceInfo) {
+        if (deviceInfo.completion != null) {
+            return deviceInfo.completion.getTime() - engine.now();
+        }
+        return deviceInfo.restDelay;
+    }
+
+    /**
+     * @param deviceInfo device
+     * @return the rest time in the periods of the timer mode
+     */
+    private int getRestTime(DeviceInfo deviceInfo) {
+        if (deviceInfo.completion != null) {
+            // round up to the periods of the timer mode
+            return (int) ((deviceInfo.completion.getTime() - engine.now() + PERIOD - 1) / PERIOD);
+        }
+        return deviceInfo.restTime;
+    }
+
+    /**
+     * add the time since a device was allocated to the busy time of its type
+     *
+     * @param deviceInfo device
+     */
+    private void accountBusyTime(DeviceInfo deviceInfo) {
+        if (deviceInfo.allocatedAt >= 0) {
+            deviceListMap.get(deviceInfo.getType()).busyCounter.add(now() - deviceInfo.allocatedAt);
+            deviceInfo.allocatedAt = -1;
+        }
+    }
+
+    /**
+     * @param type device type
+     * @return the count of the devices of the type, 0 if there isn't such a type
+     */
+    public int getDeviceCount(int type) {
+        DeviceList list = deviceListMap.get(type);
+        return list == null ? 0 : list.getDeviceInfoList().size();
+    }
+
+    /**
+     * @return the device types, sorted
+     */
+    public List<Integer> getDeviceTypes() {
+        List<Integer> types = new ArrayList<>(deviceListMap.keySet());
+        Collections.sort(types);
+        return types;
+    }
+
+    /**
+     * @return the current time in milliseconds, on the virtual clock in the simulated mode
+     */
+    private long now() {
+        return engine != null ? engine.now() : System.nanoTime() / 1_000_000;
+    }
+
+    private void cancelCompletion(DeviceInfo deviceInfo) {
+        if (deviceInfo.completion != null) {
+            engine.cancel(deviceInfo.completion);
+            deviceInfo.completion = null;
+        }
+    }
+
+    private void finish(DeviceInfo deviceInfo) {
+        deviceInfo.getPCB().setIORequest(null);
+        finishedHandlers.forEach(handler -> handler.handler(deviceInfo));
+        finishedQueue.add(deviceInfo.getPCB());
+        accountBusyTime(deviceInfo);
+        deviceInfo.release();
+        --pendingCount;
+    }
+
+    /**
+     * Cancel the IO request of a blocked process, it's O(1) since the process
+     * refers to its request, and the request to its device.
+     *
+     * @param pcb PCB
+     * @return false if the process hasn't any IO request
+     */
     public synchronized boolean detach(ProcessControlBlock pcb) {
         if (pcb == null) return false;
         assert pcb.getState() == ProcessControlBlock.ProcessState.BLOCKED;
-        for (DeviceList list : deviceListMap.values()) {
-            boolean detached = false;
-            for (DeviceInfo deviceInfo : list.getDeviceInfoList()) {
-                if (pcb.equals(deviceInfo.getPCB())) {
-                    deviceInfo.release();
-                    detached = true;
-                    break;
-                }
+        RequestInfo requestInfo = pcb.getIORequest();
+        if (requestInfo == null) return false;
+        pcb.setIORequest(null);
+        DeviceList list = deviceListMap.get(requestInfo.getDeviceType());
+        DeviceInfo deviceInfo = requestInfo.device;
+        if (deviceInfo != null) {
+            accountBusyTime(deviceInfo);
+            deviceInfo.release();
+            --pendingCount;
+            if (engine != null) {
+                cancelCompletion(deviceInfo);
+                dispatch(list);
             }
-            if (detached) return true;
-            Iterator<RequestInfo> iterator = list.getWaitingQueue().iterator();
-            while (iterator.hasNext()) {
-                RequestInfo requestInfo = iterator.next();
-                if (pcb.equals(requestInfo.getPCB())) {
-                    iterator.remove();
-                    detached = true;
-                    break;
-                }
-            }
-            if (detached) return true;
+            return true;
+        }
+        if (list.getWaitingQueue().remove(requestInfo)) {
+            --pendingCount;
+            return true;
         }
         return false;
     }
@@ -109,12 +291,71 @@ public class DeviceManager {
                     status = Snapshot.Status.BUSY;
                     PID = info.getPCB().getPID();
                 }
-                snapshots.add(new Snapshot(info.getType(), status, PID, info.restTime));
+                snapshots.add(new Snapshot(info.getType(), status, PID, getRestTime(info)));
             }
         }
         return snapshots;
     }
 
+    synchronized void save(DataOutputStream out) throws IOException {
+        List<Integer> types = getDeviceTypes();
+        out.writeInt(types.size());
+        for (int type : types) {
+            DeviceList list = deviceListMap.get(type);
+            out.writeInt(type);
+            out.writeInt(list.getDeviceInfoList().size());
+            for (DeviceInfo info : list.getDeviceInfoList()) {
+                out.writeInt(info.isIdle() ? 0 : info.getPCB().getPID());
+                out.writeLong(getRestDelay(info));
+                out.writeLong(info.completion != null ? info.completion.getSequence() : info.completionSequence);
+            }
+            out.writeInt(list.getWaitingQueue().size());
+            for (RequestInfo requestInfo : list.getWaitingQueue()) {
+                out.writeInt(requestInfo.getPCB().getPID());
+                out.writeInt(requestInfo.getTime());
+            }
+        }
+    }
+
+    synchronized void load(ByteBuffer in, Map<Integer, ProcessControlBlock> pcbs) throws IOException {
+        if (running) {
+            throw new IllegalStateException("The devices must be stopped before they are loaded.");
+        }
+        pendingCount = 0;
+        int listCount = in.getInt();
+        for (int i = 0; i < listCount; ++i) {
+            int type = in.getInt();
+            DeviceList list = deviceListMap.get(type);
+            int deviceCount = in.getInt();
+            if (list == null || list.getDeviceInfoList().size() != deviceCount) {
+                throw new IOException("The devices of type " + (char) type + " don't match.");
+            }
+            for (DeviceInfo info : list.getDeviceInfoList()) {
+                int PID = in.getInt();
+                long restDelay = in.getLong();
+                long completionSequence = in.getLong();
+                info.release();
+                if (PID != 0) {
+                    ProcessControlBlock pcb = Checkpoint.getPCB(pcbs, PID);
+                    info.alloc(pcb, (int) ((restDelay + PERIOD - 1) / PERIOD));
+                    pcb.setIORequest(new RequestInfo(pcb, type, info.restTime));
+                    pcb.getIORequest().device = info;
+                    info.restDelay = restDelay;
+                    info.completionSequence = completionSequence;
+                    ++pendingCount;
+                }
+            }
+            list.getWaitingQueue().clear();
+            int requestCount = in.getInt();
+            for (int j = 0; j < requestCount; ++j) {
+                ProcessControlBlock pcb = Checkpoint.getPCB(pcbs, in.getInt());
+                pcb.setIORequest(new RequestInfo(pcb, type, in.getInt()));
+                list.getWaitingQueue().add(pcb.getIORequest());
+                ++pendingCount;
+            }
+        }
+    }
+
     public synchronized List<RequestInfo> snapRequestInfo() {
         List<RequestInfo> snapshots = new LinkedList<>();
         for (DeviceList list : deviceListMap.values()) {
@@ -134,6 +375,14 @@ public class DeviceManager {
         // rest time in milliseconds
         private int restTime;
         private ProcessControlBlock PCB;
+        // the completion event in the simulated mode
+        private SimulationEngine.Event completion;
+        // the rest time in milliseconds when the completion isn't scheduled
+        private long restDelay;
+        // the sequence of the completion when it isn't scheduled, -1 if there isn't one
+        private long completionSequence = -1;
+        // the time in milliseconds when it's allocated or resumed, -1 if it isn't counted
+        private long allocatedAt = -1;
 
         DeviceInfo(int type) {
             this.type = type;
@@ -148,11 +397,16 @@ public class DeviceManager {
         void release() {
             PCB = null;
             restTime = 0;
+            restDelay = 0;
+            completionSequence = -1;
+            allocatedAt = -1;
         }
 
         void alloc(ProcessControlBlock user, int time) {
             this.PCB = user;
             this.restTime = time;
+            this.restDelay = (long) time * PERIOD;
+            this.completionSequence = -1;
         }
 
         public ProcessControlBlock getPCB() {
@@ -168,6 +422,10 @@ public class DeviceManager {
         private final ProcessControlBlock pcb;
         private final int deviceType;
         private final int time;
+        // the time in milliseconds when it's queued, -1 if it's unknown
+        private long requestedAt = -1;
+        // the device of the request, null if it's waiting
+        private DeviceInfo device;
 
         public RequestInfo(ProcessControlBlock pcb, int deviceType, int time) {
             this.pcb = pcb;
@@ -190,24 +448,64 @@ public class DeviceManager {
     }
 
     private static class DeviceList {
-        final Queue<RequestInfo> waitingQueue;
+        // the requests in FIFO order, a request can be removed in O(1)
+        final LinkedHashSet<RequestInfo> waitingQueue;
         final List<DeviceInfo> deviceInfoList;
+        final LongAdder requestCounter;
+        // the busy time of the devices in milliseconds
+        final LongAdder busyCounter;
+        final Metrics.Histogram waitHistogram;
 
-        DeviceList(int kind, int count) {
+        DeviceList(int kind, int count, Metrics metrics) {
             deviceInfoList = new ArrayList<>();
             for (int i = 0; i < count; ++i) {
                 deviceInfoList.add(new DeviceInfo(kind));
             }
-            waitingQueue = new LinkedList<>();
+            waitingQueue = new LinkedHashSet<>();
+            requestCounter = metrics.counter("device." + (char) kind + ".requests");
+            busyCounter = metrics.counter("device." + (char) kind + ".busy");
+            waitHistogram = metrics.histogram("device." + (char) kind + ".wait");
+        }
+
+        /**
+         * record the queue wait of a request when it gets a device
+         *
+         * @param requestInfo request
+         * @param now         the current time in milliseconds
+         */
+        void recordWait(RequestInfo requestInfo, long now) {
+            if (requestInfo.requestedAt >= 0) {
+                waitHistogram.record(now - requestInfo.requestedAt);
+            }
         }
 
         List<DeviceInfo> getDeviceInfoList() {
             return deviceInfoList;
         }
 
-        Queue<RequestInfo> getWaitingQueue() {
+        LinkedHashSet<RequestInfo> getWaitingQueue() {
             return waitingQueue;
         }
+
+        /**
+         * @return the first waiting request, or null if there isn't
+         */
+        RequestInfo peekWaiting() {
+            return waitingQueue.isEmpty() ? null : waitingQueue.iterator().next();
+        }
+
+        /**
+         * remove the first waiting request
+         *
+         * @return the request, or null if there isn't
+         */
+        RequestInfo pollWaiting() {
+            RequestInfo head = peekWaiting();
+            if (head != null) {
+                waitingQueue.remove(head);
+            }
+            return head;
+        }
     }
 
     public static class Snapshot {
@@ -250,21 +548,27 @@ public class DeviceManager {
         @Override
         public void run() {
             synchronized (DeviceManager.this) {
+                if (pendingCount == 0) {
+                    // all the devices are idle
+                    return;
+                }
                 for (DeviceList list : deviceListMap.values()) {
-                    RequestInfo head = list.getWaitingQueue().peek();
+                    RequestInfo head = list.peekWaiting();
                     for (DeviceInfo deviceInfo : list.getDeviceInfoList()) {
                         if (!deviceInfo.isIdle()) {
                             deviceInfo.restTime -= REST_TIME_INTERVAL;
+                            deviceInfo.restDelay -= (long) REST_TIME_INTERVAL * PERIOD;
                             if (deviceInfo.restTime <= 0) {
-                                finishedHandlers.forEach(handler -> handler.handler(deviceInfo));
-                                finishedQueue.add(deviceInfo.getPCB());
-                                deviceInfo.release();
+                                finish(deviceInfo);
                             }
                         }
                         if (head != null && deviceInfo.isIdle()) {
-                            head = list.getWaitingQueue().poll();
+                            head = list.pollWaiting();
+                            list.recordWait(head, now());
+                            head.device = deviceInfo;
                             deviceInfo.alloc(head.getPCB(), head.getTime());
-                            head = list.getWaitingQueue().peek();
+                            deviceInfo.allocatedAt = now();
+                            head = list.peekWaiting();
                         }
                     }
                 }
@@ -0,0 +1,261 @@
+package emuos.os;
+
+import java.util.*;
+
+/**
+ * The real-time class on top of a normal scheduler.
+ * <p>
+ * A real-time process declares a relative deadline and a CPU budget when it's
+ * created. While it has budget left, it's in the real-time class, which always
+ * runs ahead of the normal class, and the ready ones run by the earliest deadline
+ * first. The time slice of a real-time process is the budget it has left, and
+ * once it's used up the process goes on in the normal class. When a real-time
+ * process becomes ready, {@link ProcessManager} preempts a processor running a
+ * normal process, or else the real-time process with the latest deadline if it's
+ * later, at the next tick of the processor, see {@link #shouldPreempt}, so the
+ * scheduling is preemptive as the admission test requires. The only delay is
+ * the tick in flight on the preempted processor: a compiled block doesn't start
+ * while a preemption is pending, and in the simulated mode it doesn't run past
+ * the event which makes the process ready.
+ * <p>
+ * The ready real-time processes are kept in a binary heap indexed by the
+ * position of every process, so adding, removing and picking are O(log n).
+ * <p>
+ * The admission control is the density test of global EDF (Goossens, Funk and
+ * Baruah): on m processors a set of jobs whose densities budget / relative deadline
+ * add up to at most m - (m - 1) * the greatest density meets every deadline.
+ * A reservation is held until the process is destroyed.
+ *
+ * @author Link
+ */
+class EarliestDeadlineFirstScheduler implements Scheduler {
+    private static final int INITIAL_CAPACITY = 16;
+    private final Scheduler normalScheduler;
+    private final Set<ProcessControlBlock> reservations = new HashSet<>();
+    private ProcessControlBlock[] heap = new ProcessControlBlock[INITIAL_CAPACITY];
+    private int heapSize;
+
+    /**
+     * @param normalScheduler the scheduler of the normal class
+     */
+    EarliestDeadlineFirstScheduler(Scheduler normalScheduler) {
+        this.normalScheduler = normalScheduler;
+    }
+
+    /**
+     * @return the scheduler of the normal class
+     */
+    Scheduler getNormalScheduler() {
+        return normalScheduler;
+    }
+
+    /**
+     * @param relativeDeadline the relative deadline in ticks
+     * @param budget           the CPU budget in instructions
+     * @param processorCount   the count of processors
+     * @return true if the job can be admitted along with the reserved ones
+     */
+    boolean canAdmit(long relativeDeadline, long budget, int processorCount) {
+        if (relativeDeadline <= 0 || budget <= 0 || budget > relativeDeadline) {
+            return false;
+        }
+        double density = (double) budget / relativeDeadline;
+        double totalDensity = density;
+        double maxDensity = density;
+        for (ProcessControlBlock pcb : reservations) {
+            double reserved = (double) pcb.getBudget() / pcb.getRelativeDeadline();
+            totalDensity += reserved;
+            maxDensity = Math.max(maxDensity, reserved);
+        }
+        return totalDensity <= processorCount - (processorCount - 1) * maxDensity;
+    }
+
+    /**
+     * @param ready   a real-time process which has become ready
+     * @param running the process running on a processor
+     * @return the priority of preempting the running process for the ready one,
+     * the higher the better, or a negative value if it shouldn't be preempted
+     */
+    static long shouldPreempt(ProcessControlBlock ready, ProcessControlBlock running) {
+        if (!isRealTime(running)) {
+            return Long.MAX_VALUE;
+        }
+        return running.getDeadline() > ready.getDeadline() ? running.getDeadline() : -1;
+    }
+
+    /**
+     * @param pcb PCB
+     * @return true if the process is in the real-time class
+     */
+    static boolean isRealTime(ProcessControlBlock pcb) {
+        return pcb.isRealTime() && pcb.getBudgetLeft() > 0;
+    }
+
+    /**
+     * reserve the density of an admitted real-time process
+     *
+     * @param pcb PCB
+     */
+    void reserve(ProcessControlBlock pcb) {
+        reservations.add(pcb);
+    }
+
+    /**
+     * release the reservation of a destroyed process
+     *
+     * @param pcb PCB
+     */
+    void release(ProcessControlBlock pcb) {
+        reservations.remove(pcb);
+    }
+
+    /**
+     * @return the count of the admitted real-time processes
+     */
+    int getReservationCount() {
+        return reservations.size();
+    }
+
+    @Override
+    public void enqueue(ProcessControlBlock pcb) {
+        if (isRealTime(pcb)) {
+            offer(pcb);
+        } else {
+            normalScheduler.enqueue(pcb);
+        }
+    }
+
+    @Override
+    public ProcessControlBlock pickNext() {
+        if (heapSize == 0) {
+            return normalScheduler.pickNext();
+        }
+        ProcessControlBlock pcb = heap[0];
+        removeAt(0);
+        return pcb;
+    }
+
+    @Override
+    public void block(ProcessControlBlock pcb) {
+        if (pcb.getDeadlineIndex() >= 0) {
+            removeAt(pcb.getDeadlineIndex());
+        } else if (!isRealTime(pcb)) {
+            normalScheduler.block(pcb);
+        }
+    }
+
+    @Override
+    public void wake(ProcessControlBlock pcb) {
+        if (isRealTime(pcb)) {
+            offer(pcb);
+        } else {
+            normalScheduler.wake(pcb);
+        }
+    }
+
+    @Override
+    public void tick(ProcessControlBlock pcb, int count) {
+        if (isRealTime(pcb)) {
+            pcb.setBudgetLeft(pcb.getBudgetLeft() - count);
+        } else {
+            normalScheduler.tick(pcb, count);
+        }
+    }
+
+    @Override
+    public boolean remove(ProcessControlBlock pcb) {
+        if (pcb.getDeadlineIndex() >= 0) {
+            removeAt(pcb.getDeadlineIndex());
+            return true;
+        }
+        return normalScheduler.remove(pcb);
+    }
+
+    @Override
+    public int getTimeSlice(ProcessControlBlock pcb) {
+        if (isRealTime(pcb)) {
+            return (int) Math.min(Integer.MAX_VALUE, pcb.getBudgetLeft());
+        }
+        return normalScheduler.getTimeSlice(pcb);
+    }
+
+    @Override
+    public int size() {
+        return heapSize + normalScheduler.size();
+    }
+
+    @Override
+    public List<ProcessControlBlock> getReadyProcesses() {
+        List<ProcessControlBlock> processes = new ArrayList<>(Arrays.asList(heap).subList(0, heapSize));
+        processes.sort(EarliestDeadlineFirstScheduler::compare);
+        processes.addAll(normalScheduler.getReadyProcesses());
+        return processes;
+    }
+
+    @Override
+    public void settle() {
+        normalScheduler.settle();
+    }
+
+    private static int compare(ProcessControlBlock a, ProcessControlBlock b) {
+        if (a.getDeadline() != b.getDeadline()) {
+            return a.getDeadline() < b.getDeadline() ? -1 : 1;
+        }
+        return Integer.compare(a.getPID(), b.getPID());
+    }
+
+    private void offer(ProcessControlBlock pcb) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        heap[heapSize] = pcb;
+        pcb.setDeadlineIndex(heapSize++);
+        siftUp(pcb.getDeadlineIndex());
+    }
+
+    private void removeAt(int index) {
+        ProcessControlBlock removed = heap[index];
+        removed.setDeadlineIndex(-1);
+        ProcessControlBlock last = heap[--heapSize];
+        heap[heapSize] = null;
+        if (index == heapSize) return;
+        heap[index] = last;
+        last.setDeadlineIndex(index);
+        siftDown(index);
+        if (heap[index] == last) {
+            siftUp(index);
+        }
+    }
+
+    private void siftUp(int index) {
+        ProcessControlBlock pcb = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (compare(pcb, heap[parent]) >= 0) break;
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(pcb, index);
+    }
+
+    private void siftDown(int index) {
+        ProcessControlBlock pcb = heap[index];
+        int half = heapSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < heapSize && compare(heap[right], heap[child]) < 0) {
+                child = right;
+            }
+            if (compare(pcb, heap[child]) <= 0) break;
+            place(heap[child], index);
+            index = child;
+        }
+        place(pcb, index);
+    }
+
+    private void place(ProcessControlBlock pcb, int index) {
+        heap[index] = pcb;
+        pcb.setDeadlineIndex(index);
+    }
+}
@@ -0,0 +1,298 @@
+package emuos.os;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The event bus of the kernel.
+ * <p>
+ * The events are published into a ring of pre-allocated slots, the
+ * producers claim slots with a CAS on the claim sequence and publish a slot
+ * by writing its sequence, so publishing doesn't lock or allocate.
+ * A single consumer thread drains the published slots in batches and calls
+ * the listeners, so a slow listener never stalls the processors.
+ * <p>
+ * A producer never waits. When the ring is full, the events of the
+ * {@link Type#isLossy() lossy} types are dropped, and the others go to an
+ * unbounded overflow queue, which is the only case that allocates. While there
+ * are overflowed events, the later ones follow them into the overflow queue
+ * (or are dropped if lossy), and the consumer delivers them once the ring is
+ * drained, so the events of a producer are still delivered in order.
+ * The listeners may call back into the kernel, but they must not wait for the processors.
+ *
+ * @author Link
+ */
+class EventBus {
+    static final int DEFAULT_CAPACITY = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private final Slot[] slots;
+    private final int mask;
+    private final List<List<ProcessManager.Listener>> listeners;
+    // the last claimed sequence
+    private final AtomicLong claimed = new AtomicLong(-1);
+    // the last consumed sequence
+    private final AtomicLong consumed = new AtomicLong(-1);
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Queue<ProcessEventInfo> overflow = new ConcurrentLinkedQueue<>();
+    // the count of the overflowed events which haven't been delivered
+    private final AtomicLong overflowPending = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private volatile Thread consumer;
+    private volatile boolean waiting;
+
+    EventBus() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the count of slots, it's rounded up to a power of two
+     */
+    EventBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new Slot[size];
+        for (int i = 0; i < size; ++i) {
+            slots[i] = new Slot(i - size);
+        }
+        mask = size - 1;
+        listeners = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < Type.values().length; ++i) {
+            listeners.add(new CopyOnWriteArrayList<>());
+        }
+    }
+
+    boolean subscribe(Type type, ProcessManager.Listener listener) {
+        return listeners.get(type.ordinal()).add(listener);
+    }
+
+    boolean unsubscribe(Type type, ProcessManager.Listener listener) {
+        return listeners.get(type.ordinal()).remove(listener);
+    }
+
+    /**
+     * @param type event type
+     * @return true if there is any listener of the type
+     */
+    boolean hasListeners(Type type) {
+        return !listeners.get(type.ordinal()).isEmpty();
+    }
+
+    /**
+     * Publish an event. It never waits, and it doesn't allocate unless the ring is full.
+     *
+     * @param type        event type
+     * @param time        kernel time
+     * @param processorID the ID of the processor
+     * @param pcb         the PCB of the event, or null
+     * @param AX          AX of the process
+     * @param PC          PC of the process
+     * @return true if the event is published, false if it's dropped
+     */
+    boolean publish(Type type, long time, int processorID, ProcessControlBlock pcb, int AX, int PC) {
+        if (!hasListeners(type)) {
+            return false;
+        }
+        long sequence;
+        while (true) {
+            if (overflowPending.get() > 0) {
+                return overflow(type, time, processorID, pcb, AX, PC);
+            }
+            long last = claimed.get();
+            sequence = last + 1;
+            if (sequence - consumed.get() > slots.length) {
+                // the ring is full
+                return overflow(type, time, processorID, pcb, AX, PC);
+            } else if (claimed.compareAndSet(last, sequence)) {
+                break;
+            }
+        }
+        Slot slot = slots[(int) sequence & mask];
+        slot.type = type;
+        slot.time = time;
+        slot.processorID = processorID;
+        slot.pcb = pcb;
+        slot.AX = AX;
+        slot.PC = PC;
+        slot.sequence = sequence;
+        if (waiting) {
+            wakeConsumer();
+        }
+        return true;
+    }
+
+    private boolean overflow(Type type, long time, int processorID, ProcessControlBlock pcb, int AX, int PC) {
+        if (type.isLossy()) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        overflowPending.incrementAndGet();
+        overflow.add(new ProcessEventInfo(time, type.name(), processorID, pcb, AX, PC));
+        overflowCount.incrementAndGet();
+        wakeConsumer();
+        return true;
+    }
+
+    /**
+     * @return the count of the dropped events
+     */
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return the count of the events which have gone to the overflow queue
+     */
+    long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    /**
+     * start the consumer thread
+     */
+    synchronized void start() {
+        if (consumer != null) return;
+        Thread thread = new Thread(this::consume, "Thread-Kernel-Events");
+        thread.setDaemon(true);
+        consumer = thread;
+        thread.start();
+    }
+
+    /**
+     * stop the consumer thread, the published events are still delivered
+     */
+    synchronized void stop() {
+        Thread thread = consumer;
+        if (thread == null) return;
+        consumer = null;
+        LockSupport.unpark(thread);
+        if (thread != Thread.currentThread()) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void wakeConsumer() {
+        Thread thread = consumer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void consume() {
+        while (true) {
+            boolean stopping = consumer != Thread.currentThread();
+            if (drain() == 0) {
+                if (stopping) {
+                    return;
+                }
+                waiting = true;
+                if (!isAvailable()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                waiting = false;
+            }
+        }
+    }
+
+    private boolean isAvailable() {
+        long next = consumed.get() + 1;
+        return slots[(int) next & mask].sequence == next || !overflow.isEmpty();
+    }
+
+    /**
+     * deliver a batch of the published events, then the overflowed ones if the ring is drained
+     *
+     * @return the count of the delivered events
+     */
+    private int drain() {
+        int count = drainRing();
+        ProcessEventInfo info;
+        // an overflowed event is later than every claimed slot, the peek
+        // comes before the check, so a claim racing with the overflow is seen
+        while ((info = overflow.peek()) != null && claimed.get() == consumed.get()) {
+            overflow.poll();
+            deliver(Type.valueOf(info.getType()), info);
+            overflowPending.decrementAndGet();
+            ++count;
+        }
+        return count;
+    }
+
+    private int drainRing() {
+        long next = consumed.get() + 1;
+        int count = 0;
+        Slot slot;
+        while ((slot = slots[(int) next & mask]).sequence == next) {
+            ProcessEventInfo info = new ProcessEventInfo(slot.time, slot.type.name(),
+                    slot.processorID, slot.pcb, slot.AX, slot.PC);
+            slot.pcb = null;
+            deliver(slot.type, info);
+            ++next;
+            // release the slots every few events, so the producers don't wait for the whole batch
+            if ((++count & 63) == 0) {
+                consumed.lazySet(next - 1);
+            }
+        }
+        consumed.lazySet(next - 1);
+        return count;
+    }
+
+    private void deliver(Type type, ProcessEventInfo info) {
+        for (ProcessManager.Listener listener : listeners.get(type.ordinal())) {
+            try {
+                listener.handle(info);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Event type
+     */
+    enum Type {
+        BEGIN_OPERATION(true),
+        INT_EXIT(false),
+        INT_TIME_SLICE(true),
+        INT_IO(true),
+        CREATED(false),
+        DESTROYED(false),
+        AWAKE(false),
+        BLOCKED(false),
+        SCHEDULED(true);
+
+        private final boolean lossy;
+
+        Type(boolean lossy) {
+            this.lossy = lossy;
+        }
+
+        /**
+         * @return true if the events of the type may be dropped when the ring is full
+         */
+        boolean isLossy() {
+            return lossy;
+        }
+    }
+
+    private static final class Slot {
+        volatile long sequence;
+        Type type;
+        long time;
+        int processorID;
+        ProcessControlBlock pcb;
+        int AX;
+        int PC;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package emuos.os;
+
+import emuos.diskmanager.FilePath;
+
+/**
+ * The exit status of a process, see {@link ProcessManager#onExit(ProcessControlBlock)}.
+ *
+ * @author Link
+ */
+public final class ExitStatus {
+    private final int PID;
+    private final FilePath imageFile;
+    private final int exitCode;
+    private final ProcessControlBlock.Statistics statistics;
+
+    ExitStatus(ProcessControlBlock pcb) {
+        PID = pcb.getPID();
+        imageFile = pcb.getImageFile();
+        exitCode = pcb.getContext().getAX();
+        statistics = pcb.getStatistics().copy();
+    }
+
+    public int getPID() {
+        return PID;
+    }
+
+    public FilePath getImageFile() {
+        return imageFile;
+    }
+
+    /**
+     * @return AX of the process when it exited
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * @return the statistics of the process when it exited
+     */
+    public ProcessControlBlock.Statistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public String toString() {
+        return "ExitStatus{" +
+                "PID=" + PID +
+                ", exitCode=" + exitCode +
+                ", turnaround=" + statistics.getTurnaround() +
+                ", " + statistics +
+                '}';
+    }
+}
@@ -0,0 +1,114 @@
+package emuos.os;
+
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.InputStream;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The recently loaded program images, so a program started many times is read
+ * from the disk once.
+ * <p>
+ * An image is keyed by its path and kept with the version of the file, see
+ * {@link FileSystem#getVersion(FilePath)}. If nothing has been written to the
+ * file system since the image was checked, it's returned without resolving the
+ * path at all, otherwise the path is resolved once to compare the versions, so
+ * an image rewritten by an {@link emuos.diskmanager.OutputStream} is read again.
+ * The least recently used image is dropped when there are more than the capacity.
+ * It isn't thread-safe, the owner must hold its own lock.
+ *
+ * @author Link
+ */
+class ImageCache {
+    static final int DEFAULT_CAPACITY = 64;
+    private final Map<String, CachedImage> entries;
+    private final LongAdder hitCounter;
+    private final LongAdder missCounter;
+
+    ImageCache(Metrics metrics) {
+        this(DEFAULT_CAPACITY, metrics);
+    }
+
+    ImageCache(int capacity, Metrics metrics) {
+        entries = new LinkedHashMap<String, CachedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedImage> eldest) {
+                return size() > capacity;
+            }
+        };
+        hitCounter = metrics.counter("image.cache.hits");
+        missCounter = metrics.counter("image.cache.misses");
+    }
+
+    /**
+     * @param imageFile the image file
+     * @return the content of the image, it must not be modified, or null if it isn't a file
+     * @throws IOException IOException
+     */
+    byte[] get(FilePath imageFile) throws IOException {
+        FileSystem fileSystem = imageFile.getFileSystem();
+        long modCount = fileSystem.getModCount();
+        CachedImage entry = entries.get(imageFile.getPath());
+        if (entry != null && entry.fileSystem != fileSystem) {
+            entry = null;
+        }
+        if (entry != null && entry.modCount == modCount) {
+            hitCounter.increment();
+            return entry.image;
+        }
+        long version = fileSystem.getVersion(imageFile);
+        if (entry != null && entry.version == version) {
+            entry.modCount = modCount;
+            hitCounter.increment();
+            return entry.image;
+        }
+        missCounter.increment();
+        if (version < 0) {
+            entries.remove(imageFile.getPath());
+            return null;
+        }
+        byte[] image;
+        try (InputStream inputStream = new InputStream(imageFile)) {
+            image = new byte[inputStream.available()];
+            int count = 0, length;
+            while (count < image.length && (length = inputStream.read(image, count, image.length - count)) > 0) {
+                count += length;
+            }
+            if (count < image.length) {
+                throw new IOException("The image file \"" + imageFile.getPath() + "\" is broken.");
+            }
+        }
+        entries.put(imageFile.getPath(), new CachedImage(fileSystem, modCount, version, image));
+        return image;
+    }
+
+    /**
+     * @return the count of the cached images
+     */
+    int size() {
+        return entries.size();
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    private static final class CachedImage {
+        final FileSystem fileSystem;
+        // the mod count of the file system when the version was checked
+        long modCount;
+        final long version;
+        final byte[] image;
+
+        CachedImage(FileSystem fileSystem, long modCount, long version, byte[] image) {
+            this.fileSystem = fileSystem;
+            this.modCount = modCount;
+            this.version = version;
+            this.image = image;
+        }
+    }
+}
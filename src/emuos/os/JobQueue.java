@@ -0,0 +1,140 @@
+package emuos.os;
+
+import emuos.diskmanager.FilePath;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The jobs waiting to be admitted as processes, see {@link ProcessManager#submit(FilePath)}.
+ * <p>
+ * A job is admitted when there is enough memory for its image and a free PCB
+ * slot, which is checked whenever a process exits. The jobs are admitted in the
+ * {@link Order} of the queue, and the first one which doesn't fit stops the
+ * admission, so a big job isn't overtaken by the later ones in a FIFO queue.
+ * The smallest first order admits more jobs from a burst into a fragmented user
+ * space, but a big job may wait as long as smaller ones keep coming.
+ * The queue is bounded, a job submitted to a full queue is rejected.
+ * It isn't thread-safe, the owner must hold its own lock.
+ *
+ * @author Link
+ */
+public class JobQueue {
+    static final int DEFAULT_CAPACITY = 256;
+    private final Order order;
+    private final int capacity;
+    private final PriorityQueue<Job> jobs;
+    private long nextSequence;
+
+    JobQueue(Order order, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than zero.");
+        }
+        this.order = order;
+        this.capacity = capacity;
+        jobs = new PriorityQueue<>(order.comparator);
+    }
+
+    /**
+     * @param job the job, its sequence is assigned here
+     * @return false if the queue is full
+     */
+    boolean offer(Job job) {
+        if (jobs.size() >= capacity) return false;
+        job.sequence = nextSequence++;
+        jobs.add(job);
+        return true;
+    }
+
+    /**
+     * @return the next job to admit, or null if the queue is empty
+     */
+    Job peek() {
+        return jobs.peek();
+    }
+
+    Job poll() {
+        return jobs.poll();
+    }
+
+    /**
+     * @param job the job to withdraw
+     * @return false if it isn't in the queue
+     */
+    boolean remove(Job job) {
+        return jobs.remove(job);
+    }
+
+    /**
+     * move the jobs into another queue in their submitted order
+     *
+     * @param queue the new queue
+     * @return false if they don't fit
+     */
+    boolean transferTo(JobQueue queue) {
+        if (jobs.size() > queue.capacity - queue.jobs.size()) return false;
+        Job[] pending = jobs.toArray(new Job[0]);
+        Arrays.sort(pending, Order.FIFO.comparator);
+        jobs.clear();
+        for (Job job : pending) {
+            queue.offer(job);
+        }
+        return true;
+    }
+
+    /**
+     * @return the count of the waiting jobs
+     */
+    public int size() {
+        return jobs.size();
+    }
+
+    /**
+     * @return the max count of the waiting jobs
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    /**
+     * The admission order of the jobs.
+     */
+    public enum Order {
+        /**
+         * in the order they are submitted
+         */
+        FIFO(Comparator.comparingLong(job -> job.sequence)),
+        /**
+         * the smallest image first, the same sizes in the order they are submitted
+         */
+        SMALLEST_FIRST(Comparator.<Job>comparingInt(job -> job.image.length)
+                .thenComparingLong(job -> job.sequence));
+
+        private final Comparator<Job> comparator;
+
+        Order(Comparator<Job> comparator) {
+            this.comparator = comparator;
+        }
+    }
+
+    static final class Job {
+        final FilePath imageFile;
+        final byte[] image;
+        // in ticks
+        final long submittedAt;
+        final CompletableFuture<ProcessControlBlock> handle = new CompletableFuture<>();
+        long sequence;
+
+        Job(FilePath imageFile, byte[] image, long submittedAt) {
+            this.imageFile = imageFile;
+            this.image = image;
+            this.submittedAt = submittedAt;
+        }
+    }
+}
@@ -6,43 +6,146 @@
 package emuos.os;
 
 import emuos.compiler.Instruction;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
 
 import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
-import static emuos.compiler.Instruction.*;
-
 /**
  * @author Link
  */
 public class Kernel implements Closeable {
     public static final long CPU_PERIOD_MS = 500;
     public static final int INIT_TIME_SLICE = 6;
-    private static final Logger LOGGER = Logger.getLogger("kernel.log");
-    private final DeviceManager deviceManager = new DeviceManager();
-    private final MemoryManager memoryManager = new MemoryManager();
-    private final ProcessManager processManager = new ProcessManager(this, memoryManager);
-    private final Timer timer = new Timer("Timer-Kernel", true);
-    private final Collection<Listener> beginOperationListeners = new LinkedList<>();
-    private final Collection<Listener> intExitListeners = new LinkedList<>();
-    private final Collection<Listener> intTimeSliceListeners = new LinkedList<>();
-    private final Collection<Listener> intIOListeners = new LinkedList<>();
-    private volatile Context context = new Context();
-    private long time;
-    private long executionTime;
-    private int timeSlice = 1;
+    private final Metrics metrics = new Metrics();
+    private final DeviceManager deviceManager = new DeviceManager(metrics);
+    private final MemoryManager memoryManager;
+    private final ProcessManager processManager;
+    private final FileSystem fileSystem;
+    private final Scheduler.Policy schedulerPolicy;
+    private final EventBus eventBus = new EventBus();
+    private final BlockCompiler blockCompiler = new BlockCompiler();
+    private final Processor[] processors;
+    private final Tracer tracer;
+    private final SimulationEngine simulationEngine = new SimulationEngine();
+    private final ThreadLocal<Processor> currentProcessor = new ThreadLocal<>();
+    private long lastSampleCount;
+    private long lastSampleNanos = System.nanoTime();
+    private volatile ExecutionMode executionMode = ExecutionMode.CLOCKED;
+    // instructions per second in the turbo mode, 0 means unthrottled
+    private volatile long targetRate;
+    // executions of a block before it's compiled, 0 means the JIT is disabled
+    private volatile int jitThreshold = BlockCompiler.DEFAULT_THRESHOLD;
+    private volatile boolean running;
     private Listener afterStepListener;
-    private BlockingQueue<Runnable> runnableQueue = new LinkedBlockingDeque<>();
-    private DeviceManager.Handler deviceIOFinishedHandler = deviceInfo -> runLater(() -> context.setIntIO());
+    // the interrupts of devices are delivered to the boot processor
+    private DeviceManager.Handler deviceIOFinishedHandler = deviceInfo -> {
+        Processor processor = getBootProcessor();
+        processor.runLater(() -> processor.getContext().setIntIO());
+    };
 
     /**
      * ctor
      */
     public Kernel() {
+        this(ExecutionMode.CLOCKED);
+    }
+
+    /**
+     * ctor
+     *
+     * @param executionMode the execution mode
+     */
+    public Kernel(ExecutionMode executionMode) {
+        this(executionMode, 1);
+    }
+
+    /**
+     * ctor
+     *
+     * @param executionMode  the execution mode
+     * @param processorCount the count of virtual CPUs
+     */
+    public Kernel(ExecutionMode executionMode, int processorCount) {
+        this(executionMode, processorCount, FileSystem.getFileSystem());
+    }
+
+    /**
+     * ctor
+     *
+     * @param executionMode  the execution mode
+     * @param processorCount the count of virtual CPUs
+     * @param fileSystem     the file system of the paths created by the kernel
+     */
+    public Kernel(ExecutionMode executionMode, int processorCount, FileSystem fileSystem) {
+        this(executionMode, processorCount, MemoryManager.DEFAULT_USER_SPACE_SIZE, fileSystem);
+    }
+
+    /**
+     * ctor
+     *
+     * @param executionMode  the execution mode
+     * @param processorCount the count of virtual CPUs
+     * @param userSpaceSize  the size of the user space in bytes
+     * @param fileSystem     the file system of the paths created by the kernel
+     */
+    public Kernel(ExecutionMode executionMode, int processorCount, int userSpaceSize, FileSystem fileSystem) {
+        this(executionMode, processorCount, userSpaceSize, fileSystem, Scheduler.Policy.ROUND_ROBIN);
+    }
+
+    /**
+     * ctor
+     *
+     * @param executionMode   the execution mode
+     * @param processorCount  the count of virtual CPUs
+     * @param userSpaceSize   the size of the user space in bytes
+     * @param fileSystem      the file system of the paths created by the kernel
+     * @param schedulerPolicy the scheduling policy of the ready processes
+     */
+    public Kernel(ExecutionMode executionMode, int processorCount, int userSpaceSize, FileSystem fileSystem,
+                  Scheduler.Policy schedulerPolicy) {
+        this(executionMode, processorCount, userSpaceSize, fileSystem, schedulerPolicy.create(), schedulerPolicy);
+    }
+
+    /**
+     * ctor of a kernel with a custom scheduler, it can't be saved to a checkpoint
+     *
+     * @param executionMode  the execution mode
+     * @param processorCount the count of virtual CPUs
+     * @param userSpaceSize  the size of the user space in bytes
+     * @param fileSystem     the file system of the paths created by the kernel
+     * @param scheduler      the scheduler of the ready processes, it's used by this kernel only
+     */
+    public Kernel(ExecutionMode executionMode, int processorCount, int userSpaceSize, FileSystem fileSystem,
+                  Scheduler scheduler) {
+        this(executionMode, processorCount, userSpaceSize, fileSystem, scheduler, null);
+    }
+
+    private Kernel(ExecutionMode executionMode, int processorCount, int userSpaceSize, FileSystem fileSystem,
+                   Scheduler scheduler, Scheduler.Policy schedulerPolicy) {
+        if (processorCount <= 0) {
+            throw new IllegalArgumentException("processorCount must be greater than zero.");
+        }
+        if (userSpaceSize <= 0) {
+            throw new IllegalArgumentException("userSpaceSize must be greater than zero.");
+        }
+        this.executionMode = executionMode;
+        this.fileSystem = fileSystem;
+        this.schedulerPolicy = schedulerPolicy;
+        memoryManager = new MemoryManager(userSpaceSize);
+        processManager = new ProcessManager(this, memoryManager, scheduler);
+        tracer = new Tracer(processorCount, Tracer.DEFAULT_CAPACITY);
+        processors = new Processor[processorCount];
+        for (int i = 0; i < processorCount; ++i) {
+            processors[i] = new Processor(i, this);
+        }
         deviceManager.addFinishedHandler(deviceIOFinishedHandler);
     }
 
@@ -50,47 +153,13 @@ public class Kernel implements Closeable {
      * main
      *
      * @param args args
-     * @throws InterruptedException            InterruptedException
-     * @throws IOException                     InterruptedException
-     * @throws ProcessManager.ProcessException InterruptedException
-     */
-    public static void main(String[] args) throws InterruptedException, IOException, ProcessManager.ProcessException {
-        try (Kernel kernel = new Kernel()) {
-            final boolean[] lastNullPCB = {false};
-            kernel.addBeginOperationListener((k -> {
-                StringBuilder msg = new StringBuilder("\n");
-                Context context = k.getContext();
-                ProcessControlBlock pcb = k.processManager.getRunningProcess();
-                if (pcb == null) {
-                    if (!lastNullPCB[0]) {
-                        msg.append("==== There is no any running process ====\n");
-                        lastNullPCB[0] = true;
-                        Kernel.LOGGER.info(msg.toString());
-                    }
-                } else {
-                    lastNullPCB[0] = false;
-                    msg.append("===== CPU Stat =====\n");
-                    msg.append(String.format("  Current Time : %d\n", k.getTime()));
-                    msg.append(String.format("  TimeSlice    : %d\n", k.getTimeSlice()));
-                    msg.append(String.format("  Current PID  : %d\n", pcb.getPID()));
-                    msg.append(String.format("  Context: %s\n", context.toString()));
-                    msg.append("====================\n");
-                    Kernel.LOGGER.info(msg.toString());
-                }
-            }));
-            kernel.run();
-            ProcessManager processManager = kernel.processManager;
-            System.out.println("Creating processes...");
-            Thread.sleep(1000);
-            // It's required to create the file '/a/a.e'
-            for (int i = 0; i < 5; ++i) {
-                processManager.create("/a/a.e");
-            }
-            System.out.println("Waiting for CPU...");
-            synchronized (kernel) {
-                kernel.wait();
-            }
-        }
+     * @throws InterruptedException InterruptedException
+     * @throws IOException          IOException
+     * @throws TimeoutException     TimeoutException
+     */
+    public static void main(String[] args) throws InterruptedException, IOException, TimeoutException {
+        // Usage: Kernel [workload manifest] [count of CPUs] [scheduling policy]
+        BatchRunner.main(args);
     }
 
     /**
@@ -121,9 +190,7 @@ public class Kernel implements Closeable {
      * @return <tt>true</tt> if the listener was added as a result of the call
      */
     public boolean addIntExitListener(Listener listener) {
-        synchronized (intExitListeners) {
-            return intExitListeners.add(listener);
-        }
+        return eventBus.subscribe(EventBus.Type.INT_EXIT, listener);
     }
 
     /**
@@ -133,9 +200,7 @@ public class Kernel implements Closeable {
      * @return <tt>true</tt> if the listener was added as a result of the call
      */
     public boolean addIntTimeSliceListener(Listener listener) {
-        synchronized (intTimeSliceListeners) {
-            return intTimeSliceListeners.add(listener);
-        }
+        return eventBus.subscribe(EventBus.Type.INT_TIME_SLICE, listener);
     }
 
     /**
@@ -145,9 +210,7 @@ public class Kernel implements Closeable {
      * @return <tt>true</tt> if the listener was added as a result of the call
      */
     public boolean addIntIOListener(Listener listener) {
-        synchronized (intIOListeners) {
-            return intIOListeners.add(listener);
-        }
+        return eventBus.subscribe(EventBus.Type.INT_IO, listener);
     }
 
 
@@ -158,9 +221,7 @@ public class Kernel implements Closeable {
      * @return <tt>true</tt> if an element was removed as a result of this call
      */
     public boolean removeIntExitListener(Listener listener) {
-        synchronized (intExitListeners) {
-            return intExitListeners.remove(listener);
-        }
+        return eventBus.unsubscribe(EventBus.Type.INT_EXIT, listener);
     }
 
     /**
@@ -170,9 +231,7 @@ public class Kernel implements Closeable {
      * @return <tt>true</tt> if an element was removed as a result of this call
      */
     public boolean removeIntTimeSliceListener(Listener listener) {
-        synchronized (intTimeSliceListeners) {
-            return intTimeSliceListeners.remove(listener);
-        }
+        return eventBus.unsubscribe(EventBus.Type.INT_TIME_SLICE, listener);
     }
 
     /**
@@ -182,36 +241,70 @@ public class Kernel implements Closeable {
      * @return <tt>true</tt> if an element was removed as a result of this call
      */
     public boolean removeIntIOListener(Listener listener) {
-        synchronized (intIOListeners) {
-            return intIOListeners.remove(listener);
-        }
+        return eventBus.unsubscribe(EventBus.Type.INT_IO, listener);
     }
 
     /**
-     * @return the context
+     * @return the context of the current processor
      */
     Context getContext() {
-        return context;
+        return getCurrentProcessor().getContext();
     }
 
     /**
-     * set the context
-     *
-     * @param context context
+     * @return current context
      */
-    void setContext(Context context) {
-        this.context.AX = context.AX;
-        this.context.PC = context.PC;
-        this.context.IR = context.IR;
-        this.context.FLAGS = context.FLAGS;
+    public Context snapContext() {
+        // FIXME: synchronization?
+        return getCurrentProcessor().snapContext();
     }
 
     /**
-     * @return current context
+     * @return the processors
      */
-    public Context snapContext() {
-        // FIXME: synchronization?
-        return context.clone();
+    public List<Processor> getProcessors() {
+        return Collections.unmodifiableList(Arrays.asList(processors));
+    }
+
+    /**
+     * @return the count of processors
+     */
+    public int getProcessorCount() {
+        return processors.length;
+    }
+
+    /**
+     * @return the boot processor
+     */
+    Processor getBootProcessor() {
+        return processors[0];
+    }
+
+    /**
+     * @return the processor running on the current thread, or the boot processor
+     */
+    Processor getCurrentProcessor() {
+        Processor processor = currentProcessor.get();
+        return processor == null ? processors[0] : processor;
+    }
+
+    void setCurrentProcessor(Processor processor) {
+        currentProcessor.set(processor);
+    }
+
+    /**
+     * find the processor which is running the process
+     *
+     * @param PCB PCB
+     * @return the processor, or null if the process isn't running
+     */
+    Processor findProcessor(ProcessControlBlock PCB) {
+        for (Processor processor : processors) {
+            if (PCB.equals(processor.getRunningProcess())) {
+                return processor;
+            }
+        }
+        return null;
     }
 
     /**
@@ -220,9 +313,7 @@ public class Kernel implements Closeable {
      * @param listener BeforeStepListener
      */
     private boolean addBeginOperationListener(Listener listener) {
-        synchronized (beginOperationListeners) {
-            return beginOperationListeners.add(listener);
-        }
+        return eventBus.subscribe(EventBus.Type.BEGIN_OPERATION, listener);
     }
 
     /**
@@ -237,188 +328,357 @@ public class Kernel implements Closeable {
         return oldListener;
     }
 
-    private void CPU() {
-        time++;
-        if (context.isIntEnd()) {
-            interruptEnd();
-            context.clearIntEnd();
-        }
-        if (context.isIntTimeSlice()) {
-            interruptTime();
-            context.clearTimeSlice();
-        }
-        if (context.isIntIO()) {
-            interruptIO();
-            context.clearIntIO();
-        }
+    /**
+     * @return the file system of the paths created by the kernel
+     */
+    public FileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    /**
+     * @return the scheduling policy of the ready processes, or null if it's a custom scheduler
+     */
+    public Scheduler.Policy getSchedulerPolicy() {
+        return schedulerPolicy;
+    }
+
+    /**
+     * run the kernel
+     */
+    public void run() {
+        start(true);
+    }
 
-        if (processManager.getRunningProcess() != null) {
-            context.setIR(nextByte());
-            execute();
-            if (--timeSlice <= 0) {
-                context.setIntTimeSlice();
+    /**
+     * Start the kernel. In the simulated mode the events are run on the engine
+     * thread, or by the caller with {@link SimulationEngine#step()} if there isn't one.
+     *
+     * @param engineThread start the engine thread
+     */
+    void start(boolean engineThread) {
+        running = true;
+        eventBus.start();
+        tracer.start();
+        for (Processor processor : processors) {
+            processor.start(executionMode);
+        }
+        if (executionMode == ExecutionMode.SIMULATED) {
+            deviceManager.start(simulationEngine);
+            if (engineThread) {
+                simulationEngine.start();
             }
+        } else {
+            deviceManager.start();
         }
     }
 
-    private byte nextByte() {
-        return memoryManager.read(context.PC++);
+    /**
+     * stop the kernel
+     */
+    public void stop() {
+        running = false;
+        simulationEngine.stop();
+        deviceManager.stop();
+        for (Processor processor : processors) {
+            processor.stop();
+        }
+        eventBus.stop();
     }
 
-    private void execute() {
-        int opcode = context.getIR();
-        BitSet FLAGS = context.getFLAGS();
-        switch (opcode) {
-            case OPCODE_END: {
-                context.setIntEnd();
-            }
-            break;
-            case OPCODE_ASSIGNMENT: {
-                int operand = nextByte();
-                context.setAX(operand);
-                if (context.getAX() == 0) {
-                    FLAGS.set(Context.PSW_ZF);
-                }
-                if (context.getAX() < 0) {
-                    FLAGS.set(Context.PSW_SF);
-                }
-            }
-            break;
-            case OPCODE_INCREASE: {
-                context.setAX((context.getAX() + 1) % 0xff);
-                if (context.getAX() == 0) {
-                    FLAGS.set(Context.PSW_ZF);
-                }
-            }
-            break;
-            case OPCODE_DECREASE:
-                context.setAX((context.getAX() - 1) % 0xff);
-                if (context.getAX() == 0) {
-                    FLAGS.set(Context.PSW_ZF);
-                }
-                break;
-            case OPCODE_IO: {
-                LOGGER.info("\n**** IO REQ ****\n");
-                int deviceID = nextByte();
-                int usageTime = nextByte();
-                ProcessControlBlock process = processManager.getRunningProcess();
-                DeviceManager.RequestInfo requestInfo = new DeviceManager.RequestInfo(
-                        process, deviceID, usageTime);
-                deviceManager.alloc(requestInfo);
-                processManager.block(process);
-            }
-            break;
-            default:
-                break;
+    /**
+     * Save the whole machine to a checkpoint file, the kernel must be stopped
+     * and use a built-in scheduling policy.
+     *
+     * @param file checkpoint file
+     * @throws IOException IOException
+     */
+    public synchronized void checkpoint(File file) throws IOException {
+        if (running) {
+            throw new IllegalStateException("The kernel must be stopped before it's saved.");
+        }
+        if (schedulerPolicy == null) {
+            throw new IllegalStateException("A kernel with a custom scheduler can't be saved.");
         }
-        if (opcode != OPCODE_IO) ++executionTime;
+        Checkpoint.save(this, file);
     }
 
-    private void interruptEnd() {
-        ProcessControlBlock pcb = processManager.getRunningProcess();
-        LOGGER.info("\n**** INT END ****\n"
-                + "  PCB  : " + pcb + "\n"
-                + "  Context: " + context.toString() + "\n"
-                + "*****************\n");
-        pcb.saveContext(context);
-        intExitListeners.forEach(listener -> listener.handle(this));
-        processManager.destroy(pcb);
+    /**
+     * Create a kernel from a checkpoint file.
+     *
+     * @param file          checkpoint file
+     * @param executionMode the execution mode of the new kernel
+     * @return the stopped kernel, call {@link #run()} to resume it
+     * @throws IOException IOException
+     */
+    public static Kernel restore(File file, ExecutionMode executionMode) throws IOException {
+        return restore(file, executionMode, FileSystem.getFileSystem());
     }
 
-    private void interruptTime() {
-        LOGGER.info("\n**** INT TIME SLICE ****\n");
-        intTimeSliceListeners.forEach(listener -> listener.handle(this));
-        processManager.schedule();
+    /**
+     * Create a kernel from a checkpoint file.
+     *
+     * @param file          checkpoint file
+     * @param executionMode the execution mode of the new kernel
+     * @param fileSystem    the file system of the saved kernel, the image paths of the processes are resolved on it
+     * @return the stopped kernel, call {@link #run()} to resume it
+     * @throws IOException IOException
+     */
+    public static Kernel restore(File file, ExecutionMode executionMode, FileSystem fileSystem) throws IOException {
+        return Checkpoint.load(file, executionMode, fileSystem);
     }
 
-    private void interruptIO() {
-        LOGGER.info("\n**** INT IO ****\n");
-        intIOListeners.forEach(listener -> listener.handle(this));
-        BlockingQueue<ProcessControlBlock> queue = deviceManager.getFinishedQueue();
-        ProcessControlBlock pcb;
-        while ((pcb = queue.poll()) != null) {
-            processManager.awake(pcb);
-        }
+    /**
+     * @return the engine of the simulated mode
+     */
+    public SimulationEngine getSimulationEngine() {
+        return simulationEngine;
     }
 
     /**
-     * run the kernel
+     * Create a process at a time of the virtual clock, it's only available in the simulated mode
+     *
+     * @param time      the arrival time in virtual milliseconds
+     * @param imageFile the image file
      */
-    public void run() {
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                if (processManager.getRunningProcess() == null) {
-                    processManager.schedule();
-                }
-                beginOperationListeners.forEach(listener -> listener.handle(Kernel.this));
-                CPU();
-                Runnable runnable;
-                while ((runnable = runnableQueue.poll()) != null) {
-                    runnable.run();
+    public void scheduleArrival(long time, FilePath imageFile) {
+        if (executionMode != ExecutionMode.SIMULATED) {
+            throw new IllegalStateException("The arrivals are only available in the simulated mode.");
+        }
+        simulationEngine.scheduleAt(time, () -> {
+            try {
+                if (processManager.create(imageFile) == null) {
+                    Logger.getLogger(getClass().getName()).warning("No such image: " + imageFile.getPath());
                 }
+            } catch (IOException | ProcessManager.ProcessException e) {
+                Logger.getLogger(getClass().getName()).warning(e.getMessage());
             }
-        }, 0, CPU_PERIOD_MS);
-        deviceManager.start();
+        });
     }
 
     /**
-     * stop the kernel
+     * wake an idle processor up, since there is a new ready process
      */
-    public void stop() {
-        deviceManager.stop();
-        timer.cancel();
-        timer.purge();
+    void wakeIdleProcessor() {
+        for (Processor processor : processors) {
+            if (processor.wake()) {
+                return;
+            }
+        }
     }
 
     /**
-     * Run a runnable object in the kernel thread
+     * @return the event bus
+     */
+    EventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * Publish an event of the current processor
      *
-     * @param runnable runnable task
+     * @param type event type
+     * @param pcb  the PCB of the event, or null
      */
-    private void runLater(Runnable runnable) {
-        runnableQueue.add(runnable);
+    void publish(EventBus.Type type, ProcessControlBlock pcb) {
+        if (!eventBus.hasListeners(type)) return;
+        Processor processor = getCurrentProcessor();
+        Context context = pcb == null ? null
+                : processor.getRunningProcess() == pcb ? processor.getContext() : pcb.getContext();
+        eventBus.publish(type, getTime(), processor.getID(), pcb,
+                context == null ? 0 : context.getAX(), context == null ? 0 : context.getPC());
+    }
+
+    void notifyBeginOperation() {
+        publish(EventBus.Type.BEGIN_OPERATION, getCurrentProcessor().getRunningProcess());
+    }
+
+    void notifyIntExit() {
+        publish(EventBus.Type.INT_EXIT, getCurrentProcessor().getRunningProcess());
+    }
+
+    void notifyIntTimeSlice() {
+        publish(EventBus.Type.INT_TIME_SLICE, getCurrentProcessor().getRunningProcess());
+    }
+
+    void notifyIntIO() {
+        publish(EventBus.Type.INT_IO, null);
     }
 
     /**
-     * @return the current time
+     * @return the current time, the latest time among the processors
      */
     public long getTime() {
+        long time = 0;
+        for (Processor processor : processors) {
+            time = Math.max(time, processor.getTime());
+        }
         return time;
     }
 
     /**
-     * @return the current time slice
+     * @return the time slice of the current processor
      */
     public int getTimeSlice() {
-        return timeSlice;
-    }
-
-    void resetTimeSlice() {
-        timeSlice = INIT_TIME_SLICE;
+        return getCurrentProcessor().getTimeSlice();
     }
 
     @Override
     public void close() {
         deviceManager.removeFinishedHandler(deviceIOFinishedHandler);
+        tracer.close();
+    }
+
+    /**
+     * @return the metrics registry of the kernel
+     */
+    public Metrics getMetrics() {
+        return metrics;
     }
 
     /**
-     * @return execution time
+     * @return the binary trace of the kernel
+     */
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * @return execution time of all the processors
      */
     public long getExecutionTime() {
+        long executionTime = 0;
+        for (Processor processor : processors) {
+            executionTime += processor.getExecutionTime();
+        }
         return executionTime;
     }
 
     /**
-     * kernel Event Listener
+     * @return the count of instructions executed by all the processors
+     */
+    public long getInstructionCount() {
+        long instructionCount = 0;
+        for (Processor processor : processors) {
+            instructionCount += processor.getInstructionCount();
+        }
+        return instructionCount;
+    }
+
+    /**
+     * Sample the throughput of the CPU.
+     *
+     * @return executed instructions per second since the last sampling
+     */
+    public synchronized double sampleThroughput() {
+        long count = getInstructionCount();
+        long now = System.nanoTime();
+        double throughput = (count - lastSampleCount) * 1e9 / Math.max(1, now - lastSampleNanos);
+        lastSampleCount = count;
+        lastSampleNanos = now;
+        return throughput;
+    }
+
+    /**
+     * @return the execution mode
+     */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * set the execution mode, it must be called before {@link #run()}
+     *
+     * @param executionMode execution mode
      */
-    public interface Listener {
-        void handle(Kernel kernel);
+    public void setExecutionMode(ExecutionMode executionMode) {
+        if (running) {
+            throw new IllegalStateException("The execution mode can't be changed while the kernel is running.");
+        }
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * @return the target rate in instructions per second, 0 means unthrottled
+     */
+    public long getTargetRate() {
+        return targetRate;
+    }
+
+    /**
+     * set the target rate of the turbo mode, it can be changed at runtime
+     *
+     * @param targetRate instructions per second of each processor, 0 means unthrottled
+     */
+    public void setTargetRate(long targetRate) {
+        if (targetRate < 0) {
+            throw new IllegalArgumentException("targetRate must be greater than or equal to zero.");
+        }
+        this.targetRate = targetRate;
+    }
+
+    /**
+     * @return the count of executions of a block before it's compiled, 0 means the JIT is disabled
+     */
+    public int getJitThreshold() {
+        return jitThreshold;
+    }
+
+    /**
+     * Set the threshold of the JIT. The JIT is used in the turbo and the simulated
+     * mode, the clocked mode always executes one instruction per tick.
+     *
+     * @param jitThreshold the count of executions of a block before it's compiled, 0 to disable the JIT
+     */
+    public void setJitThreshold(int jitThreshold) {
+        if (jitThreshold < 0) {
+            throw new IllegalArgumentException("jitThreshold must be greater than or equal to zero.");
+        }
+        this.jitThreshold = jitThreshold;
+    }
+
+    /**
+     * @return the count of blocks compiled by the JIT
+     */
+    public int getCompiledBlockCount() {
+        return blockCompiler.getCompiledCount();
+    }
+
+    BlockCompiler getBlockCompiler() {
+        return blockCompiler;
+    }
+
+    /**
+     * @return true if the kernel is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Execution Mode
+     */
+    public enum ExecutionMode {
+        // one instruction per CPU_PERIOD_MS
+        CLOCKED,
+        // as fast as the host allows, or at the target rate
+        TURBO,
+        // on the virtual clock of the simulation engine, as fast as the host allows
+        SIMULATED,
+    }
+
+    /**
+     * kernel Event Listener, it's called on the event thread of the kernel,
+     * the info carries the process and its registers when the event happened
+     */
+    public interface Listener extends ProcessManager.Listener {
     }
 
     /**
      * the Context class
+     * <p>
+     * PSW and FLAGS are packed into int bitfields, the bits are indexed by
+     * the {@code PSW_*} constants. It's copied in place on context switches,
+     * so switching processes doesn't allocate.
      */
     public static class Context implements Cloneable {
         public static final int PSW_INT_END = 9;
@@ -429,8 +689,8 @@ public class Kernel implements Closeable {
         public static final int PSW_OF = 1;
         public static final int PSW_ZF = 0;
         private int AX;
-        private BitSet PSW = new BitSet(10);
-        private BitSet FLAGS = new BitSet(8);
+        private int PSW;
+        private int FLAGS;
         private int IR;         // last Instruction
         private int PC;         // next PC
 
@@ -440,15 +700,42 @@ public class Kernel implements Closeable {
         @Override
         protected Context clone() {
             try {
-                Context context = (Context) super.clone();
-                context.PSW = (BitSet) PSW.clone();
-                return context;
+                return (Context) super.clone();
             } catch (CloneNotSupportedException e) {
                 e.printStackTrace();
                 throw new AssertionError();
             }
         }
 
+        /**
+         * copy all the registers of another context into this one
+         *
+         * @param context context
+         */
+        void copyFrom(Context context) {
+            AX = context.AX;
+            PSW = context.PSW;
+            FLAGS = context.FLAGS;
+            IR = context.IR;
+            PC = context.PC;
+        }
+
+        void save(DataOutputStream out) throws IOException {
+            out.writeInt(AX);
+            out.writeInt(PSW);
+            out.writeInt(FLAGS);
+            out.writeInt(IR);
+            out.writeInt(PC);
+        }
+
+        void load(ByteBuffer in) {
+            AX = in.getInt();
+            PSW = in.getInt();
+            FLAGS = in.getInt();
+            IR = in.getInt();
+            PC = in.getInt();
+        }
+
         @Override
         public String toString() {
             StringBuilder stringBuilder = new StringBuilder();
@@ -457,10 +744,10 @@ public class Kernel implements Closeable {
                     .append(", PC=").append(PC)
                     .append(", IR=").append(Instruction.getName(IR));
             stringBuilder.append(", FLAGS={ ");
-            if (FLAGS.get(PSW_CF)) stringBuilder.append("CF ");
-            if (FLAGS.get(PSW_SF)) stringBuilder.append("SF ");
-            if (FLAGS.get(PSW_OF)) stringBuilder.append("OF ");
-            if (FLAGS.get(PSW_ZF)) stringBuilder.append("ZF ");
+            if (isFlagSet(PSW_CF)) stringBuilder.append("CF ");
+            if (isFlagSet(PSW_SF)) stringBuilder.append("SF ");
+            if (isFlagSet(PSW_OF)) stringBuilder.append("OF ");
+            if (isFlagSet(PSW_ZF)) stringBuilder.append("ZF ");
             stringBuilder.append("}");
             stringBuilder.append(", PSW={ ");
             if (isIntIO()) stringBuilder.append("INT_IO ");
@@ -478,48 +765,70 @@ public class Kernel implements Closeable {
             this.AX = AX;
         }
 
-        public BitSet getPSW() {
+        /**
+         * @return PSW, bit {@code i} is set if the interrupt {@code i} is pending
+         */
+        public int getPSW() {
             return PSW;
         }
 
-        public BitSet getFLAGS() {
+        /**
+         * @return FLAGS, bit {@code i} is set if the flag {@code i} is set
+         */
+        public int getFLAGS() {
             return FLAGS;
         }
 
+        void setFLAGS(int FLAGS) {
+            this.FLAGS = FLAGS;
+        }
+
+        /**
+         * @param flag the index of the flag, e.g. {@link #PSW_ZF}
+         * @return true if the flag is set
+         */
+        public boolean isFlagSet(int flag) {
+            return (FLAGS & 1 << flag) != 0;
+        }
+
+        void setFlag(int flag) {
+            FLAGS |= 1 << flag;
+        }
+
         public boolean isIntEnd() {
-            return PSW.get(PSW_INT_END);
+            return (PSW & 1 << PSW_INT_END) != 0;
         }
 
         public boolean isIntTimeSlice() {
-            return PSW.get(PSW_INT_TIME_SLICE);
+            return (PSW & 1 << PSW_INT_TIME_SLICE) != 0;
         }
 
         public boolean isIntIO() {
-            return PSW.get(PSW_INT_IO);
+            return (PSW & 1 << PSW_INT_IO) != 0;
         }
 
         void clearIntEnd() {
-            PSW.clear(PSW_INT_END);
+            PSW &= ~(1 << PSW_INT_END);
         }
 
         void clearTimeSlice() {
-            PSW.clear(PSW_INT_TIME_SLICE);
+            PSW &= ~(1 << PSW_INT_TIME_SLICE);
         }
 
         void clearIntIO() {
-            PSW.clear(PSW_INT_IO);
+            PSW &= ~(1 << PSW_INT_IO);
         }
 
         void setIntEnd() {
-            PSW.set(PSW_INT_END);
+            PSW |= 1 << PSW_INT_END;
         }
 
         void setIntTimeSlice() {
-            PSW.set(PSW_INT_TIME_SLICE);
+            PSW |= 1 << PSW_INT_TIME_SLICE;
         }
 
         void setIntIO() {
-            PSW.set(PSW_INT_IO);
+            PSW |= 1 << PSW_INT_IO;
         }
 
         public int getIR() {
@@ -5,23 +5,39 @@
  */
 package emuos.os;
 
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
 
 /**
+ * The user space and the PCB table.
+ * <p>
+ * A program image is loaded into a read-only code segment, which is shared by
+ * all the processes running the same image, see {@link #attach(byte[])}. The
+ * processes don't write the user space, and a write into a segment is rejected,
+ * so a process is just a context on the code segment, and its PC is an absolute
+ * address from the start of the segment. The other spaces may be written, their
+ * decoded images are invalidated then.
+ *
  * @author Link
  */
 public class MemoryManager {
 
-    private static final int MAX_PCB_COUNT = 10;
-    private static final int DEFAULT_USER_SPACE_SIZE = 512;
+    static final int DEFAULT_USER_SPACE_SIZE = 512;
     private final int USER_SPACE_SIZE;
     private final LinkedList<Space> allocatedSpaces = new LinkedList<>();
     private final LinkedList<Space> freeSpaces = new LinkedList<>();
-    private final ProcessControlBlock PCBList[] = new ProcessControlBlock[MAX_PCB_COUNT];
+    private final ProcessTable processTable = new ProcessTable();
+    // the shared code segments by the image they are loaded from, and by the address
+    private final Map<byte[], Segment> segmentsByImage = new IdentityHashMap<>();
+    private final Map<Integer, Segment> segments = new HashMap<>();
     private byte userSpace[];
+    // address --> the decoded image which covers the address
+    private DecodedImage codeMap[];
     private Allocator allocator;
     private int allocatedSize;
 
@@ -29,7 +45,7 @@ public class MemoryManager {
         this(DEFAULT_USER_SPACE_SIZE);
     }
 
-    private MemoryManager(int userSpaceSize) {
+    MemoryManager(int userSpaceSize) {
         this(AllocationMethod.FirstFit, userSpaceSize);
     }
 
@@ -43,6 +59,7 @@ public class MemoryManager {
         }
         USER_SPACE_SIZE = userSpaceSize;
         userSpace = new byte[USER_SPACE_SIZE];
+        codeMap = new DecodedImage[USER_SPACE_SIZE];
         freeSpaces.add(new Space(0, USER_SPACE_SIZE));
     }
 
@@ -69,6 +86,189 @@ public class MemoryManager {
         int size = getSpaceSize(address);
         allocator.free(address);
         allocatedSize -= size;
+        for (int i = 0; i < size; ++i) {
+            codeMap[address + i] = null;
+        }
+    }
+
+    /**
+     * Attach a process to the code segment of an image. The image is loaded
+     * into a new segment if there isn't one for it, the segments are told
+     * apart by the identity of the images, so a rewritten image isn't shared
+     * with the processes running the old one.
+     *
+     * @param image the content of the image, it must not be modified
+     * @return the address of the segment, or -1 if there is not enough memory
+     */
+    synchronized int attach(byte[] image) {
+        Segment segment = segmentsByImage.get(image);
+        if (segment == null) {
+            int address = alloc(image.length);
+            if (address < 0) {
+                return -1;
+            }
+            write(address, image);
+            segment = new Segment(image, address, decode(address, image.length));
+            segmentsByImage.put(image, segment);
+            segments.put(address, segment);
+        }
+        ++segment.refCount;
+        return segment.address;
+    }
+
+    /**
+     * Attach a process to an existing code segment, e.g. a forked child to the
+     * segment of its parent.
+     *
+     * @param address the address of the segment
+     */
+    synchronized void attach(int address) {
+        Segment segment = segments.get(address);
+        if (segment == null) {
+            throw new IllegalArgumentException(String.format("Illegal address ( = %d ).", address));
+        }
+        ++segment.refCount;
+    }
+
+    /**
+     * Detach a process from its code segment, the segment is freed when the
+     * last process is detached.
+     *
+     * @param address the address of the segment
+     */
+    synchronized void detach(int address) {
+        Segment segment = segments.get(address);
+        if (segment == null) {
+            throw new IllegalArgumentException(String.format("Illegal address ( = %d ).", address));
+        }
+        if (--segment.refCount == 0) {
+            segments.remove(address);
+            if (segment.image != null) {
+                segmentsByImage.remove(segment.image);
+            }
+            free(address);
+        }
+    }
+
+    /**
+     * @param address the address of the segment
+     * @return the decoded image of the segment, it's shared by the processes of the segment
+     */
+    synchronized DecodedImage getDecodedImage(int address) {
+        Segment segment = segments.get(address);
+        return segment == null ? null : segment.decodedImage;
+    }
+
+    /**
+     * @param address the address of the segment
+     * @return the count of the processes attached to the segment
+     */
+    synchronized int getRefCount(int address) {
+        Segment segment = segments.get(address);
+        return segment == null ? 0 : segment.refCount;
+    }
+
+    /**
+     * Decode the program image in the space, the decoded form is
+     * invalidated when the space is written.
+     *
+     * @param address the start address of the image
+     * @param size    the size of the image
+     * @return the decoded image
+     */
+    synchronized DecodedImage decode(int address, int size) {
+        DecodedImage image = new DecodedImage(this, address, size);
+        for (int i = 0; i < size; ++i) {
+            codeMap[address + i] = image;
+        }
+        return image;
+    }
+
+    synchronized void save(DataOutputStream out) throws IOException {
+        out.writeInt(USER_SPACE_SIZE);
+        out.write(userSpace);
+        saveSpaces(out, allocatedSpaces);
+        saveSpaces(out, freeSpaces);
+        out.writeInt(allocatedSize);
+        synchronized (processTable) {
+            List<ProcessControlBlock> pcbs = processTable.getPCBs();
+            out.writeInt(pcbs.size());
+            for (ProcessControlBlock pcb : pcbs) {
+                pcb.save(out);
+            }
+            processTable.save(out);
+        }
+    }
+
+    /**
+     * load the user space, the spaces and the PCB table from a checkpoint
+     *
+     * @param in         checkpoint buffer
+     * @param fileSystem the file system of the image paths
+     * @return PID --> PCB
+     * @throws IOException if the checkpoint doesn't fit
+     */
+    synchronized Map<Integer, ProcessControlBlock> load(ByteBuffer in, FileSystem fileSystem) throws IOException {
+        int userSpaceSize = in.getInt();
+        if (userSpaceSize != USER_SPACE_SIZE) {
+            throw new IOException("The size of the user space doesn't match: " + userSpaceSize);
+        }
+        in.get(userSpace);
+        Arrays.fill(codeMap, null);
+        loadSpaces(in, allocatedSpaces);
+        loadSpaces(in, freeSpaces);
+        allocatedSize = in.getInt();
+        Map<Integer, ProcessControlBlock> pcbs = new HashMap<>();
+        // the images aren't saved, so the restored segments aren't shared with the new processes
+        segmentsByImage.clear();
+        segments.clear();
+        synchronized (processTable) {
+            processTable.clear();
+            int count = in.getInt();
+            if (count < 0 || count > ProcessTable.MAX_CAPACITY) {
+                throw new IOException("Illegal count of the processes: " + count);
+            }
+            List<ProcessControlBlock> loaded = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                ProcessControlBlock pcb = ProcessControlBlock.load(in, fileSystem);
+                int address = pcb.getStartAddress();
+                Segment segment = segments.get(address);
+                if (segment == null) {
+                    int size = getSpaceSize(address);
+                    if (size < 0) {
+                        throw new IOException("The image of the process " + pcb.getPID() + " isn't in the memory.");
+                    }
+                    segment = new Segment(null, address, decode(address, size));
+                    segments.put(address, segment);
+                }
+                ++segment.refCount;
+                pcb.setDecodedImage(segment.decodedImage);
+                loaded.add(pcb);
+                pcbs.put(pcb.getPID(), pcb);
+            }
+            processTable.load(in, loaded);
+        }
+        return pcbs;
+    }
+
+    private static void saveSpaces(DataOutputStream out, List<Space> spaces) throws IOException {
+        out.writeInt(spaces.size());
+        for (Space space : spaces) {
+            out.writeInt(space.startAddress);
+            out.writeInt(space.size);
+        }
+    }
+
+    private void loadSpaces(ByteBuffer in, List<Space> spaces) throws IOException {
+        spaces.clear();
+        int count = in.getInt();
+        for (int i = 0; i < count; ++i) {
+            Space space = new Space(in.getInt(), in.getInt());
+            if (space.startAddress < 0 || space.size <= 0 || space.startAddress + space.size > USER_SPACE_SIZE) {
+                throw new IOException("Illegal space: " + space.startAddress + "+" + space.size);
+            }
+            spaces.add(space);
+        }
     }
 
     /**
@@ -86,9 +286,32 @@ public class MemoryManager {
      *
      * @param address address
      * @param value   value
+     * @throws IllegalArgumentException if the address is in a code segment
      */
     public void write(int address, byte value) {
+        checkWritable(address, 1);
         userSpace[address] = value;
+        invalidateCode(address);
+    }
+
+    /**
+     * write the values from the address
+     *
+     * @param address address
+     * @param values  values
+     * @throws IllegalArgumentException if any of the addresses is in a code segment
+     */
+    public void write(int address, byte[] values) {
+        checkWritable(address, values.length);
+        System.arraycopy(values, 0, userSpace, address, values.length);
+        DecodedImage last = null;
+        for (int i = 0; i < values.length; ++i) {
+            DecodedImage image = codeMap[address + i];
+            if (image != null && image != last) {
+                image.invalidate();
+                last = image;
+            }
+        }
     }
 
     /**
@@ -111,12 +334,43 @@ public class MemoryManager {
      *
      * @param address address
      * @param value   value
+     * @throws IllegalArgumentException if any of the addresses is in a code segment
      */
     public void writeInt(int address, int value) {
+        checkWritable(address, 4);
         userSpace[address] = (byte) value;
         userSpace[address + 1] = (byte) (value >>> 8);
         userSpace[address + 2] = (byte) (value >>> 16);
         userSpace[address + 3] = (byte) (value >>> 24);
+        for (int i = 0; i < 4; ++i) {
+            invalidateCode(address + i);
+        }
+    }
+
+    /**
+     * @param address the start address
+     * @param size    the count of the bytes to write
+     * @throws IllegalArgumentException if any of the addresses is in a code segment
+     */
+    private synchronized void checkWritable(int address, int size) {
+        DecodedImage last = null;
+        for (int i = 0; i < size; ++i) {
+            DecodedImage image = codeMap[address + i];
+            if (image == null || image == last) continue;
+            Segment segment = segments.get(image.getBase());
+            if (segment != null && segment.decodedImage == image) {
+                throw new IllegalArgumentException(String.format(
+                        "The address ( = %d ) is in the read-only code segment at %d.", address + i, segment.address));
+            }
+            last = image;
+        }
+    }
+
+    private void invalidateCode(int address) {
+        DecodedImage image = codeMap[address];
+        if (image != null) {
+            image.invalidate();
+        }
     }
 
     /**
@@ -148,28 +402,34 @@ public class MemoryManager {
     }
 
     /**
-     * @return the PCBList
+     * @return a snapshot of the PCB table
+     */
+    public List<ProcessControlBlock> getPCBList() {
+        synchronized (processTable) {
+            return processTable.getPCBs();
+        }
+    }
+
+    /**
+     * @return the count of the PCBs
      */
-    public ProcessControlBlock[] getPCBList() {
-        return PCBList;
+    public int getPCBCount() {
+        synchronized (processTable) {
+            return processTable.size();
+        }
     }
 
     /**
-     * add PCB
+     * add a PCB with a new PID
      *
-     * @param PCB PCB
-     * @return true if successful
+     * @param startAddress startAddress
+     * @param imageFile    imageFile
+     * @return PCB, or null if the PCB table is full
      */
-    boolean addPCB(ProcessControlBlock PCB) {
-        synchronized (PCBList) {
-            for (int i = 0; i < PCBList.length; ++i) {
-                if (PCBList[i] == null) {
-                    PCBList[i] = PCB;
-                    return true;
-                }
-            }
+    ProcessControlBlock addPCB(int startAddress, FilePath imageFile) {
+        synchronized (processTable) {
+            return processTable.add(startAddress, imageFile);
         }
-        return false;
     }
 
     /**
@@ -179,30 +439,21 @@ public class MemoryManager {
      * @return true if successful
      */
     boolean removePCB(ProcessControlBlock PCB) {
-        synchronized (PCBList) {
-            for (int i = 0; i < PCBList.length; ++i) {
-                if (PCBList[i] == PCB) {
-                    PCBList[i] = null;
-                    return true;
-                }
-            }
+        synchronized (processTable) {
+            return processTable.remove(PCB);
         }
-        return false;
     }
 
     /**
      * get the PCB
      *
      * @param PID PID
-     * @return PCB
+     * @return PCB, or null if there isn't or the PID is of an exited process
      */
     public ProcessControlBlock getPCB(int PID) {
-        synchronized (PCBList) {
-            for (ProcessControlBlock pcb : PCBList) {
-                if (pcb != null && pcb.getPID() == PID) return pcb;
-            }
+        synchronized (processTable) {
+            return processTable.get(PID);
         }
-        return null;
     }
 
     /**
@@ -230,6 +481,23 @@ public class MemoryManager {
         BestFit
     }
 
+    /**
+     * A code segment shared by the processes running the same image
+     */
+    private static final class Segment {
+        // null if it's restored from a checkpoint
+        final byte[] image;
+        final int address;
+        final DecodedImage decodedImage;
+        int refCount;
+
+        Segment(byte[] image, int address, DecodedImage decodedImage) {
+            this.image = image;
+            this.address = address;
+            this.decodedImage = decodedImage;
+        }
+    }
+
     /**
      * Space class
      */
@@ -0,0 +1,175 @@
+package emuos.os;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics registry of the kernel.
+ * <p>
+ * A metric is a counter or a histogram registered by name, e.g. "process.created"
+ * or "device.A.wait". Both are lock-free, so they can be updated on the hot paths;
+ * the hot paths look them up once and keep the references.
+ *
+ * @author Link
+ */
+public class Metrics {
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * @param name the name of the counter
+     * @return the counter, it's registered if there isn't
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * @param name the name of the histogram
+     * @return the histogram, it's registered if there isn't
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * @return the values of the counters, sorted by name
+     */
+    public Map<String, Long> snapCounters() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        return snapshot;
+    }
+
+    /**
+     * @return the histograms, sorted by name
+     */
+    public Map<String, Histogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * reset all the metrics
+     */
+    public void reset() {
+        counters.values().forEach(LongAdder::reset);
+        histograms.values().forEach(Histogram::reset);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        snapCounters().forEach((name, value) -> stringBuilder.append(String.format("%-24s %d%n", name, value)));
+        getHistograms().forEach((name, histogram) -> stringBuilder.append(String.format("%-24s %s%n", name, histogram)));
+        return stringBuilder.toString();
+    }
+
+    /**
+     * A histogram of non-negative values with fixed power-of-two buckets.
+     * Bucket 0 counts the zeros, and bucket i counts the values in [2^(i-1), 2^i).
+     */
+    public static class Histogram {
+        private static final int BUCKET_COUNT = 64;
+        private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @param value the value, the negative one is treated as 0
+         */
+        public void record(long value) {
+            if (value < 0) value = 0;
+            buckets[Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value))].increment();
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * @return the count of the values
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return the sum of the values
+         */
+        public long getSum() {
+            return sum.sum();
+        }
+
+        /**
+         * @return the maximum value
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @return the mean of the values, 0 if there isn't any value
+         */
+        public double getMean() {
+            long n = getCount();
+            return n == 0 ? 0 : (double) getSum() / n;
+        }
+
+        /**
+         * @param percentile the percentile, in (0, 100]
+         * @return the upper bound of the bucket of the percentile, which is at most the maximum value
+         */
+        public long getPercentile(double percentile) {
+            long[] counts = getBucketCounts();
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : Math.min(getMax(), (1L << i) - 1);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return the counts of the buckets
+         */
+        public long[] getBucketCounts() {
+            long[] counts = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                counts[i] = buckets[i].sum();
+            }
+            return counts;
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d",
+                    getCount(), getMean(), getPercentile(50), getPercentile(99), getMax());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package emuos.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The multilevel feedback queue scheduler.
+ * <p>
+ * There is a FIFO queue per level, level 0 is the highest priority and has the
+ * shortest time slice, which doubles on every lower level. A new process starts
+ * on level 0. A process which uses up the time slice of its level is demoted,
+ * and a process which blocks for IO is promoted, so the IO-bound processes run
+ * first and the CPU-bound ones run longer when they run. Every {@link #BOOST_PERIOD}
+ * picks, the ready processes are moved back to level 0, so the CPU-bound ones
+ * don't starve.
+ * <p>
+ * The non-empty levels are kept in a bitmap, so picking the next process is
+ * O(1) whatever the count of the ready processes, and the queues are linked
+ * through the processes, so removing one is O(1) as well. A boost splices the
+ * lower queues onto level 0 in O(1), and the level and the ticks of a moved
+ * process are reset when it leaves the queue, it's been moved if its level
+ * isn't the level of the queue it's in.
+ *
+ * @author Link
+ */
+class MultilevelFeedbackScheduler implements Scheduler {
+    static final int LEVEL_COUNT = 4;
+    static final int BOOST_PERIOD = 64;
+    private final ProcessQueue[] queues;
+    // bit i is set if the queue of level i isn't empty
+    private int bitmap;
+    private int size;
+    private int picksBeforeBoost = BOOST_PERIOD;
+
+    MultilevelFeedbackScheduler() {
+        queues = new ProcessQueue[LEVEL_COUNT];
+        for (int i = 0; i < LEVEL_COUNT; ++i) {
+            queues[i] = new ProcessQueue();
+        }
+    }
+
+    /**
+     * @param level level
+     * @return the time slice of the level
+     */
+    static int getTimeSlice(int level) {
+        return Math.max(1, Kernel.INIT_TIME_SLICE / 2) << level;
+    }
+
+    @Override
+    public void enqueue(ProcessControlBlock pcb) {
+        if (pcb.getSchedulingTicks() >= getTimeSlice(pcb.getSchedulingLevel())) {
+            pcb.setSchedulingLevel(Math.min(LEVEL_COUNT - 1, pcb.getSchedulingLevel() + 1));
+            pcb.setSchedulingTicks(0);
+        }
+        add(pcb);
+    }
+
+    @Override
+    public ProcessControlBlock pickNext() {
+        if (bitmap == 0) return null;
+        if (--picksBeforeBoost <= 0) {
+            boost();
+        }
+        int level = Integer.numberOfTrailingZeros(bitmap);
+        ProcessQueue queue = queues[level];
+        ProcessControlBlock pcb = queue.poll();
+        if (queue.isEmpty()) {
+            bitmap &= ~(1 << level);
+        }
+        --size;
+        settle(pcb, level);
+        return pcb;
+    }
+
+    @Override
+    public void block(ProcessControlBlock pcb) {
+        remove(pcb);
+        pcb.setSchedulingLevel(Math.max(0, pcb.getSchedulingLevel() - 1));
+        pcb.setSchedulingTicks(0);
+    }
+
+    @Override
+    public void wake(ProcessControlBlock pcb) {
+        add(pcb);
+    }
+
+    @Override
+    public void tick(ProcessControlBlock pcb, int count) {
+        pcb.setSchedulingTicks(pcb.getSchedulingTicks() + count);
+    }
+
+    @Override
+    public boolean remove(ProcessControlBlock pcb) {
+        int level = pcb.getSchedulingLevel();
+        if (!queues[level].contains(pcb)) {
+            // it may have been moved to level 0 by a boost
+            if (level == 0 || !queues[0].contains(pcb)) {
+                return false;
+            }
+            level = 0;
+        }
+        ProcessQueue queue = queues[level];
+        queue.remove(pcb);
+        if (queue.isEmpty()) {
+            bitmap &= ~(1 << level);
+        }
+        --size;
+        settle(pcb, level);
+        return true;
+    }
+
+    @Override
+    public int getTimeSlice(ProcessControlBlock pcb) {
+        return getTimeSlice(pcb.getSchedulingLevel());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public List<ProcessControlBlock> getReadyProcesses() {
+        List<ProcessControlBlock> processes = new ArrayList<>(size);
+        for (ProcessQueue queue : queues) {
+            processes.addAll(queue);
+        }
+        return processes;
+    }
+
+    @Override
+    public void settle() {
+        for (int level = 0; level < LEVEL_COUNT; ++level) {
+            for (ProcessControlBlock pcb : queues[level]) {
+                settle(pcb, level);
+            }
+        }
+    }
+
+    /**
+     * reset the level and the ticks of a process moved by a boost
+     *
+     * @param pcb   PCB
+     * @param level the level of the queue it's in
+     */
+    private static void settle(ProcessControlBlock pcb, int level) {
+        if (pcb.getSchedulingLevel() != level) {
+            pcb.setSchedulingLevel(level);
+            pcb.setSchedulingTicks(0);
+        }
+    }
+
+    private void add(ProcessControlBlock pcb) {
+        queues[pcb.getSchedulingLevel()].add(pcb);
+        bitmap |= 1 << pcb.getSchedulingLevel();
+        ++size;
+    }
+
+    /**
+     * move the ready processes back to level 0, their levels are settled lazily
+     */
+    private void boost() {
+        picksBeforeBoost = BOOST_PERIOD;
+        for (int level = 1; level < LEVEL_COUNT; ++level) {
+            queues[0].splice(queues[level]);
+        }
+        bitmap = queues[0].isEmpty() ? 0 : 1;
+    }
+}
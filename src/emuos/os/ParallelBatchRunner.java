@@ -0,0 +1,163 @@
+package emuos.os;
+
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The parallel driver of the batch runs, e.g. a sweep over the scheduling policies,
+ * the counts of CPUs and the sizes of the user space.
+ * <p>
+ * Every batch runs on its own kernel with its own in-memory file system, in the
+ * thread of a fork-join worker, so the batches don't share any state and they
+ * scale with the cores of the host. The reports are in the order of the batches.
+ *
+ * @author Link
+ */
+public class ParallelBatchRunner {
+    // the count of batches which are run sequentially by a task
+    private static final int THRESHOLD = 1;
+    private final ForkJoinPool pool;
+
+    public ParallelBatchRunner() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool the pool of the batch runs
+     */
+    public ParallelBatchRunner(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Run the batches in parallel.
+     *
+     * @param batches batches
+     * @return the reports in the order of the batches
+     */
+    public List<BatchRunner.Report> run(List<Batch> batches) {
+        return pool.invoke(new RunTask(batches));
+    }
+
+    /**
+     * Run a batch in the current thread.
+     *
+     * @param batch batch
+     * @return the report
+     */
+    static BatchRunner.Report run(Batch batch) {
+        FileSystem fileSystem = FileSystem.createInMemory();
+        for (Map.Entry<String, byte[]> image : batch.images.entrySet()) {
+            FilePath imageFile = new FilePath(fileSystem, image.getKey());
+            try {
+                if (!imageFile.exists()) {
+                    imageFile.create();
+                }
+                try (OutputStream outputStream = new OutputStream(imageFile)) {
+                    outputStream.write(image.getValue());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't write the image " + image.getKey(), e);
+            }
+        }
+        BatchRunner runner = new BatchRunner(batch.processorCount, batch.userSpaceSize, fileSystem,
+                batch.schedulerPolicy);
+        batch.arrivals.forEach(runner::add);
+        return runner.runInCurrentThread();
+    }
+
+    /**
+     * A batch: the machine, the images on its disk and the workload.
+     */
+    public static final class Batch {
+        private final int processorCount;
+        private final int userSpaceSize;
+        private final Scheduler.Policy schedulerPolicy;
+        private final Map<String, byte[]> images;
+        private final List<BatchRunner.Arrival> arrivals;
+
+        /**
+         * @param processorCount the count of virtual CPUs
+         * @param userSpaceSize  the size of the user space in bytes
+         * @param images         the path --> the content of the image files
+         * @param arrivals       the arrivals of the workload
+         */
+        public Batch(int processorCount, int userSpaceSize, Map<String, byte[]> images,
+                     List<BatchRunner.Arrival> arrivals) {
+            this(processorCount, userSpaceSize, Scheduler.Policy.ROUND_ROBIN, images, arrivals);
+        }
+
+        /**
+         * @param processorCount  the count of virtual CPUs
+         * @param userSpaceSize   the size of the user space in bytes
+         * @param schedulerPolicy the scheduling policy
+         * @param images          the path --> the content of the image files
+         * @param arrivals        the arrivals of the workload
+         */
+        public Batch(int processorCount, int userSpaceSize, Scheduler.Policy schedulerPolicy,
+                     Map<String, byte[]> images, List<BatchRunner.Arrival> arrivals) {
+            this.processorCount = processorCount;
+            this.userSpaceSize = userSpaceSize;
+            this.schedulerPolicy = schedulerPolicy;
+            this.images = new LinkedHashMap<>(images);
+            this.arrivals = new ArrayList<>(arrivals);
+        }
+
+        public int getProcessorCount() {
+            return processorCount;
+        }
+
+        public int getUserSpaceSize() {
+            return userSpaceSize;
+        }
+
+        public Scheduler.Policy getSchedulerPolicy() {
+            return schedulerPolicy;
+        }
+
+        public Map<String, byte[]> getImages() {
+            return Collections.unmodifiableMap(images);
+        }
+
+        public List<BatchRunner.Arrival> getArrivals() {
+            return Collections.unmodifiableList(arrivals);
+        }
+    }
+
+    /**
+     * split the batches in halves until there are few enough to run in a task
+     */
+    private static class RunTask extends RecursiveTask<List<BatchRunner.Report>> {
+        private static final long serialVersionUID = 1L;
+        private final List<Batch> batches;
+
+        RunTask(List<Batch> batches) {
+            this.batches = batches;
+        }
+
+        @Override
+        protected List<BatchRunner.Report> compute() {
+            if (batches.size() <= THRESHOLD) {
+                List<BatchRunner.Report> reports = new ArrayList<>(batches.size());
+                for (Batch batch : batches) {
+                    reports.add(run(batch));
+                }
+                return reports;
+            }
+            int middle = batches.size() / 2;
+            RunTask left = new RunTask(batches.subList(0, middle));
+            RunTask right = new RunTask(batches.subList(middle, batches.size()));
+            left.fork();
+            List<BatchRunner.Report> reports = new ArrayList<>(right.compute());
+            reports.addAll(0, left.join());
+            return reports;
+        }
+    }
+}
@@ -6,6 +6,12 @@
 package emuos.os;
 
 import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 import static emuos.os.Kernel.Context;
 
@@ -13,12 +19,39 @@ import static emuos.os.Kernel.Context;
  * @author Link
  */
 public class ProcessControlBlock {
+    public static final int MIN_NICE = -20;
+    public static final int MAX_NICE = 19;
 
     private final int PID;
     private final int startAddress;
-    private Context context;
+    private final Context context = new Context();
+    private final Statistics statistics = new Statistics();
     private ProcessState state;
     private FilePath imageFile;
+    private DecodedImage decodedImage;
+    // the scheduling state, it's owned by the scheduler of the kernel
+    private int schedulingLevel;
+    private long schedulingTicks;
+    private long virtualRuntime;
+    // the instructions since the last IO request, and the estimate of a burst, -1 if it's unknown
+    private long burstTicks;
+    private long burstEstimate = -1;
+    // the absolute deadline in ticks, -1 if it isn't a real-time process
+    private long deadline = -1;
+    private long relativeDeadline;
+    private long budget;
+    private long budgetLeft;
+    // the position in the deadline queue, -1 if it isn't there
+    private int deadlineIndex = -1;
+    // the links of the ready or the blocked queue, see ProcessQueue
+    private ProcessQueue.Membership queue;
+    private ProcessControlBlock queuePrevious;
+    private ProcessControlBlock queueNext;
+    // the pending IO request, it's owned by the device manager
+    private DeviceManager.RequestInfo ioRequest;
+    // it's created on demand and completed on the exit, see ProcessManager#onExit
+    private CompletableFuture<ExitStatus> exitHandle;
+    private volatile int nice;
     public static final ProcessControlBlock IDLE = new ProcessControlBlock(0, -1, FilePath.NULL);
     public ProcessControlBlock(int PID, int startAddress) {
         this(PID, startAddress, FilePath.NULL);
@@ -29,7 +62,6 @@ public class ProcessControlBlock {
         this.startAddress = startAddress;
         this.imageFile = imageFile;
         state = ProcessState.READY;
-        context = new Context();
         context.setPC(startAddress);
     }
 
@@ -48,7 +80,7 @@ public class ProcessControlBlock {
     }
 
     void saveContext(Context context) {
-        this.context = context.clone();
+        this.context.copyFrom(context);
     }
 
     @Override
@@ -85,6 +117,57 @@ public class ProcessControlBlock {
         return startAddress;
     }
 
+    /**
+     * @return the pre-decoded image, or null if there isn't
+     */
+    DecodedImage getDecodedImage() {
+        return decodedImage;
+    }
+
+    void setDecodedImage(DecodedImage decodedImage) {
+        this.decodedImage = decodedImage;
+    }
+
+    /**
+     * @return true if it's created with a deadline
+     */
+    public boolean isRealTime() {
+        return deadline >= 0;
+    }
+
+    /**
+     * @return the absolute deadline in ticks, -1 if it isn't a real-time process
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return the CPU budget in instructions
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return the nice value, the lower one gets the more CPU from a fair scheduler
+     */
+    public int getNice() {
+        return nice;
+    }
+
+    void setNice(int nice) {
+        this.nice = nice;
+    }
+
     /**
      * @return the context
      */
@@ -92,6 +175,191 @@ public class ProcessControlBlock {
         return context;
     }
 
+    /**
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return the level in the multilevel feedback queue
+     */
+    int getSchedulingLevel() {
+        return schedulingLevel;
+    }
+
+    void setSchedulingLevel(int schedulingLevel) {
+        this.schedulingLevel = schedulingLevel;
+    }
+
+    /**
+     * @return the ticks used at the scheduling level
+     */
+    long getSchedulingTicks() {
+        return schedulingTicks;
+    }
+
+    void setSchedulingTicks(long schedulingTicks) {
+        this.schedulingTicks = schedulingTicks;
+    }
+
+    /**
+     * @return the virtual runtime of the fair scheduler
+     */
+    long getVirtualRuntime() {
+        return virtualRuntime;
+    }
+
+    void setVirtualRuntime(long virtualRuntime) {
+        this.virtualRuntime = virtualRuntime;
+    }
+
+    /**
+     * @return the instructions since the last IO request
+     */
+    long getBurstTicks() {
+        return burstTicks;
+    }
+
+    void setBurstTicks(long burstTicks) {
+        this.burstTicks = burstTicks;
+    }
+
+    /**
+     * @return the estimate of a CPU burst, -1 if it's unknown
+     */
+    long getBurstEstimate() {
+        return burstEstimate;
+    }
+
+    void setBurstEstimate(long burstEstimate) {
+        this.burstEstimate = burstEstimate;
+    }
+
+    /**
+     * @return the deadline relative to the creation in ticks
+     */
+    long getRelativeDeadline() {
+        return relativeDeadline;
+    }
+
+    void setRelativeDeadline(long relativeDeadline) {
+        this.relativeDeadline = relativeDeadline;
+    }
+
+    /**
+     * @return the rest of the CPU budget in instructions
+     */
+    long getBudgetLeft() {
+        return budgetLeft;
+    }
+
+    void setBudgetLeft(long budgetLeft) {
+        this.budgetLeft = budgetLeft;
+    }
+
+    /**
+     * @return the position in the deadline queue, -1 if it isn't there
+     */
+    int getDeadlineIndex() {
+        return deadlineIndex;
+    }
+
+    void setDeadlineIndex(int deadlineIndex) {
+        this.deadlineIndex = deadlineIndex;
+    }
+
+    /**
+     * @return the membership of the queue it's in, null if it isn't in a queue
+     */
+    ProcessQueue.Membership getQueue() {
+        return queue;
+    }
+
+    void setQueue(ProcessQueue.Membership queue) {
+        this.queue = queue;
+    }
+
+    ProcessControlBlock getQueuePrevious() {
+        return queuePrevious;
+    }
+
+    void setQueuePrevious(ProcessControlBlock queuePrevious) {
+        this.queuePrevious = queuePrevious;
+    }
+
+    ProcessControlBlock getQueueNext() {
+        return queueNext;
+    }
+
+    void setQueueNext(ProcessControlBlock queueNext) {
+        this.queueNext = queueNext;
+    }
+
+    /**
+     * @return the pending IO request, or null if there isn't
+     */
+    DeviceManager.RequestInfo getIORequest() {
+        return ioRequest;
+    }
+
+    void setIORequest(DeviceManager.RequestInfo ioRequest) {
+        this.ioRequest = ioRequest;
+    }
+
+    /**
+     * @return the future completed on the exit, or null if nobody waits for it
+     */
+    CompletableFuture<ExitStatus> getExitHandle() {
+        return exitHandle;
+    }
+
+    void setExitHandle(CompletableFuture<ExitStatus> exitHandle) {
+        this.exitHandle = exitHandle;
+    }
+
+    void save(DataOutputStream out) throws IOException {
+        out.writeInt(PID);
+        out.writeInt(startAddress);
+        out.writeInt(state.ordinal());
+        Checkpoint.writeString(out, imageFile.getPath());
+        context.save(out);
+        statistics.save(out);
+        out.writeInt(schedulingLevel);
+        out.writeLong(schedulingTicks);
+        out.writeLong(virtualRuntime);
+        out.writeLong(burstTicks);
+        out.writeLong(burstEstimate);
+        out.writeInt(nice);
+        out.writeLong(deadline);
+        out.writeLong(relativeDeadline);
+        out.writeLong(budget);
+        out.writeLong(budgetLeft);
+    }
+
+    static ProcessControlBlock load(ByteBuffer in, FileSystem fileSystem) {
+        int PID = in.getInt();
+        int startAddress = in.getInt();
+        ProcessState state = ProcessState.values()[in.getInt()];
+        ProcessControlBlock pcb = new ProcessControlBlock(PID, startAddress,
+                new FilePath(fileSystem, Checkpoint.readString(in)));
+        pcb.state = state;
+        pcb.context.load(in);
+        pcb.statistics.load(in);
+        pcb.schedulingLevel = in.getInt();
+        pcb.schedulingTicks = in.getLong();
+        pcb.virtualRuntime = in.getLong();
+        pcb.burstTicks = in.getLong();
+        pcb.burstEstimate = in.getLong();
+        pcb.nice = in.getInt();
+        pcb.deadline = in.getLong();
+        pcb.relativeDeadline = in.getLong();
+        pcb.budget = in.getLong();
+        pcb.budgetLeft = in.getLong();
+        return pcb;
+    }
+
     @Override
     public String toString() {
         return "ProcessControlBlock{" +
@@ -102,6 +370,116 @@ public class ProcessControlBlock {
                 '}';
     }
 
+    /**
+     * The statistics of a process in ticks, they are updated by {@link ProcessManager}
+     * when the state changes. The CPU ticks are counted on the clocks of the processors
+     * and the others on the kernel time, so with several processors they may not add up
+     * to the turnaround exactly.
+     */
+    public static final class Statistics {
+        volatile long createdAt;
+        volatile long exitedAt = -1;
+        // the time of the last state change
+        volatile long changedAt;
+        // the time of the processor when the process was switched in
+        volatile long switchedInAt;
+        volatile long CPUTicks;
+        volatile long readyWait;
+        volatile long blockedTime;
+        volatile long contextSwitches;
+
+        Statistics() {
+        }
+
+        /**
+         * @return the time when the process was created
+         */
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        /**
+         * @return the time when the process exited, -1 if it hasn't exited
+         */
+        public long getExitedAt() {
+            return exitedAt;
+        }
+
+        /**
+         * @return the ticks on the processors
+         */
+        public long getCPUTicks() {
+            return CPUTicks;
+        }
+
+        /**
+         * @return the ticks waiting in the ready queue
+         */
+        public long getReadyWait() {
+            return readyWait;
+        }
+
+        /**
+         * @return the ticks in the blocked queue
+         */
+        public long getBlockedTime() {
+            return blockedTime;
+        }
+
+        /**
+         * @return the count of the switches onto a processor
+         */
+        public long getContextSwitches() {
+            return contextSwitches;
+        }
+
+        /**
+         * @return the ticks from creation to exit, -1 if the process hasn't exited
+         */
+        public long getTurnaround() {
+            return exitedAt < 0 ? -1 : exitedAt - createdAt;
+        }
+
+        Statistics copy() {
+            Statistics copy = new Statistics();
+            copy.createdAt = createdAt;
+            copy.exitedAt = exitedAt;
+            copy.changedAt = changedAt;
+            copy.switchedInAt = switchedInAt;
+            copy.CPUTicks = CPUTicks;
+            copy.readyWait = readyWait;
+            copy.blockedTime = blockedTime;
+            copy.contextSwitches = contextSwitches;
+            return copy;
+        }
+
+        void save(DataOutputStream out) throws IOException {
+            out.writeLong(createdAt);
+            out.writeLong(changedAt);
+            out.writeLong(switchedInAt);
+            out.writeLong(CPUTicks);
+            out.writeLong(readyWait);
+            out.writeLong(blockedTime);
+            out.writeLong(contextSwitches);
+        }
+
+        void load(ByteBuffer in) {
+            createdAt = in.getLong();
+            changedAt = in.getLong();
+            switchedInAt = in.getLong();
+            CPUTicks = in.getLong();
+            readyWait = in.getLong();
+            blockedTime = in.getLong();
+            contextSwitches = in.getLong();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("CPU=%d ready=%d blocked=%d switches=%d",
+                    CPUTicks, readyWait, blockedTime, contextSwitches);
+        }
+    }
+
     /**
      * Process State
      */
@@ -4,37 +4,68 @@ package emuos.os;
  * @author Link
  */
 public class ProcessEventInfo {
-    private long time;
-    private String event;
-    private ProcessControlBlock pcb;
+    private final long time;
+    private final String event;
+    private final int processorID;
+    private final ProcessControlBlock pcb;
+    private final int AX;
+    private final int PC;
 
     public ProcessEventInfo(long time, String event, ProcessControlBlock pcb) {
+        this(time, event, 0, pcb, pcb.getContext().getAX(), pcb.getContext().getPC());
+    }
+
+    /**
+     * @param time        kernel time
+     * @param event       event type
+     * @param processorID the ID of the processor
+     * @param pcb         the PCB of the event, or null if it isn't about a process
+     * @param AX          AX of the process when the event happened
+     * @param PC          PC of the process when the event happened
+     */
+    public ProcessEventInfo(long time, String event, int processorID, ProcessControlBlock pcb, int AX, int PC) {
         this.time = time;
         this.event = event;
+        this.processorID = processorID;
         this.pcb = pcb;
+        this.AX = AX;
+        this.PC = PC;
     }
 
     public long getTime() {
         return time;
     }
 
+    /**
+     * @return the PID, or 0 if the event isn't about a process
+     */
     public int getPID() {
-        return pcb.getPID();
+        return pcb == null ? ProcessControlBlock.IDLE.getPID() : pcb.getPID();
     }
 
     public String getType() {
         return event;
     }
 
+    /**
+     * @return the ID of the processor where the event happened
+     */
+    public int getProcessorID() {
+        return processorID;
+    }
+
+    /**
+     * @return the PCB, or null if the event isn't about a process
+     */
     public ProcessControlBlock getPCB() {
         return pcb;
     }
 
     public int getAX() {
-        return pcb.getContext().getAX();
+        return AX;
     }
 
     public int getPC() {
-        return pcb.getContext().getPC();
+        return PC;
     }
 }
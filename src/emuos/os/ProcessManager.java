@@ -6,14 +6,16 @@
 package emuos.os;
 
 import emuos.diskmanager.FilePath;
-import emuos.diskmanager.InputStream;
 import emuos.os.Kernel.Context;
 import emuos.os.ProcessControlBlock.ProcessState;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 /**
@@ -21,63 +23,95 @@ import java.util.logging.Logger;
  */
 public class ProcessManager {
 
-    private final BlockingQueue<ProcessControlBlock> blockedQueue = new LinkedBlockingQueue<>();
-    private final BlockingQueue<ProcessControlBlock> readyQueue = new LinkedBlockingQueue<>();
+    private final ProcessQueue blockedQueue = new ProcessQueue();
+    private final EarliestDeadlineFirstScheduler scheduler;
     private final Kernel kernel;
-    private final Collection<Listener> onCreateListeners = Collections.synchronizedList(new LinkedList<>());
-    private final Collection<Listener> onDestroyListeners = Collections.synchronizedList(new LinkedList<>());
-    private final Collection<Listener> onAwakeListeners = Collections.synchronizedList(new LinkedList<>());
-    private final Collection<Listener> onBlockListeners = Collections.synchronizedList(new LinkedList<>());
-    private final Collection<Listener> onScheduleListeners = Collections.synchronizedList(new LinkedList<>());
-    private ProcessControlBlock runningProcess;
-    private int nextPID = 1;
-
-    ProcessManager(Kernel kernel, MemoryManager memoryManager) {
+    private final LongAdder createdCounter;
+    private final LongAdder forkedCounter;
+    private final LongAdder destroyedCounter;
+    private final LongAdder contextSwitchCounter;
+    private final Metrics.Histogram readyWaitHistogram;
+    private final Metrics.Histogram blockedTimeHistogram;
+    private final Metrics.Histogram turnaroundHistogram;
+    private final Metrics.Histogram timeSliceHistogram;
+    private final LongAdder deadlineMetCounter;
+    private final LongAdder deadlineMissedCounter;
+    private final LongAdder admissionRejectedCounter;
+    private final Metrics.Histogram latenessHistogram;
+    private final LongAdder jobSubmittedCounter;
+    private final LongAdder jobRejectedCounter;
+    private final Metrics.Histogram jobQueueDepthHistogram;
+    private final Metrics.Histogram jobAdmissionLatencyHistogram;
+    private final ImageCache imageCache;
+    private JobQueue jobQueue = new JobQueue(JobQueue.Order.FIFO, JobQueue.DEFAULT_CAPACITY);
+    // the count of the ready processes, it's read by the idle processors without the lock
+    private volatile int readyCount;
+
+    ProcessManager(Kernel kernel, MemoryManager memoryManager, Scheduler scheduler) {
         this.kernel = kernel;
+        this.scheduler = new EarliestDeadlineFirstScheduler(scheduler);
+        Metrics metrics = kernel.getMetrics();
+        createdCounter = metrics.counter("process.created");
+        forkedCounter = metrics.counter("process.forked");
+        destroyedCounter = metrics.counter("process.destroyed");
+        contextSwitchCounter = metrics.counter("process.switches");
+        readyWaitHistogram = metrics.histogram("process.ready.wait");
+        blockedTimeHistogram = metrics.histogram("process.blocked.time");
+        turnaroundHistogram = metrics.histogram("process.turnaround");
+        timeSliceHistogram = metrics.histogram("process.time.slice");
+        deadlineMetCounter = metrics.counter("process.deadline.met");
+        deadlineMissedCounter = metrics.counter("process.deadline.missed");
+        admissionRejectedCounter = metrics.counter("process.admission.rejected");
+        latenessHistogram = metrics.histogram("process.deadline.lateness");
+        jobSubmittedCounter = metrics.counter("job.submitted");
+        jobRejectedCounter = metrics.counter("job.rejected");
+        jobQueueDepthHistogram = metrics.histogram("job.queue.depth");
+        jobAdmissionLatencyHistogram = metrics.histogram("job.admission.latency");
+        imageCache = new ImageCache(metrics);
     }
 
     public boolean addOnCreateListener(Listener listener) {
-        return onCreateListeners.add(listener);
+        return kernel.getEventBus().subscribe(EventBus.Type.CREATED, listener);
     }
 
     public boolean addOnDestroyListener(Listener listener) {
-        return onDestroyListeners.add(listener);
+        return kernel.getEventBus().subscribe(EventBus.Type.DESTROYED, listener);
     }
 
     public boolean addOnAwakeListener(Listener listener) {
-        return onAwakeListeners.add(listener);
+        return kernel.getEventBus().subscribe(EventBus.Type.AWAKE, listener);
     }
 
     public boolean addOnBlockListener(Listener listener) {
-        return onBlockListeners.add(listener);
+        return kernel.getEventBus().subscribe(EventBus.Type.BLOCKED, listener);
     }
 
     public boolean addOnScheduleListener(Listener listener) {
-        return onScheduleListeners.add(listener);
+        return kernel.getEventBus().subscribe(EventBus.Type.SCHEDULED, listener);
     }
 
     public boolean removeOnCreateListener(Listener listener) {
-        return onCreateListeners.remove(listener);
+        return kernel.getEventBus().unsubscribe(EventBus.Type.CREATED, listener);
     }
 
     public boolean removeOnDestroyListener(Listener listener) {
-        return onDestroyListeners.remove(listener);
+        return kernel.getEventBus().unsubscribe(EventBus.Type.DESTROYED, listener);
     }
 
     public boolean removeOnAwakeListener(Listener listener) {
-        return onAwakeListeners.remove(listener);
+        return kernel.getEventBus().unsubscribe(EventBus.Type.AWAKE, listener);
     }
 
     public boolean removeOnBlockListener(Listener listener) {
-        return onBlockListeners.remove(listener);
+        return kernel.getEventBus().unsubscribe(EventBus.Type.BLOCKED, listener);
     }
 
     public boolean removeOnScheduleListener(Listener listener) {
-        return onScheduleListeners.remove(listener);
+        return kernel.getEventBus().unsubscribe(EventBus.Type.SCHEDULED, listener);
     }
 
     ProcessControlBlock create(String path) throws IOException, ProcessException {
-        FilePath imageFile = new FilePath(path);
+        FilePath imageFile = new FilePath(kernel.getFileSystem(), path);
         return create(imageFile);
     }
 
@@ -90,42 +124,233 @@ public class ProcessManager {
      * @throws ProcessException ProcessException
      */
     public synchronized ProcessControlBlock create(FilePath imageFile) throws IOException, ProcessException {
-        if (!imageFile.exists() || !imageFile.isFile()) return null;
-        int imageSize = imageFile.size();
+        return create(imageFile, -1, 0);
+    }
+
+    /**
+     * Create a real-time process, it's scheduled by the earliest deadline first
+     * ahead of the normal processes until its budget is used up.
+     *
+     * @param imageFile        imageFile
+     * @param relativeDeadline the deadline in ticks after the creation, -1 for a normal process
+     * @param budget           the CPU budget in instructions
+     * @return PCB
+     * @throws IOException      IOException
+     * @throws ProcessException if it can't be admitted along with the other real-time processes
+     */
+    public synchronized ProcessControlBlock create(FilePath imageFile, long relativeDeadline, long budget)
+            throws IOException, ProcessException {
+        byte[] image = imageCache.get(imageFile);
+        if (image == null) return null;
+        if (relativeDeadline >= 0 && !scheduler.canAdmit(relativeDeadline, budget, kernel.getProcessorCount())) {
+            admissionRejectedCounter.increment();
+            throw new ProcessException("The deadline " + relativeDeadline + " with the budget " + budget
+                    + " can't be met along with the other real-time processes.");
+        }
+        int imageSize = image.length;
         if (imageSize == 0) {
             throw new ProcessException("Create Process Failed: The image file \"" + imageFile.getPath() + "\" is empty.");
         }
 
         MemoryManager memoryManager = kernel.getMemoryManager();
-        int address = memoryManager.alloc(imageSize);
+        int address = memoryManager.attach(image);
         if (address < 0) {
             throw new ProcessException("There is not enough memory to allocate for the new process.");
         }
 
-        try (InputStream inputStream = new InputStream(imageFile)) {
-            int value, currentPos = address;
-            while ((value = inputStream.read()) != -1) {
-                memoryManager.write(currentPos++, (byte) value);
+        ProcessControlBlock PCB = memoryManager.addPCB(address, imageFile);
+        if (PCB == null) {
+            memoryManager.detach(address);
+            throw new ProcessException("There is not enough PCB spaces for the new process.");
+        }
+        admit(PCB, relativeDeadline, budget);
+        return PCB;
+    }
+
+    /**
+     * Submit a job to create a process when there is enough memory and a free
+     * PCB slot, instead of failing as {@link #create(FilePath)} does, so a burst
+     * of processes waits for the running ones to exit. The image is read when
+     * the job is submitted. Cancelling the handle before the job is admitted
+     * withdraws it. The waiting jobs aren't saved in a checkpoint.
+     *
+     * @param imageFile imageFile
+     * @return the handle completed with the PCB when the job is admitted,
+     * or null if the image file isn't a file
+     * @throws IOException      IOException
+     * @throws ProcessException if the image is empty or bigger than the user space, or the job queue is full
+     * @see #setJobQueue(JobQueue.Order, int)
+     */
+    public synchronized CompletableFuture<ProcessControlBlock> submit(FilePath imageFile)
+            throws IOException, ProcessException {
+        byte[] image = imageCache.get(imageFile);
+        if (image == null) return null;
+        if (image.length == 0) {
+            throw new ProcessException("Create Process Failed: The image file \"" + imageFile.getPath() + "\" is empty.");
+        }
+        if (image.length > kernel.getMemoryManager().getMaxUserSpaceSize()) {
+            throw new ProcessException("The image file \"" + imageFile.getPath() + "\" is bigger than the user space.");
+        }
+        JobQueue.Job job = new JobQueue.Job(imageFile, image, kernel.getTime());
+        if (!jobQueue.offer(job)) {
+            jobRejectedCounter.increment();
+            throw new ProcessException("The job queue is full.");
+        }
+        jobSubmittedCounter.increment();
+        // a cancelled job stops taking a slot of the queue at once
+        job.handle.whenComplete((PCB, e) -> {
+            if (job.handle.isCancelled()) withdraw(job);
+        });
+        admitJobs();
+        jobQueueDepthHistogram.record(jobQueue.size());
+        return job.handle;
+    }
+
+    private synchronized void withdraw(JobQueue.Job job) {
+        jobQueue.remove(job);
+    }
+
+    /**
+     * replace the job queue, the waiting jobs are moved into the new one
+     *
+     * @param order    the admission order
+     * @param capacity the max count of the waiting jobs
+     * @throws IllegalArgumentException if the waiting jobs don't fit
+     */
+    public synchronized void setJobQueue(JobQueue.Order order, int capacity) {
+        JobQueue queue = new JobQueue(order, capacity);
+        if (!jobQueue.transferTo(queue)) {
+            throw new IllegalArgumentException("The " + jobQueue.size() + " waiting jobs don't fit into " + capacity + ".");
+        }
+        jobQueue = queue;
+        admitJobs();
+    }
+
+    /**
+     * @return the job queue
+     */
+    public JobQueue getJobQueue() {
+        return jobQueue;
+    }
+
+    /**
+     * admit the waiting jobs in order until the next one doesn't fit
+     */
+    private void admitJobs() {
+        MemoryManager memoryManager = kernel.getMemoryManager();
+        JobQueue.Job job;
+        while ((job = jobQueue.peek()) != null) {
+            if (job.handle.isDone()) {
+                // cancelled
+                jobQueue.poll();
+                continue;
+            }
+            int address = memoryManager.attach(job.image);
+            if (address < 0) return;
+            ProcessControlBlock PCB = memoryManager.addPCB(address, job.imageFile);
+            if (PCB == null) {
+                memoryManager.detach(address);
+                return;
+            }
+            jobQueue.poll();
+            jobQueueDepthHistogram.record(jobQueue.size());
+            admit(PCB, -1, 0);
+            jobAdmissionLatencyHistogram.record(kernel.getTime() - job.submittedAt);
+            if (!job.handle.complete(PCB)) {
+                // cancelled after the check above, nobody holds the process
+                destroy(PCB);
             }
         }
+    }
 
-        ProcessControlBlock PCB = new ProcessControlBlock(nextPID++, address, imageFile);
-        if (!memoryManager.addPCB(PCB)) {
-            memoryManager.free(address);
-            throw new ProcessException("There is not enough PCB spaces for the new process.");
+    private void admit(ProcessControlBlock PCB, long relativeDeadline, long budget) {
+        PCB.setDecodedImage(kernel.getMemoryManager().getDecodedImage(PCB.getStartAddress()));
+        ProcessControlBlock.Statistics statistics = PCB.getStatistics();
+        statistics.createdAt = statistics.changedAt = kernel.getTime();
+        if (relativeDeadline >= 0) {
+            PCB.setRelativeDeadline(relativeDeadline);
+            PCB.setDeadline(statistics.createdAt + relativeDeadline);
+            PCB.setBudget(budget);
+            PCB.setBudgetLeft(budget);
+            scheduler.reserve(PCB);
         }
-        getReadyQueue().add(PCB);
-        onCreateListeners.forEach(listener -> listener.handle(new ProcessEventInfo(kernel.getTime(), "CREATED", PCB)));
-        return PCB;
+        createdCounter.increment();
+        scheduler.enqueue(PCB);
+        readyCount = scheduler.size();
+        kernel.wakeIdleProcessor();
+        preemptFor(PCB);
+        kernel.publish(EventBus.Type.CREATED, PCB);
+    }
+
+    /**
+     * preempt a processor for a real-time process which has become ready,
+     * unless there is a processor without a running process to pick it
+     *
+     * @param PCB the ready process
+     */
+    private void preemptFor(ProcessControlBlock PCB) {
+        if (!EarliestDeadlineFirstScheduler.isRealTime(PCB)) return;
+        Processor victim = null;
+        long bestPriority = -1;
+        for (Processor processor : kernel.getProcessors()) {
+            ProcessControlBlock running = processor.getRunningProcess();
+            if (running == null) return;
+            long priority = EarliestDeadlineFirstScheduler.shouldPreempt(PCB, running);
+            if (priority > bestPriority) {
+                victim = processor;
+                bestPriority = priority;
+            }
+        }
+        if (victim != null) {
+            victim.preempt(victim.getRunningProcess());
+        }
+    }
+
+    /**
+     * Fork the running process. The child shares the code segment of the parent,
+     * which is read-only, so nothing is copied but the context, and it starts
+     * after the fork instruction with AX = 0. The child is a normal process even
+     * if the parent is a real-time one, and it inherits the nice value.
+     *
+     * @param parent  the running process
+     * @param context the context of the parent on its processor
+     * @return the child, or null if there is not enough PCB spaces
+     */
+    synchronized ProcessControlBlock fork(ProcessControlBlock parent, Context context) {
+        MemoryManager memoryManager = kernel.getMemoryManager();
+        int address = parent.getStartAddress();
+        memoryManager.attach(address);
+        ProcessControlBlock child = memoryManager.addPCB(address, parent.getImageFile());
+        if (child == null) {
+            memoryManager.detach(address);
+            return null;
+        }
+        child.setDecodedImage(parent.getDecodedImage());
+        child.saveContext(context);
+        child.getContext().setAX(0);
+        child.getContext().setFlag(Context.PSW_ZF);
+        child.setNice(parent.getNice());
+        ProcessControlBlock.Statistics statistics = child.getStatistics();
+        statistics.createdAt = statistics.changedAt = kernel.getTime();
+        createdCounter.increment();
+        forkedCounter.increment();
+        scheduler.enqueue(child);
+        readyCount = scheduler.size();
+        kernel.wakeIdleProcessor();
+        kernel.publish(EventBus.Type.CREATED, child);
+        return child;
     }
 
     synchronized boolean destroy(ProcessControlBlock PCB) {
         Logger logger = Logger.getLogger(this.getClass().getName());
         MemoryManager memoryManager = kernel.getMemoryManager();
-        if (PCB.equals(runningProcess)) {
+        Processor processor = kernel.findProcessor(PCB);
+        if (processor != null) {
             assert PCB.getState() == ProcessState.RUNNING;
-            runningProcess = null;
-        } else if (!readyQueue.remove(PCB)) {
+            processor.setRunningProcess(null);
+        } else if (scheduler.remove(PCB)) {
+            readyCount = scheduler.size();
+        } else {
             if (!blockedQueue.remove(PCB)) {
                 logger.warning(PCB + " is not in the progress queue.");
                 return false;
@@ -135,93 +360,270 @@ public class ProcessManager {
                 return false;
             }
         }
-        memoryManager.free(PCB.getStartAddress());
+        long now = kernel.getTime();
+        leaveState(PCB, processor, now);
+        PCB.getStatistics().exitedAt = now;
+        turnaroundHistogram.record(now - PCB.getStatistics().createdAt);
+        destroyedCounter.increment();
+        if (PCB.isRealTime()) {
+            scheduler.release(PCB);
+            if (now > PCB.getDeadline()) {
+                deadlineMissedCounter.increment();
+                latenessHistogram.record(now - PCB.getDeadline());
+            } else {
+                deadlineMetCounter.increment();
+            }
+        }
+        memoryManager.detach(PCB.getStartAddress());
         if (!memoryManager.removePCB(PCB)) {
             logger.warning(PCB + " is not in the memory");
         }
-        onDestroyListeners.forEach(listener -> listener.handle(new ProcessEventInfo(kernel.getTime(), "DESTROYED", PCB)));
-        schedule();
+        kernel.publish(EventBus.Type.DESTROYED, PCB);
+        CompletableFuture<ExitStatus> exitHandle = PCB.getExitHandle();
+        if (exitHandle != null) {
+            PCB.setExitHandle(null);
+            exitHandle.complete(new ExitStatus(PCB));
+        }
+        admitJobs();
+        if (processor != null) {
+            schedule(processor);
+        }
         return true;
     }
 
+    /**
+     * Get the exit handle of a process, it's completed with the exit status when
+     * the process exits or is killed, so any number of clients can wait for any
+     * number of processes without a thread each. The handle is completed on the
+     * processor of the process, so the blocking actions should be async ones.
+     * The handles aren't saved in a checkpoint.
+     *
+     * @param PCB PCB
+     * @return the exit handle, it's already completed if the process has exited,
+     * every call gets its own handle, so cancelling one doesn't affect the others
+     */
+    public synchronized CompletableFuture<ExitStatus> onExit(ProcessControlBlock PCB) {
+        if (PCB.getStatistics().getExitedAt() >= 0) {
+            return CompletableFuture.completedFuture(new ExitStatus(PCB));
+        }
+        if (PCB.getExitHandle() == null) {
+            PCB.setExitHandle(new CompletableFuture<>());
+        }
+        return PCB.getExitHandle().thenApply(Function.identity());
+    }
+
+    /**
+     * @param PID PID
+     * @return the exit handle of the process, or null if there isn't such a process
+     * @see #onExit(ProcessControlBlock)
+     */
+    public synchronized CompletableFuture<ExitStatus> onExit(int PID) {
+        ProcessControlBlock PCB = kernel.getMemoryManager().getPCB(PID);
+        return PCB == null ? null : onExit(PCB);
+    }
+
     public synchronized boolean destroy(int PID) {
-        if (runningProcess != null && runningProcess.getPID() == PID)
-            return destroy(runningProcess);
-        return readyQueue.stream()
-                .filter(b -> b.getPID() == PID)
-                .findFirst()
-                .map(this::destroy)
-                .orElseGet(() -> blockedQueue.stream()
-                        .filter(b -> b.getPID() == PID)
-                        .findFirst()
-                        .filter(this::destroy)
-                        .isPresent());
+        ProcessControlBlock PCB = kernel.getMemoryManager().getPCB(PID);
+        return PCB != null && destroy(PCB);
+    }
+
+    /**
+     * change the nice value of a process, it takes effect from the next time slice
+     *
+     * @param PID  PID
+     * @param nice the nice value in [{@link ProcessControlBlock#MIN_NICE}, {@link ProcessControlBlock#MAX_NICE}]
+     * @return false if there isn't such a process
+     */
+    public synchronized boolean setNice(int PID, int nice) {
+        if (nice < ProcessControlBlock.MIN_NICE || nice > ProcessControlBlock.MAX_NICE) {
+            throw new IllegalArgumentException("nice must be in [" + ProcessControlBlock.MIN_NICE
+                    + ", " + ProcessControlBlock.MAX_NICE + "].");
+        }
+        ProcessControlBlock PCB = kernel.getMemoryManager().getPCB(PID);
+        if (PCB == null) return false;
+        // the scheduler may order the ready processes by the nice value
+        if (scheduler.remove(PCB)) {
+            PCB.setNice(nice);
+            scheduler.enqueue(PCB);
+        } else {
+            PCB.setNice(nice);
+        }
+        return true;
     }
 
     synchronized void block(ProcessControlBlock PCB) {
-        if (PCB.equals(runningProcess)) {
+        Processor processor = kernel.findProcessor(PCB);
+        if (processor != null) {
             assert PCB.getState() == ProcessState.RUNNING;
+            leaveState(PCB, processor, kernel.getTime());
             PCB.setState(ProcessState.BLOCKED);
-            PCB.saveContext(kernel.getContext());
+            PCB.saveContext(processor.getContext());
+            scheduler.block(PCB);
             getBlockedQueue().add(PCB);
-            runningProcess = null;
-            schedule();
+            processor.setRunningProcess(null);
+            schedule(processor);
         } else if (PCB.getState() == ProcessState.READY) {
-            getReadyQueue().remove(PCB);
+            scheduler.block(PCB);
+            readyCount = scheduler.size();
+            leaveState(PCB, null, kernel.getTime());
             PCB.setState(ProcessState.BLOCKED);
             getBlockedQueue().add(PCB);
         } else {
             Logger.getLogger(this.getClass().getName()).warning("Wrong PCB state: " + PCB);
         }
-        onBlockListeners.forEach(listener -> listener.handle(new ProcessEventInfo(kernel.getTime(), "BLOCKED", PCB)));
+        kernel.publish(EventBus.Type.BLOCKED, PCB);
     }
 
     synchronized void awake(ProcessControlBlock PCB) {
         if (PCB.getState() == ProcessState.BLOCKED) {
             getBlockedQueue().remove(PCB);
+            leaveState(PCB, null, kernel.getTime());
             PCB.setState(ProcessState.READY);
-            getReadyQueue().add(PCB);
+            scheduler.wake(PCB);
+            readyCount = scheduler.size();
+            kernel.wakeIdleProcessor();
+            preemptFor(PCB);
         } else {
             Logger.getLogger(this.getClass().getName()).warning("Wrong PCB state: " + PCB);
         }
-        onAwakeListeners.forEach(listener -> listener.handle(new ProcessEventInfo(kernel.getTime(), "AWAKE", PCB)));
+        kernel.publish(EventBus.Type.AWAKE, PCB);
+    }
+
+    synchronized void save(DataOutputStream out) throws IOException {
+        saveQueue(out, scheduler.getReadyProcesses());
+        saveQueue(out, blockedQueue);
+    }
+
+    synchronized void load(ByteBuffer in, Map<Integer, ProcessControlBlock> pcbs) throws IOException {
+        for (ProcessControlBlock pcb : pcbs.values()) {
+            if (pcb.isRealTime()) {
+                scheduler.reserve(pcb);
+            }
+        }
+        List<ProcessControlBlock> readyProcesses = new ArrayList<>();
+        loadQueue(in, readyProcesses, pcbs);
+        // the ready processes are saved in the order they would be picked
+        readyProcesses.forEach(scheduler::enqueue);
+        readyCount = scheduler.size();
+        loadQueue(in, blockedQueue, pcbs);
+    }
+
+    private static void saveQueue(DataOutputStream out, Collection<ProcessControlBlock> queue) throws IOException {
+        out.writeInt(queue.size());
+        for (ProcessControlBlock pcb : queue) {
+            out.writeInt(pcb.getPID());
+        }
+    }
+
+    private static void loadQueue(ByteBuffer in, Collection<ProcessControlBlock> queue,
+                                  Map<Integer, ProcessControlBlock> pcbs) throws IOException {
+        queue.clear();
+        int count = in.getInt();
+        for (int i = 0; i < count; ++i) {
+            queue.add(Checkpoint.getPCB(pcbs, in.getInt()));
+        }
+    }
+
+    /**
+     * @return true if there is any process in the ready queue
+     */
+    boolean hasReadyProcess() {
+        return readyCount > 0;
     }
 
-    synchronized void schedule() {
+    /**
+     * @return the scheduler of the ready processes
+     */
+    Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Account the instructions executed by the running process of a processor,
+     * it's called on the processor without the lock.
+     *
+     * @param pcb   the running process
+     * @param count the count of executed instructions
+     */
+    void tick(ProcessControlBlock pcb, int count) {
+        scheduler.tick(pcb, count);
+    }
+
+    /**
+     * switch the process of the processor to the next ready one
+     *
+     * @param processor processor
+     */
+    synchronized void schedule(Processor processor) {
+        ProcessControlBlock runningProcess = processor.getRunningProcess();
+        long now = kernel.getTime();
         if (runningProcess != null) {
-            runningProcess.saveContext(kernel.getContext());
+            runningProcess.saveContext(processor.getContext());
+            leaveState(runningProcess, processor, now);
             runningProcess.setState(ProcessState.READY);
-            onScheduleListeners.forEach(listener -> listener.handle(new ProcessEventInfo(kernel.getTime(), "SCHEDULED", runningProcess)));
-            readyQueue.add(runningProcess);
+            kernel.publish(EventBus.Type.SCHEDULED, runningProcess);
+            scheduler.enqueue(runningProcess);
         }
-        runningProcess = readyQueue.poll();
-        kernel.resetTimeSlice();
-        if (runningProcess != null) {
-            runningProcess.setState(ProcessState.RUNNING);
-            kernel.setContext(runningProcess.getContext());
-            onScheduleListeners.forEach(listener -> listener.handle(new ProcessEventInfo(kernel.getTime(), "SCHEDULED", runningProcess)));
+        ProcessControlBlock nextProcess = scheduler.pickNext();
+        readyCount = scheduler.size();
+        processor.setRunningProcess(nextProcess);
+        if (nextProcess != null) {
+            int timeSlice = scheduler.getTimeSlice(nextProcess);
+            processor.resetTimeSlice(timeSlice);
+            timeSliceHistogram.record(timeSlice);
+            leaveState(nextProcess, null, now);
+            ProcessControlBlock.Statistics statistics = nextProcess.getStatistics();
+            statistics.switchedInAt = processor.getTime();
+            if (nextProcess != runningProcess) {
+                ++statistics.contextSwitches;
+                contextSwitchCounter.increment();
+            }
+            nextProcess.setState(ProcessState.RUNNING);
+            processor.setContext(nextProcess.getContext());
+            kernel.publish(EventBus.Type.SCHEDULED, nextProcess);
         }
     }
 
     /**
-     * @return the blockedQueue
+     * Account the time of the current state of a process before it's changed
+     *
+     * @param PCB       PCB
+     * @param processor the processor of the running process
+     * @param now       the current kernel time
      */
-    private BlockingQueue<ProcessControlBlock> getBlockedQueue() {
-        return blockedQueue;
+    private void leaveState(ProcessControlBlock PCB, Processor processor, long now) {
+        ProcessControlBlock.Statistics statistics = PCB.getStatistics();
+        long elapsed = now - statistics.changedAt;
+        switch (PCB.getState()) {
+            case RUNNING:
+                statistics.CPUTicks += processor.getTime() - statistics.switchedInAt;
+                break;
+            case READY:
+                statistics.readyWait += elapsed;
+                readyWaitHistogram.record(elapsed);
+                break;
+            case BLOCKED:
+                statistics.blockedTime += elapsed;
+                blockedTimeHistogram.record(elapsed);
+                break;
+            default:
+                break;
+        }
+        statistics.changedAt = now;
     }
 
     /**
-     * @return the readyQueue
+     * @return the blockedQueue
      */
-    private BlockingQueue<ProcessControlBlock> getReadyQueue() {
-        return readyQueue;
+    private ProcessQueue getBlockedQueue() {
+        return blockedQueue;
     }
 
     /**
-     * @return the running process
+     * @return the running process of the current processor
      */
     public ProcessControlBlock getRunningProcess() {
-        return runningProcess;
+        return kernel.getCurrentProcessor().getRunningProcess();
     }
 
     /**
@@ -229,20 +631,49 @@ public class ProcessManager {
      */
     public synchronized List<Snapshot> snap() {
         MemoryManager memoryManager = kernel.getMemoryManager();
+        long now = kernel.getTime();
         List<Snapshot> snapshots = new ArrayList<>();
         snapshots.add(Snapshot.IDLE);
-        if (runningProcess != null) {
-            snapshots.add(new Snapshot(memoryManager, runningProcess));
+        for (Processor processor : kernel.getProcessors()) {
+            ProcessControlBlock runningProcess = processor.getRunningProcess();
+            if (runningProcess != null) {
+                snapshots.add(new Snapshot(memoryManager, runningProcess, snapStatistics(runningProcess, processor, now)));
+            }
         }
-        for (ProcessControlBlock pcb : readyQueue) {
-            snapshots.add(new Snapshot(memoryManager, pcb));
+        for (ProcessControlBlock pcb : scheduler.getReadyProcesses()) {
+            snapshots.add(new Snapshot(memoryManager, pcb, snapStatistics(pcb, null, now)));
         }
         for (ProcessControlBlock pcb : blockedQueue) {
-            snapshots.add(new Snapshot(memoryManager, pcb));
+            snapshots.add(new Snapshot(memoryManager, pcb, snapStatistics(pcb, null, now)));
         }
         return snapshots;
     }
 
+    /**
+     * @return the statistics including the time of the current state
+     */
+    private static ProcessControlBlock.Statistics snapStatistics(ProcessControlBlock PCB, Processor processor, long now) {
+        ProcessControlBlock.Statistics statistics = PCB.getStatistics().copy();
+        long elapsed = now - statistics.changedAt;
+        switch (PCB.getState()) {
+            case RUNNING:
+                statistics.CPUTicks += processor.getTime() - statistics.switchedInAt;
+                break;
+            case READY:
+                statistics.readyWait += elapsed;
+                break;
+            case BLOCKED:
+                statistics.blockedTime += elapsed;
+                break;
+            default:
+                break;
+        }
+        return statistics;
+    }
+
+    /**
+     * Process Event Listener, it's called on the event thread of the kernel
+     */
     public interface Listener {
         void handle(ProcessEventInfo info);
     }
@@ -259,7 +690,8 @@ public class ProcessManager {
                     IDLE_PCB.getImageFile().getPath(),
                     IDLE_PCB.getState(),
                     0,
-                    IDLE_PCB.getContext());
+                    IDLE_PCB.getContext(),
+                    IDLE_PCB.getStatistics());
         }
 
         private final int PID;
@@ -267,18 +699,21 @@ public class ProcessManager {
         private final ProcessState status;
         private final int memorySize;
         private final Context context;
+        private final ProcessControlBlock.Statistics statistics;
 
-        private Snapshot(MemoryManager memoryManager, ProcessControlBlock pcb) {
+        private Snapshot(MemoryManager memoryManager, ProcessControlBlock pcb, ProcessControlBlock.Statistics statistics) {
             this(pcb.getPID(), pcb.getImageFile().getPath(), pcb.getState(),
-                    memoryManager.getSpaceSize(pcb.getStartAddress()), pcb.getContext());
+                    memoryManager.getSpaceSize(pcb.getStartAddress()), pcb.getContext().clone(), statistics);
         }
 
-        private Snapshot(int PID, String path, ProcessState status, int memorySize, Context context) {
+        private Snapshot(int PID, String path, ProcessState status, int memorySize, Context context,
+                         ProcessControlBlock.Statistics statistics) {
             this.PID = PID;
             this.path = path;
             this.status = status;
             this.memorySize = memorySize;
             this.context = context;
+            this.statistics = statistics;
         }
 
         /**
@@ -316,6 +751,13 @@ public class ProcessManager {
             return context.getPC();
         }
 
+        /**
+         * @return Statistics
+         */
+        public ProcessControlBlock.Statistics getStatistics() {
+            return statistics;
+        }
+
     }
 
     /**
@@ -0,0 +1,191 @@
+package emuos.os;
+
+import java.util.AbstractQueue;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A FIFO queue of processes linked through the processes themselves.
+ * <p>
+ * Every process has a pair of links and a reference to the membership of the
+ * queue it's in, so adding, polling and removing any process are O(1) without
+ * allocation. A whole queue is spliced onto another one in O(1), its membership
+ * is forwarded to the other one and it gets a new one, and the processes follow
+ * the forward on their next lookup. A process can only be in one queue at a
+ * time, e.g. a ready queue or the blocked queue. It isn't thread-safe, the
+ * owner must hold its own lock.
+ *
+ * @author Link
+ */
+class ProcessQueue extends AbstractQueue<ProcessControlBlock> {
+    private ProcessControlBlock head;
+    private ProcessControlBlock tail;
+    private Membership membership = new Membership();
+    private int size;
+    private int modCount;
+
+    /**
+     * @param pcb PCB
+     * @return the membership of the queue the process is in, or null if it isn't in a queue
+     */
+    private static Membership resolve(ProcessControlBlock pcb) {
+        Membership membership = pcb.getQueue();
+        if (membership != null && membership.forward != null) {
+            do {
+                membership = membership.forward;
+            } while (membership.forward != null);
+            pcb.setQueue(membership);
+        }
+        return membership;
+    }
+
+    @Override
+    public boolean offer(ProcessControlBlock pcb) {
+        if (resolve(pcb) != null) {
+            throw new IllegalStateException(pcb + " is already in a queue.");
+        }
+        pcb.setQueue(membership);
+        pcb.setQueuePrevious(tail);
+        pcb.setQueueNext(null);
+        if (tail == null) {
+            head = pcb;
+        } else {
+            tail.setQueueNext(pcb);
+        }
+        tail = pcb;
+        ++size;
+        ++modCount;
+        return true;
+    }
+
+    @Override
+    public ProcessControlBlock poll() {
+        ProcessControlBlock pcb = head;
+        if (pcb != null) {
+            unlink(pcb);
+        }
+        return pcb;
+    }
+
+    @Override
+    public ProcessControlBlock peek() {
+        return head;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!contains(o)) {
+            return false;
+        }
+        unlink((ProcessControlBlock) o);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof ProcessControlBlock && resolve((ProcessControlBlock) o) == membership;
+    }
+
+    /**
+     * move all the processes of another queue to the tail of this one in O(1)
+     *
+     * @param other the other queue, it's empty afterwards
+     */
+    void splice(ProcessQueue other) {
+        if (other == this || other.head == null) return;
+        if (tail == null) {
+            head = other.head;
+        } else {
+            tail.setQueueNext(other.head);
+            other.head.setQueuePrevious(tail);
+        }
+        tail = other.tail;
+        size += other.size;
+        ++modCount;
+        other.membership.forward = membership;
+        other.membership = new Membership();
+        other.head = other.tail = null;
+        other.size = 0;
+        ++other.modCount;
+    }
+
+    @Override
+    public void clear() {
+        while (head != null) {
+            unlink(head);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<ProcessControlBlock> iterator() {
+        return new Iterator<ProcessControlBlock>() {
+            private ProcessControlBlock next = head;
+            private ProcessControlBlock last;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public ProcessControlBlock next() {
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = next.getQueueNext();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                unlink(last);
+                last = null;
+                expectedModCount = modCount;
+            }
+        };
+    }
+
+    private void unlink(ProcessControlBlock pcb) {
+        ProcessControlBlock previous = pcb.getQueuePrevious();
+        ProcessControlBlock next = pcb.getQueueNext();
+        if (previous == null) {
+            head = next;
+        } else {
+            previous.setQueueNext(next);
+        }
+        if (next == null) {
+            tail = previous;
+        } else {
+            next.setQueuePrevious(previous);
+        }
+        pcb.setQueue(null);
+        pcb.setQueuePrevious(null);
+        pcb.setQueueNext(null);
+        --size;
+        ++modCount;
+    }
+
+    /**
+     * The identity of a queue in its processes, it's forwarded when the queue is spliced onto another one.
+     */
+    static final class Membership {
+        private Membership forward;
+    }
+}
@@ -0,0 +1,227 @@
+package emuos.os;
+
+import emuos.diskmanager.FilePath;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The PCB table, it grows on demand up to {@link #MAX_CAPACITY} slots.
+ * <p>
+ * A PID is the slot number tagged with the generation of the slot, the
+ * generation is bumped when the slot is freed, so a stale PID of an exited
+ * process isn't found even if its slot has been reused, until the generation
+ * wraps around after {@link #MAX_GENERATION} reuses. The first generation is 0,
+ * so the PIDs start from 1 as before. The free slots are reused in the order
+ * they are freed, which keeps the reuses of a slot apart.
+ * <p>
+ * The lookups, adds and removes are O(1), and the table costs three words per
+ * slot without any boxing. It isn't thread-safe, the owner must hold its own lock.
+ *
+ * @author Link
+ */
+class ProcessTable {
+    static final int SLOT_BITS = 20;
+    static final int MAX_CAPACITY = (1 << SLOT_BITS) - 1;
+    static final int MAX_GENERATION = (1 << (31 - SLOT_BITS)) - 1;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int INITIAL_CAPACITY = 16;
+    private final int maxCapacity;
+    private ProcessControlBlock[] slots;
+    private int[] generations;
+    // a ring of the free slots
+    private int[] freeSlots;
+    private int freeHead;
+    private int freeCount;
+    private int size;
+
+    ProcessTable() {
+        this(MAX_CAPACITY);
+    }
+
+    /**
+     * @param maxCapacity the max count of the PCBs, at most {@link #MAX_CAPACITY}
+     */
+    ProcessTable(int maxCapacity) {
+        if (maxCapacity <= 0 || maxCapacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("maxCapacity must be in [1, " + MAX_CAPACITY + "].");
+        }
+        this.maxCapacity = maxCapacity;
+        clear();
+    }
+
+    /**
+     * @param slot       slot
+     * @param generation generation
+     * @return the PID
+     */
+    static int toPID(int slot, int generation) {
+        return (generation << SLOT_BITS) | (slot + 1);
+    }
+
+    /**
+     * @param PID PID
+     * @return the slot of the PID
+     */
+    static int toSlot(int PID) {
+        return (PID & SLOT_MASK) - 1;
+    }
+
+    /**
+     * create a PCB in a free slot
+     *
+     * @param startAddress startAddress
+     * @param imageFile    imageFile
+     * @return the PCB, or null if the table is full
+     */
+    ProcessControlBlock add(int startAddress, FilePath imageFile) {
+        if (freeCount == 0 && !grow()) {
+            return null;
+        }
+        int slot = freeSlots[freeHead];
+        freeHead = (freeHead + 1) % freeSlots.length;
+        --freeCount;
+        ProcessControlBlock pcb = new ProcessControlBlock(toPID(slot, generations[slot]), startAddress, imageFile);
+        slots[slot] = pcb;
+        ++size;
+        return pcb;
+    }
+
+    /**
+     * @param pcb PCB
+     * @return false if it isn't in the table
+     */
+    boolean remove(ProcessControlBlock pcb) {
+        int slot = toSlot(pcb.getPID());
+        if (slot < 0 || slot >= slots.length || slots[slot] != pcb) {
+            return false;
+        }
+        slots[slot] = null;
+        generations[slot] = (generations[slot] + 1) & MAX_GENERATION;
+        freeSlots[(freeHead + freeCount) % freeSlots.length] = slot;
+        ++freeCount;
+        --size;
+        return true;
+    }
+
+    /**
+     * @param PID PID
+     * @return the PCB, or null if there isn't or the PID is stale
+     */
+    ProcessControlBlock get(int PID) {
+        if (PID <= 0) return null;
+        int slot = toSlot(PID);
+        if (slot < 0 || slot >= slots.length) return null;
+        ProcessControlBlock pcb = slots[slot];
+        return pcb != null && pcb.getPID() == PID ? pcb : null;
+    }
+
+    /**
+     * @return the count of the PCBs
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the count of the slots
+     */
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return the PCBs in the order of the slots
+     */
+    List<ProcessControlBlock> getPCBs() {
+        List<ProcessControlBlock> pcbs = new ArrayList<>(size);
+        for (ProcessControlBlock pcb : slots) {
+            if (pcb != null) pcbs.add(pcb);
+        }
+        return pcbs;
+    }
+
+    void clear() {
+        int capacity = Math.min(INITIAL_CAPACITY, maxCapacity);
+        slots = new ProcessControlBlock[capacity];
+        generations = new int[capacity];
+        freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            freeSlots[i] = i;
+        }
+        freeHead = 0;
+        freeCount = capacity;
+        size = 0;
+    }
+
+    /**
+     * save the generations of the slots, the PCBs are saved by the owner
+     *
+     * @param out output
+     * @throws IOException IOException
+     */
+    void save(DataOutputStream out) throws IOException {
+        out.writeInt(slots.length);
+        for (int generation : generations) {
+            out.writeInt(generation);
+        }
+    }
+
+    /**
+     * load the generations of the slots and put the PCBs back into their slots
+     *
+     * @param in   checkpoint buffer
+     * @param pcbs the PCBs loaded by the owner
+     * @throws IOException if the checkpoint doesn't fit
+     */
+    void load(ByteBuffer in, List<ProcessControlBlock> pcbs) throws IOException {
+        int capacity = in.getInt();
+        if (capacity <= 0 || capacity > maxCapacity) {
+            throw new IOException("Illegal capacity of the PCB table: " + capacity);
+        }
+        slots = new ProcessControlBlock[capacity];
+        generations = new int[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            generations[i] = in.getInt();
+        }
+        for (ProcessControlBlock pcb : pcbs) {
+            int slot = toSlot(pcb.getPID());
+            if (slot < 0 || slot >= capacity || slots[slot] != null
+                    || pcb.getPID() != toPID(slot, generations[slot])) {
+                throw new IOException("Illegal PID: " + pcb.getPID());
+            }
+            slots[slot] = pcb;
+        }
+        size = pcbs.size();
+        freeSlots = new int[capacity];
+        freeHead = 0;
+        freeCount = 0;
+        for (int i = 0; i < capacity; ++i) {
+            if (slots[i] == null) {
+                freeSlots[freeCount++] = i;
+            }
+        }
+    }
+
+    private boolean grow() {
+        int capacity = slots.length;
+        if (capacity >= maxCapacity) {
+            return false;
+        }
+        int newCapacity = (int) Math.min((long) capacity * 2, maxCapacity);
+        slots = Arrays.copyOf(slots, newCapacity);
+        generations = Arrays.copyOf(generations, newCapacity);
+        // the ring is empty, so the new slots simply fill it from the start
+        freeSlots = new int[newCapacity];
+        freeHead = 0;
+        freeCount = newCapacity - capacity;
+        for (int i = 0; i < freeCount; ++i) {
+            freeSlots[i] = capacity + i;
+        }
+        return true;
+    }
+}
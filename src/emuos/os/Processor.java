@@ -0,0 +1,547 @@
+package emuos.os;
+
+import emuos.compiler.Instruction;
+import emuos.os.Kernel.Context;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.locks.LockSupport;
+
+import static emuos.compiler.Instruction.*;
+
+/**
+ * A virtual CPU of the kernel.
+ * Every processor has its own context, time slice and running process,
+ * and runs on its own host thread, or on the thread of the simulation engine
+ * in the simulated mode.
+ *
+ * @author Link
+ */
+public class Processor {
+    private final int ID;
+    private final Kernel kernel;
+    private final ProcessManager processManager;
+    private final MemoryManager memoryManager;
+    private final DeviceManager deviceManager;
+    private final Tracer tracer;
+    private final Context context = new Context();
+    private final BlockingQueue<Runnable> runnableQueue = new LinkedBlockingDeque<>();
+    private volatile ProcessControlBlock runningProcess;
+    // written by the processor only, and read by the kernel on other threads
+    private volatile long time;
+    private volatile long executionTime;
+    private volatile long instructionCount;
+    private int timeSlice = 1;
+    private Timer timer;
+    private Thread thread;
+    private volatile Runnable simulatedTick;
+    // the time of the next tick on the virtual clock in the simulated mode
+    private long nextTickAt;
+    // the sequence of the pending tick in the simulated mode, -1 if idle
+    private long tickSequence = -1;
+    // true if the processor stopped ticking because there is nothing to do
+    private volatile boolean idle;
+    // the running process to preempt at the next tick, see preempt
+    private volatile ProcessControlBlock preempted;
+
+    Processor(int ID, Kernel kernel) {
+        this.ID = ID;
+        this.kernel = kernel;
+        this.processManager = kernel.getProcessManager();
+        this.memoryManager = kernel.getMemoryManager();
+        this.deviceManager = kernel.getDeviceManager();
+        this.tracer = kernel.getTracer();
+    }
+
+    /**
+     * @return the ID of the processor
+     */
+    public int getID() {
+        return ID;
+    }
+
+    /**
+     * @return the context
+     */
+    Context getContext() {
+        return context;
+    }
+
+    /**
+     * set the context
+     *
+     * @param context context
+     */
+    void setContext(Context context) {
+        this.context.setAX(context.getAX());
+        this.context.setPC(context.getPC());
+        this.context.setIR(context.getIR());
+        this.context.setFLAGS(context.getFLAGS());
+    }
+
+    /**
+     * @return current context
+     */
+    public Context snapContext() {
+        return context.clone();
+    }
+
+    /**
+     * @return the running process
+     */
+    public ProcessControlBlock getRunningProcess() {
+        return runningProcess;
+    }
+
+    void setRunningProcess(ProcessControlBlock runningProcess) {
+        this.runningProcess = runningProcess;
+    }
+
+    /**
+     * @return the current time, including the ticks skipped while idle in the simulated mode
+     */
+    public long getTime() {
+        if (idle && simulatedTick != null) {
+            long now = kernel.getSimulationEngine().now();
+            if (nextTickAt <= now) {
+                return time + (now - nextTickAt) / Kernel.CPU_PERIOD_MS + 1;
+            }
+        }
+        return time;
+    }
+
+    /**
+     * @return execution time
+     */
+    public long getExecutionTime() {
+        return executionTime;
+    }
+
+    /**
+     * @return the count of executed instructions
+     */
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * @return the current time slice
+     */
+    public int getTimeSlice() {
+        return timeSlice;
+    }
+
+    void resetTimeSlice(int timeSlice) {
+        this.timeSlice = timeSlice;
+    }
+
+    /**
+     * Preempt the running process at the next tick as if its time slice had
+     * run out, if it's still running then. It may be called on any thread.
+     *
+     * @param pcb the running process
+     */
+    void preempt(ProcessControlBlock pcb) {
+        preempted = pcb;
+    }
+
+    void save(DataOutputStream out) throws IOException {
+        out.writeLong(time);
+        out.writeLong(executionTime);
+        out.writeLong(instructionCount);
+        out.writeInt(timeSlice);
+        out.writeLong(nextTickAt);
+        out.writeLong(tickSequence);
+        context.save(out);
+        ProcessControlBlock pcb = runningProcess;
+        out.writeInt(pcb == null ? 0 : pcb.getPID());
+    }
+
+    void load(ByteBuffer in, Map<Integer, ProcessControlBlock> pcbs) throws IOException {
+        time = in.getLong();
+        executionTime = in.getLong();
+        instructionCount = in.getLong();
+        timeSlice = in.getInt();
+        nextTickAt = in.getLong();
+        tickSequence = in.getLong();
+        context.load(in);
+        int PID = in.getInt();
+        runningProcess = PID == 0 ? null : Checkpoint.getPCB(pcbs, PID);
+    }
+
+    /**
+     * Run a runnable object in the thread of this processor
+     *
+     * @param runnable runnable task
+     */
+    void runLater(Runnable runnable) {
+        runnableQueue.add(runnable);
+        wake();
+    }
+
+    /**
+     * start the processor
+     *
+     * @param executionMode execution mode
+     */
+    void start(Kernel.ExecutionMode executionMode) {
+        idle = false;
+        if (executionMode == Kernel.ExecutionMode.TURBO) {
+            thread = new Thread(this::runTurbo, "Thread-Kernel-CPU" + ID);
+            thread.setDaemon(true);
+            thread.start();
+        } else if (executionMode == Kernel.ExecutionMode.SIMULATED) {
+            SimulationEngine engine = kernel.getSimulationEngine();
+            simulatedTick = new Runnable() {
+                @Override
+                public void run() {
+                    if (simulatedTick != this) return;
+                    long startTime = time;
+                    tick();
+                    // a compiled block takes a period per instruction as well
+                    nextTickAt = engine.now() + (time - startTime) * Kernel.CPU_PERIOD_MS;
+                    if (!enterIdle()) {
+                        tickSequence = engine.scheduleAt(nextTickAt, this).getSequence();
+                    }
+                }
+            };
+            if (tickSequence >= 0) {
+                // resume the pending tick in its place
+                engine.scheduleAt(nextTickAt, tickSequence, simulatedTick);
+            } else {
+                // resume on the period grid, and count the ticks since the processor stopped
+                idle = true;
+                wake();
+            }
+        } else {
+            timer = new Timer("Timer-Kernel-CPU" + ID, true);
+            timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    tick();
+                }
+            }, 0, Kernel.CPU_PERIOD_MS);
+        }
+    }
+
+    /**
+     * stop the processor
+     */
+    void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer.purge();
+            timer = null;
+        }
+        Thread turboThread = thread;
+        thread = null;
+        simulatedTick = null;
+        if (turboThread != null) {
+            LockSupport.unpark(turboThread);
+            if (turboThread != Thread.currentThread()) {
+                try {
+                    turboThread.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop ticking if there is nothing to do: no running process,
+     * no ready process, no pending interrupt and no pending runnable.
+     * It's only used in the turbo and the simulated mode.
+     *
+     * @return true if the processor is idle
+     */
+    private synchronized boolean enterIdle() {
+        if (runningProcess != null || context.getPSW() != 0
+                || !runnableQueue.isEmpty() || processManager.hasReadyProcess()) {
+            return false;
+        }
+        idle = true;
+        tickSequence = -1;
+        return true;
+    }
+
+    /**
+     * Resume ticking if the processor is idle. In the simulated mode the ticks
+     * skipped while idle are added to the time, as if the processor had ticked
+     * on every period, and the next tick is aligned to the same periods.
+     *
+     * @return true if the processor was idle
+     */
+    synchronized boolean wake() {
+        if (!idle) return false;
+        idle = false;
+        Runnable tick = simulatedTick;
+        if (tick != null) {
+            SimulationEngine engine = kernel.getSimulationEngine();
+            long now = engine.now();
+            if (nextTickAt < now) {
+                long skippedTicks = (now - nextTickAt + Kernel.CPU_PERIOD_MS - 1) / Kernel.CPU_PERIOD_MS;
+                time += skippedTicks;
+                nextTickAt += skippedTicks * Kernel.CPU_PERIOD_MS;
+            }
+            tickSequence = engine.scheduleAt(nextTickAt, tick).getSequence();
+        }
+        Thread turboThread = thread;
+        if (turboThread != null) {
+            LockSupport.unpark(turboThread);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the processor is idle
+     */
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * one clock cycle of the processor
+     */
+    private void tick() {
+        kernel.setCurrentProcessor(this);
+        if (runningProcess == null) {
+            processManager.schedule(this);
+        }
+        trace(Tracer.Type.TICK);
+        kernel.notifyBeginOperation();
+        CPU();
+        Runnable runnable;
+        while ((runnable = runnableQueue.poll()) != null) {
+            runnable.run();
+        }
+    }
+
+    /**
+     * The loop of the turbo mode, it calls {@link #tick()} back to back,
+     * or paces the ticks to the target rate of the kernel if it's set.
+     */
+    private void runTurbo() {
+        long rate = 0;
+        long pacingStart = 0;
+        long pacedTicks = 0;
+        while (kernel.isRunning() && thread == Thread.currentThread()) {
+            tick();
+            if (enterIdle()) {
+                // the time doesn't go on while parked
+                while (idle && kernel.isRunning() && thread == Thread.currentThread()) {
+                    LockSupport.park(this);
+                }
+                rate = 0;
+            }
+            if (kernel.getTargetRate() != rate) {
+                rate = kernel.getTargetRate();
+                pacingStart = System.nanoTime();
+                pacedTicks = 0;
+            }
+            if (rate > 0) {
+                long delay = pacingStart + ++pacedTicks * 1_000_000_000L / rate - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                } else if (delay < -1_000_000_000L) {
+                    // too far behind (e.g. a long GC pause), don't try to catch up
+                    pacingStart = System.nanoTime();
+                    pacedTicks = 0;
+                }
+            }
+        }
+    }
+
+    private void CPU() {
+        time++;
+        ProcessControlBlock preempted = this.preempted;
+        if (preempted != null) {
+            this.preempted = null;
+            if (preempted == runningProcess) {
+                context.setIntTimeSlice();
+            }
+        }
+        if (context.isIntEnd()) {
+            interruptEnd();
+            context.clearIntEnd();
+        }
+        if (context.isIntTimeSlice()) {
+            interruptTime();
+            context.clearTimeSlice();
+        }
+        if (context.isIntIO()) {
+            interruptIO();
+            context.clearIntIO();
+        }
+
+        ProcessControlBlock pcb = runningProcess;
+        if (pcb != null) {
+            int count = fetchAndExecute(pcb.getDecodedImage());
+            // a compiled block takes a tick per instruction as well
+            time += count - 1;
+            instructionCount += count;
+            processManager.tick(pcb, count);
+            timeSlice -= count;
+            if (timeSlice <= 0) {
+                context.setIntTimeSlice();
+            }
+        }
+    }
+
+    /**
+     * Run the compiled block at the PC if it's hot, otherwise fetch the next
+     * instruction from the pre-decoded image if it's possible, or decode it
+     * from the user space byte by byte, then execute it.
+     *
+     * @param image the pre-decoded image of the running process
+     * @return the count of executed instructions
+     */
+    private int fetchAndExecute(DecodedImage image) {
+        int PC = context.getPC();
+        DecodedImage.Code code = image == null ? null : image.get();
+        if (code != null && code.contains(PC)) {
+            int jitThreshold = kernel.getJitThreshold();
+            if (jitThreshold > 0 && kernel.getExecutionMode() != Kernel.ExecutionMode.CLOCKED) {
+                BlockCompiler compiler = kernel.getBlockCompiler();
+                BlockCompiler.Block block = code.getBlock(PC, getMaxBlockLength(), compiler);
+                if (block != null) {
+                    BlockCompiler.CompiledBlock compiledBlock = compiler.enter(block, jitThreshold);
+                    if (compiledBlock != null) {
+                        long result = compiledBlock.execute(context.getAX());
+                        context.setAX((int) result);
+                        context.setFLAGS(context.getFLAGS() | (int) (result >>> 32));
+                        context.setIR(block.getLastOpcode());
+                        context.setPC(PC + block.getSize());
+                        executionTime += block.getLength();
+                        return block.getLength();
+                    }
+                }
+            }
+            int opcode = code.getOpcode(PC);
+            context.setIR(opcode);
+            context.setPC(code.getNextPC(PC));
+            execute(opcode, code.getOperand0(PC), code.getOperand1(PC));
+        } else {
+            int opcode = nextByte();
+            context.setIR(opcode);
+            int length = Instruction.getLength(opcode);
+            int operand0 = length > 1 ? nextByte() : 0;
+            int operand1 = length > 2 ? nextByte() : 0;
+            execute(opcode, operand0, operand1);
+        }
+        return 1;
+    }
+
+    /**
+     * A compiled block mustn't run past anything which would interrupt the
+     * interpreter between its instructions, or the timeline would depend on the
+     * JIT: a pending runnable, e.g. an IO interrupt, or a pending preemption
+     * takes effect at the next tick, and in the simulated mode the next event,
+     * e.g. a device finishing, sees the instructions before its time done.
+     *
+     * @return the max count of instructions a compiled block may run in this tick
+     */
+    private int getMaxBlockLength() {
+        if (!runnableQueue.isEmpty() || preempted != null) return 1;
+        if (kernel.getExecutionMode() != Kernel.ExecutionMode.SIMULATED) return timeSlice;
+        SimulationEngine engine = kernel.getSimulationEngine();
+        long nextEventTime = engine.getNextEventTime();
+        if (nextEventTime < 0) return timeSlice;
+        // the instructions run a period apart from now on, and the event runs before a tick at its time
+        long ticks = (nextEventTime - engine.now() + Kernel.CPU_PERIOD_MS - 1) / Kernel.CPU_PERIOD_MS;
+        return (int) Math.min(timeSlice, ticks);
+    }
+
+    private byte nextByte() {
+        int PC = context.getPC();
+        context.setPC(PC + 1);
+        return memoryManager.read(PC);
+    }
+
+    private void execute(int opcode, int operand0, int operand1) {
+        switch (opcode) {
+            case OPCODE_END: {
+                context.setIntEnd();
+            }
+            break;
+            case OPCODE_ASSIGNMENT: {
+                context.setAX(operand0);
+                if (context.getAX() == 0) {
+                    context.setFlag(Context.PSW_ZF);
+                }
+                if (context.getAX() < 0) {
+                    context.setFlag(Context.PSW_SF);
+                }
+            }
+            break;
+            case OPCODE_INCREASE: {
+                context.setAX((context.getAX() + 1) % 0xff);
+                if (context.getAX() == 0) {
+                    context.setFlag(Context.PSW_ZF);
+                }
+            }
+            break;
+            case OPCODE_DECREASE:
+                context.setAX((context.getAX() - 1) % 0xff);
+                if (context.getAX() == 0) {
+                    context.setFlag(Context.PSW_ZF);
+                }
+                break;
+            case OPCODE_IO: {
+                ProcessControlBlock process = runningProcess;
+                tracer.record(ID, Tracer.Type.IO_REQUEST, time, process.getPID(), context.getPC(), operand0);
+                DeviceManager.RequestInfo requestInfo = new DeviceManager.RequestInfo(
+                        process, operand0, operand1);
+                deviceManager.alloc(requestInfo);
+                processManager.block(process);
+            }
+            break;
+            case OPCODE_FORK: {
+                ProcessControlBlock process = runningProcess;
+                tracer.record(ID, Tracer.Type.FORK, time, process.getPID(), context.getPC(), context.getAX());
+                ProcessControlBlock child = processManager.fork(process, context);
+                // the parent gets the PID of the child, and the child gets 0
+                context.setAX(child == null ? -1 : child.getPID());
+            }
+            break;
+            default:
+                break;
+        }
+        if (opcode != OPCODE_IO) ++executionTime;
+    }
+
+    private void trace(Tracer.Type type) {
+        ProcessControlBlock pcb = runningProcess;
+        tracer.record(ID, type, time, pcb == null ? 0 : pcb.getPID(), context.getPC(), context.getAX());
+    }
+
+    private void interruptEnd() {
+        ProcessControlBlock pcb = runningProcess;
+        trace(Tracer.Type.INT_END);
+        pcb.saveContext(context);
+        kernel.notifyIntExit();
+        processManager.destroy(pcb);
+    }
+
+    private void interruptTime() {
+        trace(Tracer.Type.INT_TIME_SLICE);
+        kernel.notifyIntTimeSlice();
+        processManager.schedule(this);
+    }
+
+    private void interruptIO() {
+        trace(Tracer.Type.INT_IO);
+        kernel.notifyIntIO();
+        BlockingQueue<ProcessControlBlock> queue = deviceManager.getFinishedQueue();
+        ProcessControlBlock pcb;
+        while ((pcb = queue.poll()) != null) {
+            processManager.awake(pcb);
+        }
+    }
+}
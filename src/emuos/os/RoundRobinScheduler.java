@@ -0,0 +1,58 @@
+package emuos.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The round robin scheduler, every process runs for {@link Kernel#INIT_TIME_SLICE}
+ * in the order it became ready.
+ *
+ * @author Link
+ */
+class RoundRobinScheduler implements Scheduler {
+    private final ProcessQueue readyQueue = new ProcessQueue();
+
+    @Override
+    public void enqueue(ProcessControlBlock pcb) {
+        readyQueue.add(pcb);
+    }
+
+    @Override
+    public ProcessControlBlock pickNext() {
+        return readyQueue.poll();
+    }
+
+    @Override
+    public void block(ProcessControlBlock pcb) {
+        readyQueue.remove(pcb);
+    }
+
+    @Override
+    public void wake(ProcessControlBlock pcb) {
+        readyQueue.add(pcb);
+    }
+
+    @Override
+    public void tick(ProcessControlBlock pcb, int count) {
+    }
+
+    @Override
+    public boolean remove(ProcessControlBlock pcb) {
+        return readyQueue.remove(pcb);
+    }
+
+    @Override
+    public int getTimeSlice(ProcessControlBlock pcb) {
+        return Kernel.INIT_TIME_SLICE;
+    }
+
+    @Override
+    public int size() {
+        return readyQueue.size();
+    }
+
+    @Override
+    public List<ProcessControlBlock> getReadyProcesses() {
+        return new ArrayList<>(readyQueue);
+    }
+}
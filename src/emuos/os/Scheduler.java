@@ -0,0 +1,115 @@
+package emuos.os;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The scheduling policy of the ready processes.
+ * <p>
+ * {@link ProcessManager} owns the states of the processes and calls the hooks
+ * of the scheduler under its lock, except {@link #tick(ProcessControlBlock, int)},
+ * which is called on the processor of the running process. A built-in scheduler
+ * keeps its per-process state in the scheduling fields of {@link ProcessControlBlock},
+ * so they are saved with the process in a checkpoint.
+ * <p>
+ * A custom scheduler is passed to
+ * {@link Kernel#Kernel(Kernel.ExecutionMode, int, int, emuos.diskmanager.FileSystem, Scheduler)},
+ * it keeps its own per-process state, so the kernel can't be saved to a checkpoint.
+ * The real-time processes are scheduled before it in either case.
+ *
+ * @author Link
+ */
+public interface Scheduler {
+
+    /**
+     * A process becomes ready: it's created, or preempted at the end of its time slice.
+     *
+     * @param pcb PCB
+     */
+    void enqueue(ProcessControlBlock pcb);
+
+    /**
+     * remove the next ready process to run
+     *
+     * @return the next process, or null if there isn't any ready process
+     */
+    ProcessControlBlock pickNext();
+
+    /**
+     * The running or a ready process blocks for an IO request.
+     *
+     * @param pcb PCB
+     */
+    void block(ProcessControlBlock pcb);
+
+    /**
+     * A blocked process becomes ready.
+     *
+     * @param pcb PCB
+     */
+    void wake(ProcessControlBlock pcb);
+
+    /**
+     * The running process has executed some instructions.
+     * It's called on the processor of the process, so it must only touch the process.
+     *
+     * @param pcb   the running process
+     * @param count the count of executed instructions
+     */
+    void tick(ProcessControlBlock pcb, int count);
+
+    /**
+     * A process is destroyed.
+     *
+     * @param pcb PCB
+     * @return true if it was ready
+     */
+    boolean remove(ProcessControlBlock pcb);
+
+    /**
+     * @param pcb the process to be switched in
+     * @return the time slice of the process in instructions
+     */
+    int getTimeSlice(ProcessControlBlock pcb);
+
+    /**
+     * @return the count of the ready processes
+     */
+    int size();
+
+    /**
+     * @return the ready processes in the order they would be picked
+     */
+    List<ProcessControlBlock> getReadyProcesses();
+
+    /**
+     * Write the per-process state the scheduler updates lazily back into the
+     * scheduling fields of the ready processes. It's called before the
+     * processes are saved in a checkpoint.
+     */
+    default void settle() {
+    }
+
+    /**
+     * The built-in policies.
+     */
+    enum Policy {
+        ROUND_ROBIN(RoundRobinScheduler::new),
+        ADAPTIVE_ROUND_ROBIN(AdaptiveRoundRobinScheduler::new),
+        MULTILEVEL_FEEDBACK(MultilevelFeedbackScheduler::new),
+        COMPLETELY_FAIR(CompletelyFairScheduler::new);
+
+        private final Supplier<Scheduler> factory;
+
+        Policy(Supplier<Scheduler> factory) {
+            this.factory = factory;
+        }
+
+        /**
+         * @return a new scheduler of the policy
+         */
+        public Scheduler create() {
+            return factory.get();
+        }
+    }
+}
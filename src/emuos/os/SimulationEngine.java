@@ -0,0 +1,253 @@
+package emuos.os;
+
+import java.util.PriorityQueue;
+
+/**
+ * The discrete-event engine of the simulated mode.
+ * <p>
+ * The events are kept in a priority queue ordered by their time on the
+ * virtual clock, the events at the same time run in the order they were
+ * scheduled. The engine runs the events one by one on its own thread,
+ * and moves the clock to the time of each event, so the relative timing
+ * of the processors and the devices is exact, and the whole run is
+ * as fast as the host allows.
+ *
+ * @author Link
+ */
+public class SimulationEngine {
+    private final PriorityQueue<Event> queue = new PriorityQueue<>();
+    // the current time in virtual milliseconds
+    private volatile long now;
+    private long nextSequence;
+    private long eventCount;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @return the current time in virtual milliseconds
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * @return the count of the events which have run
+     */
+    public synchronized long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * schedule an event after a delay
+     *
+     * @param delay  the delay in virtual milliseconds
+     * @param action the action of the event
+     * @return the event
+     */
+    public Event schedule(long delay, Runnable action) {
+        return scheduleAt(now + Math.max(0, delay), action);
+    }
+
+    /**
+     * schedule an event at a time
+     *
+     * @param time   the time in virtual milliseconds, the past time is treated as now
+     * @param action the action of the event
+     * @return the event
+     */
+    public synchronized Event scheduleAt(long time, Runnable action) {
+        return scheduleAt(time, nextSequence++, action);
+    }
+
+    /**
+     * Schedule an event with the sequence of an earlier event, so it keeps
+     * its order among the events at the same time, e.g. after a restore.
+     *
+     * @param time     the time in virtual milliseconds, the past time is treated as now
+     * @param sequence the sequence of the earlier event
+     * @param action   the action of the event
+     * @return the event
+     */
+    synchronized Event scheduleAt(long time, long sequence, Runnable action) {
+        Event event = new Event(Math.max(time, now), sequence, action);
+        queue.add(event);
+        if (queue.peek() == event) {
+            notifyAll();
+        }
+        return event;
+    }
+
+    /**
+     * cancel an event, it's ignored if the event has run
+     *
+     * @param event event
+     * @return true if the event was pending
+     */
+    public synchronized boolean cancel(Event event) {
+        return queue.remove(event);
+    }
+
+    /**
+     * @return the time of the next pending event in virtual milliseconds, or -1 if there isn't any
+     */
+    synchronized long getNextEventTime() {
+        Event event = queue.peek();
+        return event == null ? -1 : event.time;
+    }
+
+    /**
+     * @return true if there isn't any pending event
+     */
+    public synchronized boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Run the next event in the current thread.
+     *
+     * @return false if there isn't any pending event
+     */
+    public boolean step() {
+        Event event;
+        synchronized (this) {
+            event = queue.poll();
+            if (event == null) {
+                return false;
+            }
+            now = event.time;
+            ++eventCount;
+        }
+        event.action.run();
+        return true;
+    }
+
+    /**
+     * Run the events in the current thread until there isn't any event before the time,
+     * then move the clock to the time.
+     *
+     * @param time the time in virtual milliseconds
+     */
+    public void runUntil(long time) {
+        while (true) {
+            synchronized (this) {
+                Event event = queue.peek();
+                if (event == null || event.time > time) {
+                    now = Math.max(now, time);
+                    return;
+                }
+            }
+            step();
+        }
+    }
+
+    /**
+     * start running the events on the engine thread
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::run, "Thread-Kernel-Simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * stop the engine thread, the pending events are kept
+     */
+    public void stop() {
+        Thread engineThread;
+        synchronized (this) {
+            running = false;
+            engineThread = thread;
+            thread = null;
+            notifyAll();
+        }
+        if (engineThread != null && engineThread != Thread.currentThread()) {
+            try {
+                engineThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the sequence of the next scheduled event
+     */
+    synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * move the clock to a time, e.g. the time of a checkpoint
+     *
+     * @param now          the time in virtual milliseconds
+     * @param nextSequence the sequence of the next scheduled event
+     */
+    synchronized void reset(long now, long nextSequence) {
+        this.now = now;
+        this.nextSequence = nextSequence;
+    }
+
+    /**
+     * @return true if the engine thread is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void run() {
+        while (running) {
+            synchronized (this) {
+                while (running && queue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+            }
+            step();
+        }
+    }
+
+    /**
+     * An event on the virtual clock
+     */
+    public static final class Event implements Comparable<Event> {
+        private final long time;
+        private final long sequence;
+        private final Runnable action;
+
+        private Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        /**
+         * @return the time in virtual milliseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return the order of the event among the events at the same time
+         */
+        long getSequence() {
+            return sequence;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            if (time != o.time) {
+                return time < o.time ? -1 : 1;
+            }
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package emuos.os;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The binary trace of the kernel.
+ * <p>
+ * Every processor writes fixed-size records into its own ring of longs,
+ * so recording an event is a few array stores without locks or allocation.
+ * A drainer thread copies the new records to the trace file if there is one,
+ * and the records still in the rings can be decoded at any time.
+ * When a ring is lapped before it's drained, the overwritten records are counted as lost.
+ * <p>
+ * A record is three longs: the tick, the type and the PID packed into a long,
+ * and PC and AX packed into a long. The trace file is the same records
+ * written with {@link DataOutputStream}, prefixed by the ID of the processor.
+ *
+ * @author Link
+ */
+public class Tracer implements Closeable {
+    public static final int DEFAULT_CAPACITY = 4096;
+    private static final int RECORD_SIZE = 3;
+    private static final long DRAIN_PERIOD_MS = 100;
+    private final Ring[] rings;
+    private final AtomicLong lostCount = new AtomicLong();
+    // bit i is set if the records of the type whose ordinal is i are enabled
+    private volatile int enabledTypes;
+    private DataOutputStream output;
+    private Thread drainer;
+
+    /**
+     * @param processorCount the count of processors
+     * @param capacity       the count of records in the ring of a processor, it's rounded up to a power of two
+     */
+    Tracer(int processorCount, int capacity) {
+        rings = new Ring[processorCount];
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        for (int i = 0; i < processorCount; ++i) {
+            rings[i] = new Ring(size);
+        }
+        for (Type type : Type.values()) {
+            if (type != Type.TICK) enable(type);
+        }
+    }
+
+    /**
+     * decode a trace file
+     *
+     * @param file trace file
+     * @return the decoded records
+     * @throws IOException IOException
+     */
+    public static List<Record> decode(File file) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int processorID;
+                try {
+                    processorID = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                records.add(new Record(processorID, in.readLong(), in.readLong(), in.readLong()));
+            }
+        }
+        return records;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Usage: Tracer [trace file]
+        for (Record record : decode(new File(args.length > 0 ? args[0] : "kernel.trace"))) {
+            System.out.println(record);
+        }
+    }
+
+    /**
+     * enable the records of a type
+     *
+     * @param type record type
+     */
+    public void enable(Type type) {
+        enabledTypes |= 1 << type.ordinal();
+    }
+
+    /**
+     * disable the records of a type
+     *
+     * @param type record type
+     */
+    public void disable(Type type) {
+        enabledTypes &= ~(1 << type.ordinal());
+    }
+
+    /**
+     * @param type record type
+     * @return true if the records of the type are enabled
+     */
+    public boolean isEnabled(Type type) {
+        return (enabledTypes & 1 << type.ordinal()) != 0;
+    }
+
+    /**
+     * Record an event. It must be called on the thread of the processor.
+     *
+     * @param processorID the ID of the processor
+     * @param type        record type
+     * @param tick        the time of the processor
+     * @param PID         PID, 0 if there isn't a process
+     * @param PC          PC
+     * @param AX          AX
+     */
+    void record(int processorID, Type type, long tick, int PID, int PC, int AX) {
+        if ((enabledTypes & 1 << type.ordinal()) == 0) return;
+        Ring ring = rings[processorID];
+        long index = ring.written.get();
+        int offset = (int) (index & ring.mask) * RECORD_SIZE;
+        long[] data = ring.data;
+        data[offset] = tick;
+        data[offset + 1] = (long) type.ordinal() << 32 | PID & 0xffffffffL;
+        data[offset + 2] = (long) PC << 32 | AX & 0xffffffffL;
+        ring.written.lazySet(index + 1);
+    }
+
+    /**
+     * Write the drained records to a file.
+     *
+     * @param file trace file, it's truncated
+     * @throws IOException IOException
+     */
+    public synchronized void setOutput(File file) throws IOException {
+        closeOutput();
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * start the drainer
+     */
+    synchronized void start() {
+        if (drainer != null) return;
+        drainer = new Thread(this::runDrainer, "Thread-Kernel-Trace");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * @return the count of records overwritten before they were drained
+     */
+    public long getLostCount() {
+        return lostCount.get();
+    }
+
+    /**
+     * decode the records in the rings, the oldest first
+     *
+     * @return the records
+     */
+    public List<Record> snapshot() {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < rings.length; ++i) {
+            Ring ring = rings[i];
+            long end = ring.written.get();
+            long begin = Math.max(0, end - ring.size);
+            long[] copy = new long[(int) (end - begin) * RECORD_SIZE];
+            for (long index = begin; index < end; ++index) {
+                System.arraycopy(ring.data, (int) (index & ring.mask) * RECORD_SIZE,
+                        copy, (int) (index - begin) * RECORD_SIZE, RECORD_SIZE);
+            }
+            // skip the records overwritten while copying
+            long valid = Math.max(begin, ring.written.get() - ring.size + 1);
+            for (long index = valid; index < end; ++index) {
+                int offset = (int) (index - begin) * RECORD_SIZE;
+                records.add(new Record(i, copy[offset], copy[offset + 1], copy[offset + 2]));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * drain the new records to the trace file
+     */
+    synchronized void drain() {
+        if (output == null) return;
+        try {
+            for (int i = 0; i < rings.length; ++i) {
+                Ring ring = rings[i];
+                long end = ring.written.get();
+                long begin = Math.max(ring.drained, end - ring.size);
+                lostCount.addAndGet(begin - ring.drained);
+                for (long index = begin; index < end; ++index) {
+                    int offset = (int) (index & ring.mask) * RECORD_SIZE;
+                    long tick = ring.data[offset];
+                    long typeAndPID = ring.data[offset + 1];
+                    long PCAndAX = ring.data[offset + 2];
+                    if (ring.written.get() - ring.size >= index) {
+                        // it's overwritten while reading
+                        lostCount.incrementAndGet();
+                        continue;
+                    }
+                    output.writeInt(i);
+                    output.writeLong(tick);
+                    output.writeLong(typeAndPID);
+                    output.writeLong(PCAndAX);
+                }
+                ring.drained = end;
+            }
+            output.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeOutput();
+        }
+    }
+
+    private void runDrainer() {
+        while (drainer == Thread.currentThread()) {
+            drain();
+            try {
+                TimeUnit.MILLISECONDS.sleep(DRAIN_PERIOD_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void closeOutput() {
+        if (output == null) return;
+        try {
+            output.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        output = null;
+    }
+
+    /**
+     * drain the rest of the records and close the trace file
+     */
+    @Override
+    public synchronized void close() {
+        drain();
+        closeOutput();
+        if (drainer != null) {
+            drainer.interrupt();
+            drainer = null;
+        }
+    }
+
+    /**
+     * Record Type
+     */
+    public enum Type {
+        TICK,
+        IO_REQUEST,
+        INT_END,
+        INT_TIME_SLICE,
+        INT_IO,
+        FORK,
+    }
+
+    /**
+     * A decoded record
+     */
+    public static class Record {
+        private final int processorID;
+        private final long tick;
+        private final Type type;
+        private final int PID;
+        private final int PC;
+        private final int AX;
+
+        Record(int processorID, long tick, long typeAndPID, long PCAndAX) {
+            this.processorID = processorID;
+            this.tick = tick;
+            this.type = Type.values()[(int) (typeAndPID >>> 32)];
+            this.PID = (int) typeAndPID;
+            this.PC = (int) (PCAndAX >>> 32);
+            this.AX = (int) PCAndAX;
+        }
+
+        public int getProcessorID() {
+            return processorID;
+        }
+
+        public long getTick() {
+            return tick;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public int getPID() {
+            return PID;
+        }
+
+        public int getPC() {
+            return PC;
+        }
+
+        public int getAX() {
+            return AX;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[CPU%d %8d] %-14s PID=%d PC=%d AX=%d", processorID, tick, type, PID, PC, AX);
+        }
+    }
+
+    private static final class Ring {
+        final long[] data;
+        final int size;
+        final int mask;
+        // the count of the written records
+        final AtomicLong written = new AtomicLong();
+        // the count of the drained records, it's only used by the drainer
+        long drained;
+
+        Ring(int size) {
+            this.size = size;
+            this.mask = size - 1;
+            this.data = new long[size * RECORD_SIZE];
+        }
+    }
+}
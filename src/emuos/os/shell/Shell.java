@@ -2,12 +2,15 @@ package emuos.os.shell;
 
 import emuos.diskmanager.FilePath;
 import emuos.diskmanager.FileSystem;
+import emuos.os.ExitStatus;
 import emuos.os.Kernel;
 import emuos.os.ProcessControlBlock;
 import emuos.os.ProcessManager;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * @author Link
@@ -15,12 +18,10 @@ import java.util.*;
 public class Shell implements Closeable {
     public final SPrintStream out;
     public final InputStream in;
-    private final Set<ProcessControlBlock> waitingQueue = new HashSet<>();
-    private final Object processWaiter = new Object();
     private final String promptString = "$ ";
     private final CommandHistory commandHistory = new CommandHistory();
     private Map<String, Command> commandMap = new HashMap<>();
-    private FilePath workingDirectory = new FilePath("/");
+    private FilePath workingDirectory;
     private Kernel kernel;
     private Handler exitHandler = Handler.NULL;
     private Handler clearHandler = Handler.NULL;
@@ -30,20 +31,10 @@ public class Shell implements Closeable {
     private State state = State.STOPPED;
     private Timer timer = new Timer("Timer-Shell", true);
     private TimerTask spawnTimerTask;
-    private Kernel.Listener intExitListener = c -> {
-        final ProcessControlBlock pcb = c.getProcessManager().getRunningProcess();
-        synchronized (waitingQueue) {
-            if (waitingQueue.remove(pcb)) {
-                synchronized (processWaiter) {
-                    processWaiter.notify();
-                }
-            }
-        }
-    };
 
     public Shell(Kernel kernel, InputStream in, OutputStream out) {
         this.kernel = kernel;
-        kernel.addIntExitListener(intExitListener);
+        workingDirectory = new FilePath(kernel.getFileSystem(), "/");
         this.in = in;
         this.out = new SPrintStream(out);
         loadCommandMap(this);
@@ -159,7 +150,7 @@ public class Shell implements Closeable {
     // Helper methods
     public FilePath getFilePath(String path) {
         if (path.startsWith("/")) {
-            return new FilePath(path);
+            return new FilePath(kernel.getFileSystem(), path);
         } else if (path.startsWith("./")) {
             return path.length() > 2 ? new FilePath(workingDirectory, path.substring(2)) : workingDirectory;
         } else {
@@ -279,7 +270,7 @@ public class Shell implements Closeable {
                 FilePath source = getFilePath(files[0]);
                 FilePath destination = getFilePath(files[1]);
                 try {
-                    FileSystem.getFileSystem().copy(source, destination);
+                    kernel.getFileSystem().copy(source, destination);
                 } catch (IOException e) {
                     print(e.getMessage());
                     e.printStackTrace();
@@ -389,7 +380,7 @@ public class Shell implements Closeable {
                 FilePath source = getFilePath(files[0]);
                 FilePath destination = getFilePath(files[1]);
                 try {
-                    FileSystem.getFileSystem().move(source, destination);
+                    kernel.getFileSystem().move(source, destination);
                 } catch (IOException e) {
                     print(e.getMessage());
                     e.printStackTrace();
@@ -441,7 +432,7 @@ public class Shell implements Closeable {
         registerCommandHandler(new Command("format") {
             @Override
             public void execute(String args) {
-                FileSystem.getFileSystem().init();
+                kernel.getFileSystem().init();
                 print("Finished!");
             }
         });
@@ -455,35 +446,35 @@ public class Shell implements Closeable {
                 }
                 FilePath file = getFilePath(args);
                 try {
-                    ProcessControlBlock pcb = kernel.getProcessManager().create(file);
+                    ProcessManager processManager = kernel.getProcessManager();
+                    ProcessControlBlock pcb = processManager.create(file);
                     if (pcb == null) {
                         print("Failed to create the process!");
                         return;
                     }
-                    synchronized (waitingQueue) {
-                        waitingQueue.add(pcb);
-                    }
                     state = State.WAITING;
                     waitProcessHandler.handle();
-                    synchronized (processWaiter) {
-                        try {
-                            processWaiter.wait();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
+                    ExitStatus exitStatus;
+                    try {
+                        exitStatus = processManager.onExit(pcb).get();
+                    } finally {
+                        wakeProcessHandler.handle();
+                        state = State.RUNNING;
                     }
-                    wakeProcessHandler.handle();
-                    state = State.RUNNING;
-                    int exitCode = pcb.getContext().getAX();
+                    int exitCode = exitStatus.getExitCode();
                     if (exitCode != 0) {
                         print("Process ("
                                 + "PID: "
-                                + pcb.getPID()
+                                + exitStatus.getPID()
                                 + ", Path: "
-                                + pcb.getImageFile().getPath()
+                                + exitStatus.getImageFile().getPath()
                                 + ") exited with code: "
                                 + exitCode);
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
                 } catch (IOException | ProcessManager.ProcessException e) {
                     print(e.getMessage());
                     e.printStackTrace();
@@ -511,6 +502,39 @@ public class Shell implements Closeable {
             }
         });
 
+        registerCommandHandler(new Command("stat") {
+            @Override
+            public void execute(String args) {
+                if (args.equals("reset")) {
+                    kernel.getMetrics().reset();
+                    print("Reset!");
+                    return;
+                }
+                if (!args.isEmpty()) {
+                    print("Usage: stat [reset]");
+                    return;
+                }
+                print(kernel.getMetrics().toString());
+                print(String.format("\n%-8s%-10s%-8s%-8s%-10s%s\n",
+                        "PID",
+                        "STATUS",
+                        "CPU",
+                        "READY",
+                        "BLOCKED",
+                        "SWITCHES"));
+                kernel.getProcessManager().snap().stream()
+                        .filter(snapshot -> snapshot.getPID() != 0)
+                        .forEach(snapshot -> print(String.format(
+                                "%-8d%-10s%-8d%-8d%-10d%d\n",
+                                snapshot.getPID(),
+                                snapshot.getStatus(),
+                                snapshot.getStatistics().getCPUTicks(),
+                                snapshot.getStatistics().getReadyWait(),
+                                snapshot.getStatistics().getBlockedTime(),
+                                snapshot.getStatistics().getContextSwitches())));
+            }
+        });
+
         registerCommandHandler(new Command("kill") {
             @Override
             public void execute(String args) {
@@ -533,6 +557,33 @@ public class Shell implements Closeable {
             }
         });
 
+        registerCommandHandler(new Command("nice") {
+            @Override
+            public void execute(String args) {
+                String[] argv = args.split("\\s+");
+                if (argv.length != 2) {
+                    print("Usage: nice [PID] [nice value]");
+                    return;
+                }
+                int PID, nice;
+                try {
+                    PID = Integer.parseInt(argv[0]);
+                    nice = Integer.parseInt(argv[1]);
+                } catch (NumberFormatException ignored) {
+                    print("nice: arguments must be PID and nice value");
+                    return;
+                }
+                if (nice < ProcessControlBlock.MIN_NICE || nice > ProcessControlBlock.MAX_NICE) {
+                    print("nice: nice value must be in [" + ProcessControlBlock.MIN_NICE
+                            + ", " + ProcessControlBlock.MAX_NICE + "]");
+                    return;
+                }
+                if (!kernel.getProcessManager().setNice(PID, nice)) {
+                    print("nice: no such process " + PID);
+                }
+            }
+        });
+
         registerCommandHandler(new Command("bg") {
             @Override
             public void execute(String args) {
@@ -542,7 +593,12 @@ public class Shell implements Closeable {
                 }
                 FilePath file = getFilePath(args);
                 try {
-                    kernel.getProcessManager().create(file);
+                    ProcessManager processManager = kernel.getProcessManager();
+                    CompletableFuture<ProcessControlBlock> handle = processManager.submit(file);
+                    if (handle != null && !handle.isDone()) {
+                        print("Queued until there is enough memory, "
+                                + processManager.getJobQueue().size() + " job(s) waiting.");
+                    }
                 } catch (IOException | ProcessManager.ProcessException e) {
                     print(e.getMessage());
                     e.printStackTrace();
@@ -628,7 +684,7 @@ public class Shell implements Closeable {
             @Override
             public void execute(String args) {
                 StringBuilder stringBuilder = new StringBuilder();
-                FileSystem fs = FileSystem.getFileSystem();
+                FileSystem fs = kernel.getFileSystem();
                 for (int i = 0; i < 64 * 2; ++i) {
                     stringBuilder.append(String.format("%4d ", fs.read(i)));
                     if (i % 8 == 7) {
@@ -660,7 +716,6 @@ public class Shell implements Closeable {
 
     @Override
     public void close() {
-        kernel.removeIntExitListener(intExitListener);
     }
 
     private enum State {
@@ -694,7 +749,7 @@ public class Shell implements Closeable {
             if (executables.length == 0) return;
             if (random.nextBoolean()) return;
             try {
-                kernel.getProcessManager().create((FilePath) executables[random.nextInt(executables.length)]);
+                kernel.getProcessManager().submit((FilePath) executables[random.nextInt(executables.length)]);
             } catch (IOException | ProcessManager.ProcessException e) {
                 e.printStackTrace();
             }
@@ -84,13 +84,13 @@ public class MonitorController implements Initializable {
     private final FileTreeItem rootDir = new FileTreeItem(new FilePath("/"), new ImageView(folderIcon));
     public TabPane tabPane;
     public Tab overviewTab;
-    private final Kernel.Listener intEndListener = c -> {
-        ProcessControlBlock pcb = c.getProcessManager().getRunningProcess();
+    private final Kernel.Listener intEndListener = info -> {
+        ProcessControlBlock pcb = info.getPCB();
         Platform.runLater(() -> {
             if (overviewTab.isSelected()) {
                 lastExitProcessImage.setValue(pcb.getImageFile().getPath());
                 lastExitPID.setValue(String.valueOf(pcb.getPID()));
-                lastExitCode.setValue(String.valueOf(pcb.getContext().getAX()));
+                lastExitCode.setValue(String.valueOf(info.getAX()));
             }
         });
     };
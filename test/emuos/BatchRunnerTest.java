@@ -0,0 +1,85 @@
+package emuos;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import emuos.os.BatchRunner;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class BatchRunnerTest {
+    private static final long TIMEOUT_MS = 10000;
+
+    @Before
+    public void setUp() throws Exception {
+        FileSystem.getFileSystem().init();
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile("x=1\nx++\n!A2\nx++\n!B1\nend");
+        FilePath image = new FilePath("/b.e");
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compiler.getByteCode());
+        }
+    }
+
+    private static List<BatchRunner.Arrival> parse(String manifest) throws IOException {
+        return BatchRunner.parse(new BufferedReader(new StringReader(manifest)));
+    }
+
+    private static BatchRunner.Report run(String manifest) throws Exception {
+        BatchRunner runner = new BatchRunner(2);
+        parse(manifest).forEach(runner::add);
+        return runner.run(TIMEOUT_MS);
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        List<BatchRunner.Arrival> arrivals = parse("# image arrival count [interval]\n\n/b.e 0 3\n /b.e  100 2 50 \n");
+        assertEquals(2, arrivals.size());
+        assertEquals("/b.e", arrivals.get(1).getImagePath());
+        assertEquals(100, arrivals.get(1).getTime());
+        assertEquals(2, arrivals.get(1).getCount());
+        assertEquals(50, arrivals.get(1).getInterval());
+        assertEquals(0, arrivals.get(0).getInterval());
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseMalformedLine() throws IOException {
+        parse("/b.e 0 x\n");
+    }
+
+    @Test
+    public void testArrivalsWaitForMemory() throws Exception {
+        // more processes than the PCB table at the same time
+        BatchRunner.Report report = run("/b.e 0 25\n/b.e 2000 5 700");
+        assertEquals(30, report.getExitedCount());
+        assertEquals(0, report.getFailedCount());
+        assertTrue(report.getInstructionCount() >= 30 * 6);
+        assertTrue(report.getTurnaround(50) <= report.getTurnaround(99));
+        assertTrue(report.getUtilisation().get('A') > 0);
+        assertEquals(0, report.getUtilisation().get('C'), 0);
+        // the virtual clock makes the batch reproducible
+        BatchRunner.Report again = run("/b.e 0 25\n/b.e 2000 5 700");
+        assertEquals(report.getVirtualTime(), again.getVirtualTime());
+        assertEquals(report.getMeanTurnaround(), again.getMeanTurnaround(), 0);
+        assertEquals(report.getUtilisation(), again.getUtilisation());
+    }
+
+    @Test
+    public void testMissingImage() throws Exception {
+        BatchRunner.Report report = run("/b.e 0 1\n/n.e 0 1");
+        assertEquals(1, report.getExitedCount());
+        assertEquals(1, report.getFailedCount());
+    }
+}
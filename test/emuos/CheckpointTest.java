@@ -0,0 +1,139 @@
+package emuos;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import emuos.os.Kernel;
+import emuos.os.ProcessControlBlock;
+import emuos.os.ProcessManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class CheckpointTest {
+    private static final int PROCESS_COUNT = 6;
+    private static final int USER_SPACE_SIZE = 512;
+    private FilePath image;
+
+    @Before
+    public void setUp() throws Exception {
+        FileSystem.getFileSystem().init();
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile("x=5\nx++\n!A3\nx++\n!C2\nx--\n!B1\nend");
+        image = new FilePath("/c.e");
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compiler.getByteCode());
+        }
+    }
+
+    private static void runUntilExits(Kernel kernel, List<String> exits, int count) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(count);
+        kernel.addIntExitListener(info -> {
+            exits.add(info.getPID() + "@" + info.getTime() + ":" + info.getAX());
+            latch.countDown();
+        });
+        kernel.run();
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        kernel.stop();
+    }
+
+    private Kernel createKernel() {
+        Kernel kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 2);
+        for (int i = 0; i < PROCESS_COUNT; ++i) {
+            kernel.scheduleArrival(0, image);
+        }
+        return kernel;
+    }
+
+    @Test
+    public void testRestoreResumesTheSameRun() throws Exception {
+        List<String> expected = Collections.synchronizedList(new ArrayList<>());
+        try (Kernel kernel = createKernel()) {
+            runUntilExits(kernel, expected, PROCESS_COUNT);
+        }
+
+        List<String> exits = Collections.synchronizedList(new ArrayList<>());
+        File file = File.createTempFile("kernel", ".checkpoint");
+        file.deleteOnExit();
+        try (Kernel kernel = createKernel()) {
+            runUntilExits(kernel, exits, 1);
+            kernel.checkpoint(file);
+        }
+        List<String> before = new ArrayList<>(exits);
+        try (Kernel kernel = Kernel.restore(file, Kernel.ExecutionMode.SIMULATED)) {
+            assertEquals(2, kernel.getProcessorCount());
+            ProcessManager processManager = kernel.getProcessManager();
+            assertEquals(PROCESS_COUNT - before.size() + 1, processManager.snap().size());
+            runUntilExits(kernel, exits, PROCESS_COUNT - before.size());
+        }
+        assertEquals(expected, exits);
+    }
+
+    @Test
+    public void testRestoreOnTheFileSystemOfTheKernel() throws Exception {
+        FileSystem fileSystem = FileSystem.createInMemory();
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile("x=5\nx++\n!A3\nx++\n!C2\nx--\n!B1\nend");
+        FilePath memoryImage = new FilePath(fileSystem, "/m.e");
+        memoryImage.create();
+        try (OutputStream outputStream = new OutputStream(memoryImage)) {
+            outputStream.write(compiler.getByteCode());
+        }
+        File file = File.createTempFile("kernel", ".checkpoint");
+        file.deleteOnExit();
+        try (Kernel kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 2, USER_SPACE_SIZE, fileSystem)) {
+            for (int i = 0; i < PROCESS_COUNT; ++i) {
+                kernel.getProcessManager().create(memoryImage);
+            }
+            kernel.checkpoint(file);
+        }
+        try (Kernel kernel = Kernel.restore(file, Kernel.ExecutionMode.SIMULATED, fileSystem)) {
+            assertSame(fileSystem, kernel.getFileSystem());
+            List<ProcessControlBlock> pcbs = kernel.getMemoryManager().getPCBList();
+            assertEquals(PROCESS_COUNT, pcbs.size());
+            for (ProcessControlBlock pcb : pcbs) {
+                assertSame(fileSystem, pcb.getImageFile().getFileSystem());
+                assertTrue(pcb.getImageFile().isFile());
+            }
+            runUntilExits(kernel, new ArrayList<>(), pcbs.size());
+        }
+    }
+
+    @Test
+    public void testRunningKernelCannotBeSaved() throws IOException {
+        File file = File.createTempFile("kernel", ".checkpoint");
+        file.deleteOnExit();
+        try (Kernel kernel = createKernel()) {
+            kernel.run();
+            try {
+                kernel.checkpoint(file);
+                fail();
+            } catch (IllegalStateException ignored) {
+            }
+            kernel.stop();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptedFile() throws IOException {
+        File file = File.createTempFile("kernel", ".checkpoint");
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[]{0x45, 0x4d, 0x55, 0x4b, 0, 0, 0, 1, 0});
+        Kernel.restore(file, Kernel.ExecutionMode.SIMULATED);
+    }
+}
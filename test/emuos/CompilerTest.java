@@ -82,6 +82,16 @@ public class CompilerTest {
         System.out.println(Arrays.toString(byteCode));
     }
 
+    @Test
+    public void testFork() throws GeneratorException, ParseException {
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile("x=1\nfork\nx++\nend");
+        assertEquals(Arrays.toString(new byte[]{
+                        Instruction.OPCODE_ASSIGNMENT, 1, Instruction.OPCODE_FORK,
+                        Instruction.OPCODE_INCREASE, Instruction.OPCODE_END}),
+                Arrays.toString(compiler.getByteCode()));
+    }
+
     @Test
     public void testParseException() throws GeneratorException, TokenMismatchException {
         TinyCompiler compiler = new TinyCompiler();
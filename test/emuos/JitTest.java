@@ -0,0 +1,105 @@
+package emuos;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import emuos.os.Kernel;
+import emuos.os.ProcessControlBlock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Differential test of the JIT against the interpreter
+ *
+ * @author Link
+ */
+public class JitTest {
+    private static final int PROGRAM_COUNT = 8;
+    private final FilePath[] programs = new FilePath[PROGRAM_COUNT];
+
+    @Before
+    public void setUp() throws Exception {
+        FileSystem.getFileSystem().init();
+        new FilePath("/j").mkdir();
+        Random random = new Random(42);
+        TinyCompiler compiler = new TinyCompiler();
+        for (int i = 0; i < PROGRAM_COUNT; ++i) {
+            StringBuilder code = new StringBuilder();
+            int length = 1 + random.nextInt(24);
+            for (int j = 0; j < length; ++j) {
+                switch (random.nextInt(4)) {
+                    case 0:
+                        code.append("x=").append(random.nextInt(128)).append('\n');
+                        break;
+                    case 1:
+                        code.append("x++\n");
+                        break;
+                    default:
+                        code.append("x--\n");
+                        break;
+                }
+            }
+            code.append("end");
+            compiler.compile(code.toString());
+            programs[i] = new FilePath("/j/p" + i + ".e");
+            programs[i].create();
+            try (OutputStream outputStream = new OutputStream(programs[i])) {
+                outputStream.write(compiler.getByteCode());
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        FileSystem.getFileSystem().flush();
+    }
+
+    private Map<String, String> run(int jitThreshold, int rounds) throws Exception {
+        // the PIDs are reused in the order of the exits, so the results are keyed by the round and the program
+        Map<String, String> results = new HashMap<>();
+        try (Kernel kernel = new Kernel(Kernel.ExecutionMode.TURBO)) {
+            kernel.setJitThreshold(jitThreshold);
+            kernel.run();
+            for (int round = 0; round < rounds; ++round) {
+                CountDownLatch latch = new CountDownLatch(PROGRAM_COUNT);
+                String prefix = round + " ";
+                Kernel.Listener listener = info -> {
+                    ProcessControlBlock pcb = info.getPCB();
+                    results.put(prefix + pcb.getImageFile().getPath(), info.getAX() + " " + pcb.getContext().getFLAGS());
+                    latch.countDown();
+                };
+                kernel.addIntExitListener(listener);
+                for (FilePath program : programs) {
+                    kernel.getProcessManager().create(program);
+                }
+                assertTrue(latch.await(10, TimeUnit.SECONDS));
+                kernel.removeIntExitListener(listener);
+            }
+            kernel.stop();
+            if (jitThreshold > 0) {
+                assertTrue(kernel.getCompiledBlockCount() > 0);
+            }
+            results.put("time", String.valueOf(kernel.getExecutionTime()));
+        }
+        return results;
+    }
+
+    @Test
+    public void testDifferential() throws Exception {
+        Map<String, String> interpreted = run(0, 4);
+        Map<String, String> compiled = run(1, 4);
+        assertEquals(PROGRAM_COUNT * 4 + 1, interpreted.size());
+        assertEquals(interpreted, compiled);
+    }
+}
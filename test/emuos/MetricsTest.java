@@ -0,0 +1,91 @@
+package emuos;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import emuos.os.Kernel;
+import emuos.os.Metrics;
+import emuos.os.ProcessControlBlock;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class MetricsTest {
+    private static final int PROCESS_COUNT = 6;
+
+    @Test
+    public void testHistogram() {
+        Metrics metrics = new Metrics();
+        Metrics.Histogram histogram = metrics.histogram("h");
+        assertSame(histogram, metrics.histogram("h"));
+        for (int i = 0; i < 100; ++i) {
+            histogram.record(i < 90 ? 3 : 1000);
+        }
+        histogram.record(-1);
+        assertEquals(101, histogram.getCount());
+        assertEquals(90 * 3 + 10 * 1000, histogram.getSum());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(3, histogram.getPercentile(50));
+        assertEquals(1000, histogram.getPercentile(99));
+        assertEquals(1, histogram.getBucketCounts()[0]);
+        metrics.counter("c").add(5);
+        assertEquals(Long.valueOf(5), metrics.snapCounters().get("c"));
+        metrics.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(Long.valueOf(0), metrics.snapCounters().get("c"));
+    }
+
+    @Test
+    public void testProcessStatistics() throws Exception {
+        FileSystem.getFileSystem().init();
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile("x=5\nx++\n!A3\nx++\n!A2\nx--\nend");
+        FilePath image = new FilePath("/m.e");
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compiler.getByteCode());
+        }
+        List<ProcessControlBlock> exited = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(PROCESS_COUNT);
+        try (Kernel kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 2)) {
+            kernel.addIntExitListener(info -> {
+                exited.add(info.getPCB());
+                latch.countDown();
+            });
+            for (int i = 0; i < PROCESS_COUNT; ++i) {
+                kernel.scheduleArrival(0, image);
+            }
+            kernel.run();
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            kernel.stop();
+            Metrics metrics = kernel.getMetrics();
+            assertEquals(Long.valueOf(PROCESS_COUNT), metrics.snapCounters().get("process.created"));
+            assertEquals(Long.valueOf(2 * PROCESS_COUNT), metrics.snapCounters().get("device.A.requests"));
+            assertEquals(PROCESS_COUNT, metrics.histogram("process.turnaround").getCount());
+            assertEquals(2 * PROCESS_COUNT, metrics.histogram("device.A.wait").getCount());
+            // there are 2 devices of type A for 6 processes
+            assertTrue(metrics.histogram("device.A.wait").getMax() > 0);
+            assertEquals(PROCESS_COUNT, exited.size());
+            for (ProcessControlBlock pcb : exited) {
+                ProcessControlBlock.Statistics statistics = pcb.getStatistics();
+                // 7 instructions and the tick of the exit interrupt
+                assertEquals(8, statistics.getCPUTicks());
+                // it's switched in at the creation and after each IO
+                assertEquals(3, statistics.getContextSwitches());
+                // 2 IOs of 5 device periods, a period is 2 ticks
+                assertTrue(statistics.getBlockedTime() >= 10);
+                assertTrue(statistics.getTurnaround() >= statistics.getBlockedTime() + statistics.getReadyWait());
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package emuos;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.os.BatchRunner;
+import emuos.os.ParallelBatchRunner;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class ParallelBatchRunnerTest {
+
+    private static byte[] compile(String source) throws Exception {
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile(source);
+        return compiler.getByteCode();
+    }
+
+    private static List<ParallelBatchRunner.Batch> sweep() throws Exception {
+        Map<String, byte[]> images = new HashMap<>();
+        images.put("/p/b.e", compile("x=1\nx++\n!A2\nx++\n!B1\nend"));
+        images.put("/p/c.e", compile("x=5\nx--\nx--\nend"));
+        List<BatchRunner.Arrival> arrivals = Arrays.asList(
+                new BatchRunner.Arrival("/p/b.e", 0, 12, 0),
+                new BatchRunner.Arrival("/p/c.e", 500, 6, 300));
+        List<ParallelBatchRunner.Batch> batches = new ArrayList<>();
+        for (int processorCount = 1; processorCount <= 4; ++processorCount) {
+            for (int userSpaceSize : new int[]{128, 256, 512}) {
+                batches.add(new ParallelBatchRunner.Batch(processorCount, userSpaceSize, images, arrivals));
+            }
+        }
+        return batches;
+    }
+
+    @Test
+    public void testSweepMatchesSequentialRuns() throws Exception {
+        List<ParallelBatchRunner.Batch> batches = sweep();
+        List<BatchRunner.Report> parallel = new ParallelBatchRunner(new ForkJoinPool(4)).run(batches);
+        List<BatchRunner.Report> sequential = new ParallelBatchRunner(new ForkJoinPool(1)).run(batches);
+        assertEquals(batches.size(), parallel.size());
+        for (int i = 0; i < batches.size(); ++i) {
+            BatchRunner.Report report = parallel.get(i);
+            assertEquals(18, report.getExitedCount());
+            assertEquals(0, report.getFailedCount());
+            assertEquals(sequential.get(i).getVirtualTime(), report.getVirtualTime());
+            assertEquals(sequential.get(i).getInstructionCount(), report.getInstructionCount());
+            assertEquals(sequential.get(i).getMeanTurnaround(), report.getMeanTurnaround(), 0);
+            assertEquals(sequential.get(i).getUtilisation(), report.getUtilisation());
+        }
+        // more CPUs finish the same workload earlier
+        assertTrue(parallel.get(11).getVirtualTime() < parallel.get(2).getVirtualTime());
+    }
+
+    @Test
+    public void testInMemoryFileSystemIsIsolated() throws Exception {
+        FileSystem fileSystem = FileSystem.createInMemory();
+        FilePath file = new FilePath(fileSystem, "/iso/x.e");
+        file.create();
+        assertTrue(file.exists());
+        assertSame(fileSystem, file.getParentFile().getFileSystem());
+        assertFalse(FileSystem.createInMemory().getFilePath("/iso/x.e").exists());
+        assertNotSame(fileSystem, FileSystem.getFileSystem());
+    }
+}
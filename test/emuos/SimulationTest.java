@@ -0,0 +1,117 @@
+package emuos;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import emuos.os.Kernel;
+import emuos.os.Processor;
+import emuos.os.SimulationEngine;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Link
+ */
+public class SimulationTest {
+    private static final int PROCESS_COUNT = 6;
+    private FilePath image;
+
+    @Before
+    public void setUp() throws Exception {
+        FileSystem.getFileSystem().init();
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile("x=1\nx++\n!A9\nx++\n!B7\nx--\nend");
+        image = new FilePath("/s.e");
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compiler.getByteCode());
+        }
+    }
+
+    @Test
+    public void testEventOrder() {
+        SimulationEngine engine = new SimulationEngine();
+        List<String> order = new ArrayList<>();
+        engine.scheduleAt(20, () -> order.add("c"));
+        engine.scheduleAt(10, () -> order.add("a"));
+        engine.scheduleAt(10, () -> {
+            order.add("b");
+            engine.schedule(0, () -> order.add("b'"));
+        });
+        SimulationEngine.Event cancelled = engine.scheduleAt(15, () -> order.add("x"));
+        assertTrue(engine.cancel(cancelled));
+        engine.runUntil(30);
+        assertEquals(30, engine.now());
+        assertEquals(java.util.Arrays.asList("a", "b", "b'", "c"), order);
+    }
+
+    private List<String> simulate() throws InterruptedException {
+        return simulate(image, -1);
+    }
+
+    /**
+     * @param jitThreshold the threshold of the JIT, or -1 for the default one
+     */
+    private List<String> simulate(FilePath image, int jitThreshold) throws InterruptedException {
+        List<String> exits = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(PROCESS_COUNT);
+        try (Kernel kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 2)) {
+            if (jitThreshold >= 0) {
+                kernel.setJitThreshold(jitThreshold);
+            }
+            kernel.addIntExitListener(info -> {
+                exits.add(info.getPID() + "@" + info.getTime() + ":" + info.getAX());
+                latch.countDown();
+            });
+            for (int i = 0; i < PROCESS_COUNT; ++i) {
+                kernel.scheduleArrival(i * 700, image);
+            }
+            kernel.run();
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            kernel.stop();
+            // the idle processors don't tick, but their time goes on
+            long ticks = 0;
+            for (Processor processor : kernel.getProcessors()) {
+                ticks += processor.getTime();
+            }
+            assertTrue(kernel.getSimulationEngine().getEventCount() < ticks);
+            if (jitThreshold > 0) {
+                assertTrue(kernel.getCompiledBlockCount() > 0);
+            }
+        }
+        return exits;
+    }
+
+    @Test
+    public void testReproducible() throws InterruptedException {
+        List<String> first = simulate();
+        assertEquals(PROCESS_COUNT, first.size());
+        assertEquals(first, simulate());
+    }
+
+    @Test
+    public void testSameTimelineWithJit() throws Exception {
+        // the straight-line runs are compiled, and the devices finish in the middle of them
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile("x=1\nx++\nx++\nx++\nx++\nx++\n!A9\nx++\nx++\nx++\nx++\nx++\nx++\n"
+                + "!B7\nx--\nx--\nx--\nx--\nx--\nx--\nx--\nend");
+        FilePath image = new FilePath("/j.e");
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compiler.getByteCode());
+        }
+        List<String> interpreted = simulate(image, 0);
+        assertEquals(PROCESS_COUNT, interpreted.size());
+        assertEquals(interpreted, simulate(image, 1));
+    }
+}
@@ -0,0 +1,108 @@
+package emuos;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import emuos.os.Kernel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * The turbo mode, uncapped and paced to a target rate
+ *
+ * @author Link
+ */
+public class TurboTest {
+    private static final int PROCESS_COUNT = 6;
+    // x=1, the increments and end
+    private static final int INSTRUCTION_COUNT = 250;
+    private FilePath program;
+
+    @Before
+    public void setUp() throws Exception {
+        FileSystem.getFileSystem().init();
+        new FilePath("/t").mkdir();
+        StringBuilder code = new StringBuilder("x=1\n");
+        for (int i = 2; i < INSTRUCTION_COUNT; ++i) {
+            code.append("x++\n");
+        }
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile(code.append("end").toString());
+        program = new FilePath("/t/p.e");
+        program.create();
+        try (OutputStream outputStream = new OutputStream(program)) {
+            outputStream.write(compiler.getByteCode());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        FileSystem.getFileSystem().flush();
+    }
+
+    private CountDownLatch createAll(Kernel kernel) throws Exception {
+        CountDownLatch latch = new CountDownLatch(PROCESS_COUNT);
+        kernel.addIntExitListener(info -> latch.countDown());
+        for (int i = 0; i < PROCESS_COUNT; ++i) {
+            kernel.getProcessManager().create(program);
+        }
+        return latch;
+    }
+
+    @Test
+    public void testUncapped() throws Exception {
+        try (Kernel kernel = new Kernel(Kernel.ExecutionMode.TURBO)) {
+            kernel.setJitThreshold(0);
+            assertEquals(0, kernel.getTargetRate());
+            kernel.sampleThroughput();
+            kernel.run();
+            CountDownLatch latch = createAll(kernel);
+            // it would take 15 seconds at the rate of the paced run
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            double throughput = kernel.sampleThroughput();
+            kernel.stop();
+            assertEquals(PROCESS_COUNT * INSTRUCTION_COUNT, kernel.getInstructionCount());
+            assertTrue("throughput = " + throughput, throughput > PROCESS_COUNT * INSTRUCTION_COUNT / 5);
+        }
+    }
+
+    @Test
+    public void testPaced() throws Exception {
+        try (Kernel kernel = new Kernel(Kernel.ExecutionMode.TURBO)) {
+            kernel.setJitThreshold(0);
+            kernel.setTargetRate(100);
+            kernel.run();
+            CountDownLatch latch = createAll(kernel);
+            kernel.sampleThroughput();
+            Thread.sleep(500);
+            double slow = kernel.sampleThroughput();
+            assertTrue("throughput = " + slow, slow > 50 && slow < 150);
+
+            // the processors pick up the new rate at the next tick
+            kernel.setTargetRate(1000);
+            Thread.sleep(100);
+            kernel.sampleThroughput();
+            Thread.sleep(500);
+            double fast = kernel.sampleThroughput();
+            assertTrue("throughput = " + fast, fast > 500 && fast < 1500);
+            assertTrue(latch.getCount() > 0);
+
+            kernel.setTargetRate(0);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            kernel.stop();
+            assertEquals(PROCESS_COUNT * INSTRUCTION_COUNT, kernel.getInstructionCount());
+        }
+        try (Kernel kernel = new Kernel(Kernel.ExecutionMode.TURBO)) {
+            kernel.setTargetRate(-1);
+            fail("The target rate can't be negative.");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package emuos.os;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A smoke check of saving and restoring the register file in place,
+ * the allocation rate is measured by the ContextSwitchBenchmark of the bench module
+ *
+ * @author Link
+ */
+public class ContextSwitchTest {
+    private static final int SWITCH_COUNT = 1000;
+
+    @Test
+    public void testSwitchContexts() {
+        Processor processor = new Kernel().getBootProcessor();
+        ProcessControlBlock[] pcbs = {new ProcessControlBlock(1, 0), new ProcessControlBlock(2, 100)};
+        switchContexts(processor, pcbs, SWITCH_COUNT);
+        // every process has been switched out SWITCH_COUNT / 2 times, once per increment of its own
+        assertEquals(SWITCH_COUNT / 2, pcbs[0].getContext().getAX());
+        assertEquals(SWITCH_COUNT / 2, pcbs[1].getContext().getAX());
+        assertEquals(100 + SWITCH_COUNT / 2, pcbs[1].getContext().getPC());
+        assertTrue(pcbs[0].getContext().isFlagSet(Kernel.Context.PSW_ZF));
+    }
+
+    @Test
+    public void testSaveContextCopiesFlags() {
+        Processor processor = new Kernel().getBootProcessor();
+        ProcessControlBlock pcb = new ProcessControlBlock(1, 0);
+        processor.getContext().setFlag(Kernel.Context.PSW_ZF);
+        pcb.saveContext(processor.getContext());
+        processor.getContext().setFLAGS(0);
+        assertTrue(pcb.getContext().isFlagSet(Kernel.Context.PSW_ZF));
+        assertEquals(0, processor.getContext().getFLAGS());
+    }
+
+    private static void switchContexts(Processor processor, ProcessControlBlock[] pcbs, int count) {
+        Kernel.Context context = processor.getContext();
+        for (int i = 0; i < count; ++i) {
+            ProcessControlBlock running = pcbs[i & 1];
+            context.setAX(context.getAX() + 1);
+            context.setPC(context.getPC() + 1);
+            context.setFlag(Kernel.Context.PSW_ZF);
+            running.saveContext(context);
+            processor.setContext(pcbs[~i & 1].getContext());
+        }
+    }
+}
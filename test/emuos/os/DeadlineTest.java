@@ -0,0 +1,173 @@
+package emuos.os;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class DeadlineTest {
+    private static final String LONG = "x=1\nx++\nx++\nx++\nx++\nx++\nx++\nx++\nx++\nx++\nx++\nx++\nend";
+    private static final String SHORT = "x=1\nx++\nend";
+    private Kernel kernel;
+    private FilePath image;
+
+    @Before
+    public void setUp() throws Exception {
+        FileSystem fileSystem = FileSystem.createInMemory();
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile("x=1\nx++\nx++\nx++\nx++\nx++\nx++\nend");
+        image = new FilePath(fileSystem, "/d.e");
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compiler.getByteCode());
+        }
+        kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 1, MemoryManager.DEFAULT_USER_SPACE_SIZE, fileSystem);
+    }
+
+    @After
+    public void tearDown() {
+        kernel.close();
+    }
+
+    private void runToEnd() {
+        kernel.start(false);
+        SimulationEngine engine = kernel.getSimulationEngine();
+        while (engine.step()) {
+            // run the next event
+        }
+        kernel.stop();
+    }
+
+    private long counter(String name) {
+        return kernel.getMetrics().counter(name).sum();
+    }
+
+    @Test
+    public void testRealTimeProcessRunsFirst() throws Exception {
+        ProcessManager processManager = kernel.getProcessManager();
+        List<ProcessControlBlock> normal = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            normal.add(processManager.create(image));
+        }
+        ProcessControlBlock late = processManager.create(image, 200, 10);
+        ProcessControlBlock early = processManager.create(image, 100, 10);
+        assertTrue(early.isRealTime());
+        assertEquals(Arrays.asList(early, late), processManager.getScheduler().getReadyProcesses().subList(0, 2));
+        runToEnd();
+        long earlyExit = early.getStatistics().getExitedAt();
+        assertTrue(earlyExit < late.getStatistics().getExitedAt());
+        // the first normal process has been switched in before the real-time ones are created
+        for (ProcessControlBlock pcb : normal.subList(1, normal.size())) {
+            assertTrue(late.getStatistics().getExitedAt() < pcb.getStatistics().getExitedAt());
+        }
+        assertEquals(2, counter("process.deadline.met"));
+        assertEquals(0, counter("process.deadline.missed"));
+    }
+
+    @Test
+    public void testAdmissionControl() throws Exception {
+        ProcessManager processManager = kernel.getProcessManager();
+        processManager.create(image, 100, 60);
+        try {
+            processManager.create(image, 100, 50);
+            fail("The densities add up to more than a processor.");
+        } catch (ProcessManager.ProcessException expected) {
+            assertEquals(1, counter("process.admission.rejected"));
+        }
+        try {
+            processManager.create(image, 10, 20);
+            fail("The budget is longer than the deadline.");
+        } catch (ProcessManager.ProcessException expected) {
+            assertEquals(2, counter("process.admission.rejected"));
+        }
+        assertNotNull(processManager.create(image, 100, 40));
+        runToEnd();
+        // the reservations are released on the exits
+        assertNotNull(processManager.create(image, 100, 100));
+    }
+
+    private FilePath write(String path, String source) throws Exception {
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile(source);
+        FilePath image = new FilePath(kernel.getFileSystem(), path);
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compiler.getByteCode());
+        }
+        return image;
+    }
+
+    @Test
+    public void testRealTimeProcessPreempts() throws Exception {
+        FilePath longImage = write("/l.e", LONG);
+        FilePath shortImage = write("/s.e", SHORT);
+        ProcessManager processManager = kernel.getProcessManager();
+        ProcessControlBlock running = processManager.create(longImage, 100, 10);
+        kernel.start(false);
+        SimulationEngine engine = kernel.getSimulationEngine();
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(engine.step());
+        }
+        assertSame(running, kernel.getProcessors().get(0).getRunningProcess());
+        // it misses the deadline if it waits for the running process to use up its budget
+        ProcessControlBlock urgent = processManager.create(shortImage, 6, 5);
+        while (engine.step()) {
+            // run the next event
+        }
+        kernel.stop();
+        assertTrue(urgent.getStatistics().getExitedAt() <= urgent.getDeadline());
+        assertTrue(urgent.getStatistics().getExitedAt() < running.getStatistics().getExitedAt());
+        assertEquals(2, counter("process.deadline.met"));
+        assertEquals(0, counter("process.deadline.missed"));
+    }
+
+    @Test
+    public void testRealTimeProcessPreemptsCompiledCode() throws Exception {
+        kernel.setJitThreshold(1);
+        FilePath longImage = write("/l.e", LONG);
+        FilePath shortImage = write("/s.e", SHORT);
+        ProcessManager processManager = kernel.getProcessManager();
+        ProcessControlBlock running = processManager.create(longImage);
+        SimulationEngine engine = kernel.getSimulationEngine();
+        List<ProcessControlBlock> urgent = new ArrayList<>();
+        // it arrives while the running process is in a compiled block of a whole time slice
+        long arrival = 2 * Kernel.CPU_PERIOD_MS + Kernel.CPU_PERIOD_MS / 2;
+        engine.scheduleAt(arrival, () -> {
+            try {
+                urgent.add(processManager.create(shortImage, 6, 5));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        runToEnd();
+        assertTrue(kernel.getCompiledBlockCount() > 0);
+        assertEquals(1, urgent.size());
+        // the processor has ticked at 0, a period and two periods, the block hasn't run ahead of the arrival
+        assertEquals(arrival / Kernel.CPU_PERIOD_MS + 1, urgent.get(0).getStatistics().getCreatedAt());
+        assertTrue(urgent.get(0).getStatistics().getExitedAt() <= urgent.get(0).getDeadline());
+        assertTrue(urgent.get(0).getStatistics().getExitedAt() < running.getStatistics().getExitedAt());
+        assertEquals(1, counter("process.deadline.met"));
+    }
+
+    @Test
+    public void testMissedDeadline() throws Exception {
+        ProcessManager processManager = kernel.getProcessManager();
+        // the budget runs out before the end, then it goes on in the normal class
+        ProcessControlBlock pcb = processManager.create(image, 3, 2);
+        runToEnd();
+        assertEquals(1, counter("process.deadline.missed"));
+        Metrics.Histogram lateness = kernel.getMetrics().histogram("process.deadline.lateness");
+        assertEquals(1, lateness.getCount());
+        assertEquals(pcb.getStatistics().getExitedAt() - pcb.getDeadline(), lateness.getMax());
+    }
+}
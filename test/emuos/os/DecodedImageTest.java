@@ -0,0 +1,74 @@
+package emuos.os;
+
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import org.junit.Test;
+
+import static emuos.compiler.Instruction.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class DecodedImageTest {
+
+    @Test
+    public void testWriteInvalidatesTheImage() {
+        MemoryManager memoryManager = new MemoryManager();
+        int address = memoryManager.alloc(8);
+        memoryManager.write(address, new byte[]{OPCODE_ASSIGNMENT, 5, OPCODE_INCREASE, OPCODE_END});
+        DecodedImage image = memoryManager.decode(address, 4);
+        DecodedImage.Code code = image.get();
+        assertSame(code, image.get());
+        assertEquals(OPCODE_INCREASE, code.getOpcode(address + 2));
+
+        memoryManager.write(address + 2, OPCODE_DECREASE);
+        // the processor gets the code once per instruction, so the next one sees the new byte
+        DecodedImage.Code next = image.get();
+        assertNotSame(code, next);
+        assertEquals(OPCODE_DECREASE, next.getOpcode(address + 2));
+        assertEquals(OPCODE_INCREASE, code.getOpcode(address + 2));
+
+        memoryManager.writeInt(address, OPCODE_ASSIGNMENT | 9 << 8);
+        assertEquals(9, image.get().getOperand0(address));
+        memoryManager.free(address);
+    }
+
+    @Test
+    public void testFetchOutsideTheImage() throws Exception {
+        FileSystem fileSystem = FileSystem.createInMemory();
+        FilePath image = new FilePath(fileSystem, "/t.e");
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            // x=7, x++, then x= whose operand is out of the image
+            outputStream.write(new byte[]{OPCODE_ASSIGNMENT, 7, OPCODE_INCREASE, OPCODE_ASSIGNMENT});
+        }
+        try (Kernel kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 1, 16, fileSystem)) {
+            kernel.setJitThreshold(1);
+            MemoryManager memoryManager = kernel.getMemoryManager();
+            ProcessControlBlock pcb = kernel.getProcessManager().create(image);
+            int address = pcb.getStartAddress();
+            // the space right after the image
+            int next = memoryManager.alloc(2);
+            assertEquals(address + 4, next);
+            memoryManager.write(next, new byte[]{9, OPCODE_END});
+            DecodedImage.Code code = pcb.getDecodedImage().get();
+            assertTrue(code.contains(address + 2));
+            assertFalse(code.contains(address + 3));
+            assertFalse(code.contains(next));
+
+            kernel.start(false);
+            SimulationEngine engine = kernel.getSimulationEngine();
+            while (engine.step()) {
+                // run the next event
+            }
+            kernel.stop();
+            // the interpreter fetched the rest byte by byte from the user space
+            assertTrue(pcb.getStatistics().getExitedAt() >= 0);
+            assertEquals(9, pcb.getContext().getAX());
+            memoryManager.free(next);
+            assertTrue(memoryManager.isAllFree());
+        }
+    }
+}
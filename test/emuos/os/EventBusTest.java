@@ -0,0 +1,90 @@
+package emuos.os;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class EventBusTest {
+    private static final int PRODUCER_COUNT = 4;
+    private static final int EVENT_COUNT = 100_000;
+
+    @Test
+    public void testMultipleProducers() throws InterruptedException {
+        EventBus eventBus = new EventBus(64);
+        CountDownLatch latch = new CountDownLatch(PRODUCER_COUNT * EVENT_COUNT);
+        int[] lastPC = new int[PRODUCER_COUNT];
+        AtomicInteger outOfOrder = new AtomicInteger();
+        eventBus.subscribe(EventBus.Type.CREATED, info -> {
+            // the events of a producer are delivered in order
+            if (info.getPC() != lastPC[info.getProcessorID()] + 1) {
+                outOfOrder.incrementAndGet();
+            }
+            lastPC[info.getProcessorID()] = info.getPC();
+            latch.countDown();
+        });
+        eventBus.start();
+        Thread[] producers = new Thread[PRODUCER_COUNT];
+        for (int i = 0; i < PRODUCER_COUNT; ++i) {
+            int ID = i;
+            producers[i] = new Thread(() -> {
+                for (int PC = 1; PC <= EVENT_COUNT; ++PC) {
+                    assertTrue(eventBus.publish(EventBus.Type.CREATED, PC, ID, null, 0, PC));
+                }
+            });
+            producers[i].start();
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        eventBus.stop();
+        assertEquals(0, outOfOrder.get());
+        assertEquals(0, eventBus.getDroppedCount());
+    }
+
+    @Test
+    public void testLossyEventsAreDroppedWhenFull() {
+        EventBus eventBus = new EventBus(4);
+        eventBus.subscribe(EventBus.Type.BEGIN_OPERATION, info -> {
+        });
+        // there is no consumer, so the ring is full after 4 events
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(eventBus.publish(EventBus.Type.BEGIN_OPERATION, i, 0, null, 0, 0));
+        }
+        assertFalse(eventBus.publish(EventBus.Type.BEGIN_OPERATION, 4, 0, null, 0, 0));
+        assertEquals(1, eventBus.getDroppedCount());
+    }
+
+    @Test
+    public void testOverflowWhenFull() throws InterruptedException {
+        EventBus eventBus = new EventBus(4);
+        CountDownLatch latch = new CountDownLatch(10);
+        int[] lastPC = new int[1];
+        AtomicInteger outOfOrder = new AtomicInteger();
+        eventBus.subscribe(EventBus.Type.CREATED, info -> {
+            if (info.getPC() != lastPC[0] + 1) {
+                outOfOrder.incrementAndGet();
+            }
+            lastPC[0] = info.getPC();
+            latch.countDown();
+        });
+        eventBus.subscribe(EventBus.Type.BEGIN_OPERATION, info -> {
+        });
+        // there is no consumer, so the ring is full after 4 events, and the producer doesn't wait
+        for (int PC = 1; PC <= 10; ++PC) {
+            assertTrue(eventBus.publish(EventBus.Type.CREATED, PC, 0, null, 0, PC));
+        }
+        assertEquals(6, eventBus.getOverflowCount());
+        // a lossy event doesn't overtake the overflowed ones
+        assertFalse(eventBus.publish(EventBus.Type.BEGIN_OPERATION, 11, 0, null, 0, 0));
+        assertEquals(1, eventBus.getDroppedCount());
+        eventBus.start();
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        eventBus.stop();
+        assertEquals(0, outOfOrder.get());
+    }
+}
@@ -0,0 +1,83 @@
+package emuos.os;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class ExitHandleTest {
+    private Kernel kernel;
+
+    @After
+    public void tearDown() {
+        if (kernel != null) {
+            kernel.close();
+        }
+    }
+
+    private FilePath compile(FileSystem fileSystem, String path, String source) throws Exception {
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile(source);
+        FilePath image = new FilePath(fileSystem, path);
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compiler.getByteCode());
+        }
+        return image;
+    }
+
+    private void runToEnd() {
+        kernel.start(false);
+        SimulationEngine engine = kernel.getSimulationEngine();
+        while (engine.step()) {
+            // run the next event
+        }
+        kernel.stop();
+    }
+
+    @Test
+    public void testExitHandles() throws Exception {
+        FileSystem fileSystem = FileSystem.createInMemory();
+        FilePath a = compile(fileSystem, "/a.e", "x=3\nend");
+        FilePath b = compile(fileSystem, "/b.e", "x=5\n!A2\nx++\nend");
+        kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 2, MemoryManager.DEFAULT_USER_SPACE_SIZE, fileSystem);
+        ProcessManager processManager = kernel.getProcessManager();
+        List<ProcessControlBlock> pcbs = new ArrayList<>();
+        List<CompletableFuture<ExitStatus>> handles = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            ProcessControlBlock pcb = processManager.create(i % 2 == 0 ? a : b);
+            pcbs.add(pcb);
+            handles.add(processManager.onExit(pcb.getPID()));
+        }
+        // cancelling one handle doesn't affect the others of the same process
+        processManager.onExit(pcbs.get(0)).cancel(false);
+        for (CompletableFuture<ExitStatus> handle : handles) {
+            assertFalse(handle.isDone());
+        }
+        runToEnd();
+        for (int i = 0; i < 4; ++i) {
+            CompletableFuture<ExitStatus> handle = handles.get(i);
+            assertTrue(handle.isDone());
+            ExitStatus exitStatus = handle.get();
+            assertEquals(pcbs.get(i).getPID(), exitStatus.getPID());
+            assertEquals(i % 2 == 0 ? 3 : 6, exitStatus.getExitCode());
+            assertTrue(exitStatus.getStatistics().getTurnaround() >= 0);
+        }
+        // the handle of an exited process is already completed
+        CompletableFuture<ExitStatus> handle = processManager.onExit(pcbs.get(1));
+        assertTrue(handle.isDone());
+        assertEquals(6, handle.get().getExitCode());
+        assertNull(processManager.onExit(pcbs.get(1).getPID()));
+    }
+}
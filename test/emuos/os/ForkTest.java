@@ -0,0 +1,79 @@
+package emuos.os;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class ForkTest {
+    private Kernel kernel;
+
+    @After
+    public void tearDown() {
+        if (kernel != null) {
+            kernel.close();
+        }
+    }
+
+    private ProcessControlBlock start(String source, int userSpaceSize) throws Exception {
+        FileSystem fileSystem = FileSystem.createInMemory();
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile(source);
+        FilePath image = new FilePath(fileSystem, "/f.e");
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compiler.getByteCode());
+        }
+        kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 2, userSpaceSize, fileSystem);
+        return kernel.getProcessManager().create(image);
+    }
+
+    private List<ProcessControlBlock> runToEnd() {
+        List<ProcessControlBlock> exited = new ArrayList<>();
+        kernel.getProcessManager().addOnDestroyListener(info -> exited.add(info.getPCB()));
+        kernel.start(false);
+        SimulationEngine engine = kernel.getSimulationEngine();
+        while (engine.step()) {
+            // run the next event
+        }
+        kernel.stop();
+        return exited;
+    }
+
+    @Test
+    public void testParentAndChild() throws Exception {
+        ProcessControlBlock parent = start("x=1\nfork\nx++\nend", MemoryManager.DEFAULT_USER_SPACE_SIZE);
+        List<ProcessControlBlock> exited = runToEnd();
+        assertEquals(2, exited.size());
+        ProcessControlBlock child = exited.get(0) == parent ? exited.get(1) : exited.get(0);
+        assertEquals(parent.getStartAddress(), child.getStartAddress());
+        assertEquals(child.getPID() + 1, parent.getContext().getAX());
+        assertEquals(1, child.getContext().getAX());
+        assertEquals(1, kernel.getMetrics().counter("process.forked").sum());
+        assertTrue(kernel.getMemoryManager().isAllFree());
+    }
+
+    @Test
+    public void testProcessTree() throws Exception {
+        // the tree doesn't fit into the user space if every process has its own copy
+        start("fork\nfork\nfork\nfork\nx=7\nend", 8);
+        List<ProcessControlBlock> exited = runToEnd();
+        assertEquals(16, exited.size());
+        for (ProcessControlBlock pcb : exited) {
+            assertEquals(7, pcb.getContext().getAX());
+        }
+        assertEquals(15, kernel.getMetrics().counter("process.forked").sum());
+        assertEquals(16, kernel.getMetrics().counter("process.created").sum());
+        assertTrue(kernel.getMemoryManager().isAllFree());
+    }
+}
@@ -0,0 +1,104 @@
+package emuos.os;
+
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class ImageCacheTest {
+    private FileSystem fileSystem;
+    private Metrics metrics;
+    private ImageCache imageCache;
+
+    @Before
+    public void setUp() {
+        fileSystem = FileSystem.createInMemory();
+        metrics = new Metrics();
+        imageCache = new ImageCache(2, metrics);
+    }
+
+    private FilePath write(String path, byte[] content) throws Exception {
+        FilePath file = fileSystem.getFilePath(path);
+        file.create();
+        try (OutputStream outputStream = new OutputStream(file)) {
+            outputStream.write(content);
+        }
+        return file;
+    }
+
+    private long hits() {
+        return metrics.counter("image.cache.hits").sum();
+    }
+
+    private long misses() {
+        return metrics.counter("image.cache.misses").sum();
+    }
+
+    @Test
+    public void testHitAndRewrite() throws Exception {
+        // longer than a block of the disk
+        byte[] content = new byte[150];
+        for (int i = 0; i < content.length; ++i) {
+            content[i] = (byte) i;
+        }
+        FilePath file = write("/p/a.e", content);
+        assertArrayEquals(content, imageCache.get(file));
+        assertSame(imageCache.get(file), imageCache.get(file));
+        assertEquals(1, misses());
+        assertEquals(2, hits());
+
+        // another file is written, the image is checked but not read again
+        write("/p/b.e", new byte[]{1});
+        assertArrayEquals(content, imageCache.get(file));
+        assertEquals(1, misses());
+
+        // the same length but another content
+        byte[] rewritten = Arrays.copyOf(content, content.length);
+        rewritten[100] = 42;
+        write("/p/a.e", rewritten);
+        assertArrayEquals(rewritten, imageCache.get(file));
+        assertEquals(2, misses());
+
+        file.delete();
+        assertNull(imageCache.get(file));
+        assertNull(imageCache.get(fileSystem.getFilePath("/p")));
+    }
+
+    @Test
+    public void testFileSystemsAreApart() throws Exception {
+        FilePath file = write("/p/a.e", new byte[]{1, 2});
+        FileSystem another = FileSystem.createInMemory();
+        FilePath anotherFile = another.getFilePath("/p/a.e");
+        anotherFile.create();
+        try (OutputStream outputStream = new OutputStream(anotherFile)) {
+            outputStream.write(new byte[]{3});
+        }
+        assertArrayEquals(new byte[]{1, 2}, imageCache.get(file));
+        assertArrayEquals(new byte[]{3}, imageCache.get(anotherFile));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsDropped() throws Exception {
+        FilePath a = write("/p/a.e", new byte[]{1});
+        FilePath b = write("/p/b.e", new byte[]{2});
+        FilePath c = write("/p/c.e", new byte[]{3});
+        imageCache.get(a);
+        imageCache.get(b);
+        imageCache.get(a);
+        imageCache.get(c);
+        assertEquals(2, imageCache.size());
+        long misses = misses();
+        imageCache.get(a);
+        assertEquals(misses, misses());
+        imageCache.get(b);
+        assertEquals(misses + 1, misses());
+    }
+}
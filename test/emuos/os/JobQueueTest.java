@@ -0,0 +1,165 @@
+package emuos.os;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class JobQueueTest {
+    private static final String SMALL = "x=1\nend";
+    private static final String BIG = "x=1\nx++\nx++\nx++\nx++\nx++\nend";
+    private FileSystem fileSystem;
+    private Kernel kernel;
+
+    @Before
+    public void setUp() {
+        fileSystem = FileSystem.createInMemory();
+    }
+
+    @After
+    public void tearDown() {
+        if (kernel != null) {
+            kernel.close();
+        }
+    }
+
+    /**
+     * @return the size of the image
+     */
+    private int write(String path, String source) throws Exception {
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile(source);
+        FilePath image = new FilePath(fileSystem, path);
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compiler.getByteCode());
+        }
+        return compiler.getByteCode().length;
+    }
+
+    private void runToEnd() {
+        kernel.start(false);
+        SimulationEngine engine = kernel.getSimulationEngine();
+        while (engine.step()) {
+            // run the next event
+        }
+        kernel.stop();
+    }
+
+    @Test
+    public void testAdmitWhenMemoryIsFreed() throws Exception {
+        int size = 0;
+        // distinct files, so the code segments aren't shared
+        for (int i = 0; i < 6; ++i) {
+            size = write("/" + i, SMALL);
+        }
+        kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 1, 2 * size, fileSystem);
+        ProcessManager processManager = kernel.getProcessManager();
+        List<CompletableFuture<ProcessControlBlock>> handles = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            handles.add(processManager.submit(new FilePath(fileSystem, "/" + i)));
+        }
+        assertTrue(handles.get(0).isDone());
+        assertTrue(handles.get(1).isDone());
+        assertEquals(4, processManager.getJobQueue().size());
+        // a withdrawn job is never admitted
+        handles.get(3).cancel(false);
+        List<ProcessControlBlock> admitted = new ArrayList<>();
+        processManager.addOnCreateListener(info -> admitted.add(info.getPCB()));
+        runToEnd();
+        assertEquals(0, processManager.getJobQueue().size());
+        assertEquals(3, admitted.size());
+        for (int i = 0, j = 0; i < 6; ++i) {
+            if (i == 3) continue;
+            ProcessControlBlock pcb = handles.get(i).get();
+            assertEquals("/" + i, pcb.getImageFile().getPath());
+            if (i >= 2) {
+                // admitted in the submitted order
+                assertSame(admitted.get(j++), pcb);
+            }
+        }
+        Metrics metrics = kernel.getMetrics();
+        assertEquals(6, metrics.counter("job.submitted").sum());
+        assertEquals(5, metrics.counter("process.destroyed").sum());
+        assertEquals(5, metrics.histogram("job.admission.latency").getCount());
+        assertTrue(metrics.histogram("job.admission.latency").getMax() > 0);
+        assertEquals(4, metrics.histogram("job.queue.depth").getMax());
+        assertTrue(kernel.getMemoryManager().isAllFree());
+    }
+
+    @Test
+    public void testSmallestFirst() throws Exception {
+        int bigSize = write("/a", BIG);
+        write("/b", BIG);
+        write("/c", SMALL);
+        kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 1, bigSize, fileSystem);
+        ProcessManager processManager = kernel.getProcessManager();
+        processManager.setJobQueue(JobQueue.Order.SMALLEST_FIRST, 4);
+        List<String> admitted = new ArrayList<>();
+        for (String path : new String[]{"/a", "/b", "/c"}) {
+            processManager.submit(new FilePath(fileSystem, path))
+                    .thenAccept(pcb -> admitted.add(pcb.getImageFile().getPath()));
+        }
+        runToEnd();
+        assertArrayEquals(new String[]{"/a", "/c", "/b"}, admitted.toArray());
+    }
+
+    @Test
+    public void testRejectWhenFull() throws Exception {
+        int size = write("/a", SMALL);
+        write("/b", SMALL);
+        write("/c", SMALL);
+        kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 1, size, fileSystem);
+        ProcessManager processManager = kernel.getProcessManager();
+        processManager.setJobQueue(JobQueue.Order.FIFO, 1);
+        assertTrue(processManager.submit(new FilePath(fileSystem, "/a")).isDone());
+        assertFalse(processManager.submit(new FilePath(fileSystem, "/b")).isDone());
+        try {
+            processManager.submit(new FilePath(fileSystem, "/c"));
+            fail();
+        } catch (ProcessManager.ProcessException ignored) {
+        }
+        assertEquals(1, kernel.getMetrics().counter("job.rejected").sum());
+        try {
+            processManager.setJobQueue(JobQueue.Order.FIFO, 0);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        assertEquals(1, processManager.getJobQueue().size());
+    }
+
+    @Test
+    public void testCancelFreesTheQueue() throws Exception {
+        int size = write("/a", SMALL);
+        write("/b", SMALL);
+        write("/c", SMALL);
+        kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 1, size, fileSystem);
+        ProcessManager processManager = kernel.getProcessManager();
+        processManager.setJobQueue(JobQueue.Order.FIFO, 1);
+        assertTrue(processManager.submit(new FilePath(fileSystem, "/a")).isDone());
+        CompletableFuture<ProcessControlBlock> cancelled = processManager.submit(new FilePath(fileSystem, "/b"));
+        // the job at the head is withdrawn although it can't be admitted yet
+        cancelled.cancel(false);
+        assertEquals(0, processManager.getJobQueue().size());
+        CompletableFuture<ProcessControlBlock> handle = processManager.submit(new FilePath(fileSystem, "/c"));
+        assertEquals(1, processManager.getJobQueue().size());
+        runToEnd();
+        assertEquals("/c", handle.get().getImageFile().getPath());
+        assertEquals(0, kernel.getMetrics().counter("job.rejected").sum());
+        // the depth is recorded on the submissions and the admissions
+        Metrics.Histogram depth = kernel.getMetrics().histogram("job.queue.depth");
+        assertEquals(5, depth.getCount());
+    }
+}
@@ -0,0 +1,145 @@
+package emuos.os;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class MultiProcessorTest {
+    private static final int PROCESSOR_COUNT = 4;
+    private static final int PROCESS_COUNT = 40;
+    private static final int INCREMENT_COUNT = 40;
+
+    @Test
+    public void testProcessRunsOnOneProcessorAtATime() throws Exception {
+        FileSystem fileSystem = FileSystem.createInMemory();
+        FilePath image = new FilePath(fileSystem, "/m.e");
+        image.create();
+        StringBuilder source = new StringBuilder("x=1\n");
+        for (int i = 0; i < INCREMENT_COUNT; ++i) {
+            source.append("x++\n");
+        }
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile(source.append("end").toString());
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compiler.getByteCode());
+        }
+        OwnershipScheduler scheduler = new OwnershipScheduler(Scheduler.Policy.ROUND_ROBIN.create());
+        try (Kernel kernel = new Kernel(Kernel.ExecutionMode.TURBO, PROCESSOR_COUNT,
+                MemoryManager.DEFAULT_USER_SPACE_SIZE, fileSystem, scheduler)) {
+            Map<Integer, Integer> results = new ConcurrentHashMap<>();
+            CountDownLatch latch = new CountDownLatch(PROCESS_COUNT);
+            Kernel.Listener listener = info -> {
+                results.put(info.getPCB().getPID(), info.getAX());
+                latch.countDown();
+            };
+            kernel.addIntExitListener(listener);
+            kernel.run();
+            for (int i = 0; i < PROCESS_COUNT; ++i) {
+                kernel.getProcessManager().create(image);
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            kernel.stop();
+            kernel.removeIntExitListener(listener);
+
+            assertEquals(Collections.emptyList(), scheduler.violations);
+            assertEquals(PROCESS_COUNT, results.size());
+            for (int AX : results.values()) {
+                assertEquals(1 + INCREMENT_COUNT, AX);
+            }
+            // x=1, the increments and end
+            assertEquals(PROCESS_COUNT * (INCREMENT_COUNT + 2), kernel.getInstructionCount());
+        }
+    }
+
+    /**
+     * A process runs on the processor which picked it until it's enqueued,
+     * blocked, removed or exits, and it must not be picked in between.
+     */
+    private static class OwnershipScheduler implements Scheduler {
+        private final Scheduler scheduler;
+        private final Map<ProcessControlBlock, Thread> owners = new ConcurrentHashMap<>();
+        private final List<String> violations = Collections.synchronizedList(new ArrayList<>());
+
+        OwnershipScheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        private void release(ProcessControlBlock pcb) {
+            Thread owner = owners.remove(pcb);
+            if (owner != null && owner != Thread.currentThread()) {
+                violations.add(pcb + " is released by " + Thread.currentThread() + " but runs on " + owner);
+            }
+        }
+
+        @Override
+        public void enqueue(ProcessControlBlock pcb) {
+            release(pcb);
+            scheduler.enqueue(pcb);
+        }
+
+        @Override
+        public ProcessControlBlock pickNext() {
+            ProcessControlBlock pcb = scheduler.pickNext();
+            if (pcb != null) {
+                Thread owner = owners.putIfAbsent(pcb, Thread.currentThread());
+                if (owner != null) {
+                    violations.add(pcb + " is picked by " + Thread.currentThread() + " but runs on " + owner);
+                }
+            }
+            return pcb;
+        }
+
+        @Override
+        public void block(ProcessControlBlock pcb) {
+            release(pcb);
+            scheduler.block(pcb);
+        }
+
+        @Override
+        public void wake(ProcessControlBlock pcb) {
+            scheduler.wake(pcb);
+        }
+
+        @Override
+        public void tick(ProcessControlBlock pcb, int count) {
+            Thread owner = owners.get(pcb);
+            if (owner != Thread.currentThread()) {
+                violations.add(pcb + " runs on " + Thread.currentThread() + " but is owned by " + owner);
+            }
+            scheduler.tick(pcb, count);
+        }
+
+        @Override
+        public boolean remove(ProcessControlBlock pcb) {
+            release(pcb);
+            return scheduler.remove(pcb);
+        }
+
+        @Override
+        public int getTimeSlice(ProcessControlBlock pcb) {
+            return scheduler.getTimeSlice(pcb);
+        }
+
+        @Override
+        public int size() {
+            return scheduler.size();
+        }
+
+        @Override
+        public List<ProcessControlBlock> getReadyProcesses() {
+            return scheduler.getReadyProcesses();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package emuos.os;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class ProcessQueueTest {
+
+    @Test
+    public void testProcessQueue() {
+        ProcessQueue ready = new ProcessQueue();
+        ProcessQueue blocked = new ProcessQueue();
+        List<ProcessControlBlock> pcbs = new ArrayList<>();
+        for (int i = 1; i <= 5; ++i) {
+            ProcessControlBlock pcb = new ProcessControlBlock(i, 0);
+            pcbs.add(pcb);
+            ready.add(pcb);
+        }
+        try {
+            blocked.add(pcbs.get(0));
+            fail("A process can only be in one queue.");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertTrue(ready.remove(pcbs.get(2)));
+        assertFalse(ready.remove(pcbs.get(2)));
+        assertFalse(blocked.contains(pcbs.get(0)));
+        blocked.add(pcbs.get(2));
+        assertTrue(ready.remove(pcbs.get(4)));
+        assertEquals(Arrays.asList(pcbs.get(0), pcbs.get(1), pcbs.get(3)), new ArrayList<>(ready));
+        assertSame(pcbs.get(0), ready.poll());
+        Iterator<ProcessControlBlock> iterator = ready.iterator();
+        iterator.next();
+        iterator.remove();
+        assertEquals(Collections.singletonList(pcbs.get(3)), new ArrayList<>(ready));
+        ready.clear();
+        assertTrue(ready.isEmpty());
+        assertNull(ready.poll());
+        ready.add(pcbs.get(1));
+        assertEquals(1, blocked.size());
+        assertSame(pcbs.get(2), blocked.peek());
+    }
+
+    @Test
+    public void testSpliceProcessQueues() {
+        ProcessQueue first = new ProcessQueue();
+        ProcessQueue second = new ProcessQueue();
+        ProcessQueue third = new ProcessQueue();
+        List<ProcessControlBlock> pcbs = new ArrayList<>();
+        for (int i = 1; i <= 6; ++i) {
+            ProcessControlBlock pcb = new ProcessControlBlock(i, 0);
+            pcbs.add(pcb);
+            (i <= 2 ? first : i <= 4 ? second : third).add(pcb);
+        }
+        second.splice(third);
+        first.splice(second);
+        assertEquals(pcbs, new ArrayList<>(first));
+        assertTrue(second.isEmpty());
+        assertTrue(third.isEmpty());
+        // the moved processes belong to the queue they are spliced onto
+        assertFalse(second.contains(pcbs.get(2)));
+        assertFalse(third.contains(pcbs.get(5)));
+        assertFalse(third.remove(pcbs.get(5)));
+        assertTrue(first.remove(pcbs.get(5)));
+        assertTrue(first.contains(pcbs.get(3)));
+        // the emptied queues are usable again
+        third.add(pcbs.get(5));
+        assertTrue(third.contains(pcbs.get(5)));
+        assertFalse(first.contains(pcbs.get(5)));
+        assertEquals(5, first.size());
+        assertSame(pcbs.get(4), first.toArray()[4]);
+    }
+}
@@ -0,0 +1,88 @@
+package emuos.os;
+
+import emuos.diskmanager.FilePath;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class ProcessTableTest {
+
+    @Test
+    public void testTableAgainstHashMap() {
+        ProcessTable table = new ProcessTable();
+        Map<Integer, ProcessControlBlock> expected = new HashMap<>();
+        List<ProcessControlBlock> live = new ArrayList<>();
+        Set<Integer> exited = new HashSet<>();
+        Random random = new Random(19);
+        for (int i = 0; i < 100000; ++i) {
+            if (live.isEmpty() || random.nextInt(3) != 0) {
+                ProcessControlBlock pcb = table.add(0, FilePath.NULL);
+                assertNull("A PID is never handed out twice", expected.put(pcb.getPID(), pcb));
+                assertFalse(exited.contains(pcb.getPID()));
+                live.add(pcb);
+            } else {
+                ProcessControlBlock pcb = live.remove(random.nextInt(live.size()));
+                assertTrue(table.remove(pcb));
+                assertFalse(table.remove(pcb));
+                exited.add(pcb.getPID());
+            }
+            assertEquals(live.size(), table.size());
+        }
+        for (ProcessControlBlock pcb : live) {
+            assertSame(pcb, table.get(pcb.getPID()));
+        }
+        for (int PID : exited) {
+            assertNull(table.get(PID));
+        }
+        assertTrue(table.capacity() < 2 * live.size());
+    }
+
+    @Test
+    public void testStalePID() {
+        ProcessTable table = new ProcessTable(1);
+        ProcessControlBlock first = table.add(0, FilePath.NULL);
+        assertEquals(1, first.getPID());
+        assertNull("The table is full", table.add(0, FilePath.NULL));
+        assertTrue(table.remove(first));
+        ProcessControlBlock second = table.add(0, FilePath.NULL);
+        assertEquals(ProcessTable.toSlot(first.getPID()), ProcessTable.toSlot(second.getPID()));
+        assertNotEquals(first.getPID(), second.getPID());
+        assertNull(table.get(first.getPID()));
+        assertFalse(table.remove(first));
+        assertSame(second, table.get(second.getPID()));
+        assertNull(table.get(0));
+        assertNull(table.get(-1));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        ProcessTable table = new ProcessTable();
+        List<ProcessControlBlock> pcbs = new ArrayList<>();
+        for (int i = 0; i < 40; ++i) {
+            pcbs.add(table.add(i, FilePath.NULL));
+        }
+        for (int i = 0; i < 40; i += 2) {
+            table.remove(pcbs.get(i));
+        }
+        List<ProcessControlBlock> live = table.getPCBs();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        table.save(new DataOutputStream(bytes));
+        ProcessTable loaded = new ProcessTable();
+        loaded.load(ByteBuffer.wrap(bytes.toByteArray()), live);
+        assertEquals(live, loaded.getPCBs());
+        // the freed slots aren't handed out under their old PIDs
+        for (int i = 0; i < 20; ++i) {
+            ProcessControlBlock pcb = loaded.add(0, FilePath.NULL);
+            assertFalse(pcbs.contains(pcb));
+        }
+        assertEquals(table.capacity(), loaded.capacity());
+    }
+}
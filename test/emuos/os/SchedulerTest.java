@@ -0,0 +1,385 @@
+package emuos.os;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class SchedulerTest {
+
+    private static ProcessControlBlock[] create(int count) {
+        ProcessControlBlock[] pcbs = new ProcessControlBlock[count];
+        for (int i = 0; i < count; ++i) {
+            pcbs[i] = new ProcessControlBlock(i + 1, 0);
+        }
+        return pcbs;
+    }
+
+    @Test
+    public void testRoundRobinKeepsArrivalOrder() {
+        Scheduler scheduler = Scheduler.Policy.ROUND_ROBIN.create();
+        ProcessControlBlock[] pcbs = create(3);
+        for (ProcessControlBlock pcb : pcbs) {
+            scheduler.enqueue(pcb);
+        }
+        scheduler.tick(pcbs[0], 100);
+        assertEquals(Arrays.asList(pcbs), scheduler.getReadyProcesses());
+        assertSame(pcbs[0], scheduler.pickNext());
+        assertEquals(Kernel.INIT_TIME_SLICE, scheduler.getTimeSlice(pcbs[0]));
+        assertTrue(scheduler.remove(pcbs[2]));
+        assertSame(pcbs[1], scheduler.pickNext());
+        assertNull(scheduler.pickNext());
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void testAdaptiveTimeSlice() {
+        Scheduler scheduler = Scheduler.Policy.ADAPTIVE_ROUND_ROBIN.create();
+        ProcessControlBlock[] pcbs = create(12);
+        ProcessControlBlock cpuBound = pcbs[0];
+        ProcessControlBlock ioBound = pcbs[1];
+        // a CPU-bound process runs longer when it's alone
+        assertEquals(AdaptiveRoundRobinScheduler.MAX_TIME_SLICE, scheduler.getTimeSlice(cpuBound));
+
+        // the IO-bound process blocks after 3 instructions every time
+        for (int i = 0; i < 4; ++i) {
+            scheduler.tick(ioBound, 3);
+            scheduler.block(ioBound);
+            scheduler.tick(ioBound, 1);
+            scheduler.wake(ioBound);
+            assertSame(ioBound, scheduler.pickNext());
+        }
+        assertTrue(ioBound.getBurstEstimate() >= 3 && ioBound.getBurstEstimate() <= 4);
+
+        // and shorter when many are waiting, but the IO-bound one still gets to its next IO request
+        for (int i = 2; i < pcbs.length; ++i) {
+            scheduler.enqueue(pcbs[i]);
+        }
+        assertEquals(AdaptiveRoundRobinScheduler.MIN_TIME_SLICE, scheduler.getTimeSlice(cpuBound));
+        assertEquals(ioBound.getBurstEstimate() - ioBound.getBurstTicks() + 1, scheduler.getTimeSlice(ioBound));
+        assertTrue(scheduler.getTimeSlice(ioBound) > AdaptiveRoundRobinScheduler.MIN_TIME_SLICE);
+    }
+
+    @Test
+    public void testFeedbackDemotesCPUBoundProcesses() {
+        Scheduler scheduler = Scheduler.Policy.MULTILEVEL_FEEDBACK.create();
+        ProcessControlBlock[] pcbs = create(2);
+        scheduler.enqueue(pcbs[0]);
+        scheduler.enqueue(pcbs[1]);
+
+        ProcessControlBlock cpuBound = scheduler.pickNext();
+        assertSame(pcbs[0], cpuBound);
+        int timeSlice = scheduler.getTimeSlice(cpuBound);
+        scheduler.tick(cpuBound, timeSlice);
+        scheduler.enqueue(cpuBound);
+        assertEquals(1, cpuBound.getSchedulingLevel());
+        assertEquals(timeSlice * 2, scheduler.getTimeSlice(cpuBound));
+        // the process on the higher level runs first
+        assertSame(pcbs[1], scheduler.pickNext());
+        assertSame(cpuBound, scheduler.pickNext());
+        assertNull(scheduler.pickNext());
+
+        // the lowest level is the floor
+        for (int i = 0; i < MultilevelFeedbackScheduler.LEVEL_COUNT; ++i) {
+            scheduler.tick(cpuBound, scheduler.getTimeSlice(cpuBound));
+            scheduler.enqueue(cpuBound);
+            assertSame(cpuBound, scheduler.pickNext());
+        }
+        assertEquals(MultilevelFeedbackScheduler.LEVEL_COUNT - 1, cpuBound.getSchedulingLevel());
+    }
+
+    @Test
+    public void testFeedbackPromotesIOBoundProcesses() {
+        Scheduler scheduler = Scheduler.Policy.MULTILEVEL_FEEDBACK.create();
+        ProcessControlBlock pcb = create(1)[0];
+        pcb.setSchedulingLevel(2);
+        scheduler.enqueue(pcb);
+        assertSame(pcb, scheduler.pickNext());
+        scheduler.tick(pcb, 1);
+        scheduler.block(pcb);
+        assertEquals(1, pcb.getSchedulingLevel());
+        assertEquals(0, scheduler.size());
+        scheduler.wake(pcb);
+        assertEquals(Collections.singletonList(pcb), scheduler.getReadyProcesses());
+        // a ready process can block as well
+        scheduler.block(pcb);
+        assertEquals(0, pcb.getSchedulingLevel());
+        assertEquals(0, scheduler.size());
+        assertNull(scheduler.pickNext());
+    }
+
+    @Test
+    public void testFeedbackBoostsStarvingProcesses() {
+        Scheduler scheduler = Scheduler.Policy.MULTILEVEL_FEEDBACK.create();
+        ProcessControlBlock[] pcbs = create(2);
+        ProcessControlBlock starving = pcbs[0];
+        starving.setSchedulingLevel(MultilevelFeedbackScheduler.LEVEL_COUNT - 1);
+        scheduler.enqueue(starving);
+        ProcessControlBlock interactive = pcbs[1];
+        int picks = 0;
+        ProcessControlBlock next;
+        do {
+            scheduler.enqueue(interactive);
+            next = scheduler.pickNext();
+            ++picks;
+        } while (next == interactive && picks <= MultilevelFeedbackScheduler.BOOST_PERIOD);
+        assertSame(starving, next);
+        assertEquals(0, starving.getSchedulingLevel());
+    }
+
+    @Test
+    public void testFeedbackBoostIsSettledLazily() {
+        MultilevelFeedbackScheduler scheduler = new MultilevelFeedbackScheduler();
+        ProcessControlBlock[] pcbs = create(3);
+        pcbs[0].setSchedulingLevel(2);
+        pcbs[0].setSchedulingTicks(1);
+        pcbs[1].setSchedulingLevel(3);
+        scheduler.enqueue(pcbs[0]);
+        scheduler.enqueue(pcbs[1]);
+        // a process picked on level 0 over and over until the boost
+        for (int i = 1; i < MultilevelFeedbackScheduler.BOOST_PERIOD; ++i) {
+            scheduler.enqueue(pcbs[2]);
+            assertSame(pcbs[2], scheduler.pickNext());
+        }
+        scheduler.enqueue(pcbs[2]);
+        // the boost moves the lower levels behind level 0
+        assertSame(pcbs[2], scheduler.pickNext());
+        assertEquals(Arrays.asList(pcbs[0], pcbs[1]), scheduler.getReadyProcesses());
+        // a moved process is found on level 0
+        assertTrue(scheduler.remove(pcbs[1]));
+        assertEquals(0, pcbs[1].getSchedulingLevel());
+        assertEquals(1, scheduler.size());
+        scheduler.settle();
+        assertEquals(0, pcbs[0].getSchedulingLevel());
+        assertEquals(0, pcbs[0].getSchedulingTicks());
+        assertSame(pcbs[0], scheduler.pickNext());
+        assertNull(scheduler.pickNext());
+    }
+
+    @Test
+    public void testFairPicksLeastVirtualRuntime() {
+        Scheduler scheduler = Scheduler.Policy.COMPLETELY_FAIR.create();
+        ProcessControlBlock[] pcbs = create(3);
+        for (ProcessControlBlock pcb : pcbs) {
+            scheduler.enqueue(pcb);
+        }
+        // every ready process gets a share of the target latency
+        ProcessControlBlock running = scheduler.pickNext();
+        assertSame(pcbs[0], running);
+        assertEquals(CompletelyFairScheduler.TARGET_LATENCY / 3, scheduler.getTimeSlice(running));
+        scheduler.tick(running, 5);
+        scheduler.enqueue(running);
+        assertSame(pcbs[1], scheduler.pickNext());
+        assertSame(pcbs[2], scheduler.pickNext());
+        assertSame(running, scheduler.pickNext());
+        assertEquals(CompletelyFairScheduler.TARGET_LATENCY, scheduler.getTimeSlice(running));
+    }
+
+    @Test
+    public void testFairWeighsNiceValues() {
+        Scheduler scheduler = Scheduler.Policy.COMPLETELY_FAIR.create();
+        ProcessControlBlock[] pcbs = create(2);
+        pcbs[0].setNice(-5);
+        pcbs[1].setNice(5);
+        scheduler.enqueue(pcbs[1]);
+        assertTrue(scheduler.getTimeSlice(pcbs[0]) > CompletelyFairScheduler.TARGET_LATENCY / 2);
+        scheduler.tick(pcbs[0], 10);
+        scheduler.tick(pcbs[1], 10);
+        assertTrue(pcbs[0].getVirtualRuntime() < 10L << CompletelyFairScheduler.VIRTUAL_RUNTIME_SHIFT);
+        assertTrue(pcbs[1].getVirtualRuntime() > 10L << CompletelyFairScheduler.VIRTUAL_RUNTIME_SHIFT);
+    }
+
+    @Test
+    public void testFairQueuesNewProcessesBehind() {
+        Scheduler scheduler = Scheduler.Policy.COMPLETELY_FAIR.create();
+        ProcessControlBlock[] pcbs = create(3);
+        scheduler.enqueue(pcbs[0]);
+        scheduler.enqueue(pcbs[1]);
+        ProcessControlBlock running = scheduler.pickNext();
+        scheduler.tick(running, 2);
+        scheduler.enqueue(running);
+        // the new process starts half of the target latency after the last picked one
+        scheduler.enqueue(pcbs[2]);
+        long start = (long) CompletelyFairScheduler.TARGET_LATENCY << CompletelyFairScheduler.VIRTUAL_RUNTIME_SHIFT >> 1;
+        assertEquals(2 * start, pcbs[2].getVirtualRuntime());
+        assertEquals(Arrays.asList(pcbs[1], running, pcbs[2]), scheduler.getReadyProcesses());
+    }
+
+    @Test
+    public void testFairCreditsWakingProcesses() {
+        Scheduler scheduler = Scheduler.Policy.COMPLETELY_FAIR.create();
+        ProcessControlBlock[] pcbs = create(2);
+        ProcessControlBlock sleeper = pcbs[0];
+        ProcessControlBlock hog = pcbs[1];
+        scheduler.enqueue(sleeper);
+        scheduler.enqueue(hog);
+        assertSame(sleeper, scheduler.pickNext());
+        scheduler.block(sleeper);
+        for (int i = 0; i < 100; ++i) {
+            assertSame(hog, scheduler.pickNext());
+            scheduler.tick(hog, Kernel.INIT_TIME_SLICE);
+            scheduler.enqueue(hog);
+        }
+        scheduler.wake(sleeper);
+        assertSame(sleeper, scheduler.pickNext());
+        // the credit is half of the target latency behind the last picked process
+        long lastPicked = hog.getVirtualRuntime() - ((long) Kernel.INIT_TIME_SLICE << CompletelyFairScheduler.VIRTUAL_RUNTIME_SHIFT);
+        long credit = (long) CompletelyFairScheduler.TARGET_LATENCY << CompletelyFairScheduler.VIRTUAL_RUNTIME_SHIFT >> 1;
+        assertEquals(lastPicked - credit, sleeper.getVirtualRuntime());
+    }
+
+    @Test
+    public void testDeadlineQueueOrder() {
+        EarliestDeadlineFirstScheduler scheduler = new EarliestDeadlineFirstScheduler(
+                Scheduler.Policy.ROUND_ROBIN.create());
+        ProcessControlBlock normal = new ProcessControlBlock(1000, 0);
+        scheduler.enqueue(normal);
+        Random random = new Random(17);
+        ProcessControlBlock[] pcbs = create(200);
+        for (ProcessControlBlock pcb : pcbs) {
+            pcb.setDeadline(random.nextInt(50));
+            pcb.setBudgetLeft(1);
+            scheduler.enqueue(pcb);
+        }
+        Set<ProcessControlBlock> removed = new HashSet<>();
+        for (int i = 0; i < pcbs.length; i += 3) {
+            assertTrue(scheduler.remove(pcbs[i]));
+            removed.add(pcbs[i]);
+        }
+        assertEquals(pcbs.length - removed.size() + 1, scheduler.size());
+        ProcessControlBlock previous = null;
+        for (int i = removed.size(); i < pcbs.length; ++i) {
+            ProcessControlBlock pcb = scheduler.pickNext();
+            assertFalse(removed.contains(pcb));
+            if (previous != null) {
+                assertTrue(previous.getDeadline() < pcb.getDeadline()
+                        || previous.getDeadline() == pcb.getDeadline() && previous.getPID() < pcb.getPID());
+            }
+            previous = pcb;
+        }
+        // the normal class runs after the real-time one
+        assertSame(normal, scheduler.pickNext());
+        assertNull(scheduler.pickNext());
+    }
+
+    @Test
+    public void testMixedWorkloadOnEveryPolicy() throws Exception {
+        Map<String, byte[]> images = new HashMap<>();
+        images.put("/i.e", compile("x=1\n!A1\nx++\n!A1\nx++\nend"));
+        images.put("/c.e", compile("x=1\nx++\nx++\nx++\nx++\nx++\nx++\nx++\nx++\nx++\nx++\nx++\nend"));
+        List<BatchRunner.Arrival> arrivals = Arrays.asList(
+                new BatchRunner.Arrival("/c.e", 0, 4, 0),
+                new BatchRunner.Arrival("/i.e", 0, 4, 0));
+        for (Scheduler.Policy policy : Scheduler.Policy.values()) {
+            BatchRunner.Report report = ParallelBatchRunner.run(new ParallelBatchRunner.Batch(
+                    2, MemoryManager.DEFAULT_USER_SPACE_SIZE, policy, images, arrivals));
+            assertEquals(policy.name(), 8, report.getExitedCount());
+            assertEquals(policy.name(), 0, report.getFailedCount());
+        }
+    }
+
+    @Test
+    public void testCustomScheduler() throws Exception {
+        FileSystem fileSystem = FileSystem.createInMemory();
+        FilePath image = new FilePath(fileSystem, "/l.e");
+        image.create();
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compile("x=1\nx++\nx++\nend"));
+        }
+        LastInFirstOutScheduler scheduler = new LastInFirstOutScheduler();
+        try (Kernel kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 1,
+                MemoryManager.DEFAULT_USER_SPACE_SIZE, fileSystem, scheduler)) {
+            assertNull(kernel.getSchedulerPolicy());
+            ProcessControlBlock[] pcbs = new ProcessControlBlock[3];
+            for (int i = 0; i < pcbs.length; ++i) {
+                pcbs[i] = kernel.getProcessManager().create(image);
+            }
+            kernel.start(false);
+            SimulationEngine engine = kernel.getSimulationEngine();
+            while (engine.step()) {
+                // run the next event
+            }
+            kernel.stop();
+            assertEquals(Arrays.asList(pcbs[2], pcbs[1], pcbs[0]), scheduler.picked);
+            for (ProcessControlBlock pcb : pcbs) {
+                assertEquals(3, pcb.getContext().getAX());
+            }
+            File file = File.createTempFile("kernel", ".checkpoint");
+            file.deleteOnExit();
+            try {
+                kernel.checkpoint(file);
+                fail("The state of a custom scheduler can't be saved.");
+            } catch (IllegalStateException expected) {
+            }
+        }
+    }
+
+    /**
+     * A scheduler which only uses the public API, as one outside the package would.
+     */
+    private static class LastInFirstOutScheduler implements Scheduler {
+        private final Deque<ProcessControlBlock> ready = new ArrayDeque<>();
+        private final List<ProcessControlBlock> picked = new ArrayList<>();
+
+        @Override
+        public void enqueue(ProcessControlBlock pcb) {
+            ready.push(pcb);
+        }
+
+        @Override
+        public ProcessControlBlock pickNext() {
+            ProcessControlBlock pcb = ready.poll();
+            if (pcb != null && !picked.contains(pcb)) picked.add(pcb);
+            return pcb;
+        }
+
+        @Override
+        public void block(ProcessControlBlock pcb) {
+            ready.remove(pcb);
+        }
+
+        @Override
+        public void wake(ProcessControlBlock pcb) {
+            ready.push(pcb);
+        }
+
+        @Override
+        public void tick(ProcessControlBlock pcb, int count) {
+        }
+
+        @Override
+        public boolean remove(ProcessControlBlock pcb) {
+            return ready.remove(pcb);
+        }
+
+        @Override
+        public int getTimeSlice(ProcessControlBlock pcb) {
+            return Kernel.INIT_TIME_SLICE;
+        }
+
+        @Override
+        public int size() {
+            return ready.size();
+        }
+
+        @Override
+        public List<ProcessControlBlock> getReadyProcesses() {
+            return new ArrayList<>(ready);
+        }
+    }
+
+    private static byte[] compile(String source) throws Exception {
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile(source);
+        return compiler.getByteCode();
+    }
+}
@@ -0,0 +1,130 @@
+package emuos.os;
+
+import emuos.compiler.TinyCompiler;
+import emuos.diskmanager.FilePath;
+import emuos.diskmanager.FileSystem;
+import emuos.diskmanager.OutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Link
+ */
+public class SharedSegmentTest {
+    private static final int USER_SPACE_SIZE = 32;
+    private FileSystem fileSystem;
+    private Kernel kernel;
+    private FilePath image;
+
+    @Before
+    public void setUp() throws Exception {
+        fileSystem = FileSystem.createInMemory();
+        image = new FilePath(fileSystem, "/s.e");
+        image.create();
+        write("x=1\nx++\nx++\nx++\nx++\nx++\nend");
+        kernel = new Kernel(Kernel.ExecutionMode.SIMULATED, 2, USER_SPACE_SIZE, fileSystem);
+    }
+
+    @After
+    public void tearDown() {
+        kernel.close();
+    }
+
+    private void write(String source) throws Exception {
+        TinyCompiler compiler = new TinyCompiler();
+        compiler.compile(source);
+        try (OutputStream outputStream = new OutputStream(image)) {
+            outputStream.write(compiler.getByteCode());
+        }
+    }
+
+    private void runToEnd() {
+        kernel.start(false);
+        SimulationEngine engine = kernel.getSimulationEngine();
+        while (engine.step()) {
+            // run the next event
+        }
+        kernel.stop();
+    }
+
+    @Test
+    public void testProcessesShareTheImage() throws Exception {
+        ProcessManager processManager = kernel.getProcessManager();
+        MemoryManager memoryManager = kernel.getMemoryManager();
+        List<ProcessControlBlock> pcbs = new ArrayList<>();
+        // the private copies wouldn't fit into the user space
+        int count = 2 * USER_SPACE_SIZE / image.size();
+        for (int i = 0; i < count; ++i) {
+            pcbs.add(processManager.create(image));
+        }
+        int address = pcbs.get(0).getStartAddress();
+        for (ProcessControlBlock pcb : pcbs) {
+            assertEquals(address, pcb.getStartAddress());
+            assertSame(memoryManager.getDecodedImage(address), pcb.getDecodedImage());
+        }
+        assertEquals(count, memoryManager.getRefCount(address));
+        assertEquals(image.size(), memoryManager.getAllocatedSize());
+
+        runToEnd();
+        for (ProcessControlBlock pcb : pcbs) {
+            assertEquals(6, pcb.getContext().getAX());
+        }
+        assertEquals(0, memoryManager.getRefCount(address));
+        assertTrue(memoryManager.isAllFree());
+    }
+
+    @Test
+    public void testSegmentIsReadOnly() throws Exception {
+        ProcessManager processManager = kernel.getProcessManager();
+        MemoryManager memoryManager = kernel.getMemoryManager();
+        ProcessControlBlock parent = processManager.create(image);
+        ProcessControlBlock sibling = processManager.create(image);
+        int address = parent.getStartAddress();
+        byte first = memoryManager.read(address);
+        try {
+            memoryManager.write(address, (byte) 0);
+            fail("The segment is shared by two processes.");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            memoryManager.write(address + image.size() - 1, new byte[]{0, 0});
+            fail("The last byte is in the segment.");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            memoryManager.writeInt(address + 1, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(first, memoryManager.read(address));
+
+        runToEnd();
+        assertEquals(6, parent.getContext().getAX());
+        assertEquals(6, sibling.getContext().getAX());
+        // the space can be written once it's freed
+        memoryManager.write(address, (byte) 0);
+        assertEquals(0, memoryManager.read(address));
+    }
+
+    @Test
+    public void testRewrittenImageGetsItsOwnSegment() throws Exception {
+        ProcessManager processManager = kernel.getProcessManager();
+        MemoryManager memoryManager = kernel.getMemoryManager();
+        ProcessControlBlock old = processManager.create(image);
+        write("x=9\nend");
+        ProcessControlBlock rewritten = processManager.create(image);
+        assertNotEquals(old.getStartAddress(), rewritten.getStartAddress());
+        assertEquals(1, memoryManager.getRefCount(old.getStartAddress()));
+
+        runToEnd();
+        assertEquals(6, old.getContext().getAX());
+        assertEquals(9, rewritten.getContext().getAX());
+        assertTrue(memoryManager.isAllFree());
+    }
+}
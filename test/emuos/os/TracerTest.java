@@ -0,0 +1,56 @@
+package emuos.os;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Link
+ */
+public class TracerTest {
+
+    @Test
+    public void testSnapshotKeepsTheLatestRecords() {
+        Tracer tracer = new Tracer(2, 4);
+        for (int i = 0; i < 6; ++i) {
+            tracer.record(0, Tracer.Type.INT_END, i, i + 1, 100 + i, -i);
+        }
+        tracer.record(1, Tracer.Type.INT_IO, 7, 0, 0, 0);
+        List<Tracer.Record> records = tracer.snapshot();
+        // the oldest slot of a full ring may be being overwritten, so it's skipped
+        assertEquals(4, records.size());
+        Tracer.Record record = records.get(0);
+        assertEquals(0, record.getProcessorID());
+        assertEquals(3, record.getTick());
+        assertEquals(Tracer.Type.INT_END, record.getType());
+        assertEquals(4, record.getPID());
+        assertEquals(103, record.getPC());
+        assertEquals(-3, record.getAX());
+        assertEquals(Tracer.Type.INT_IO, records.get(3).getType());
+    }
+
+    @Test
+    public void testDrainToFile() throws IOException {
+        File file = File.createTempFile("kernel", ".trace");
+        file.deleteOnExit();
+        Tracer tracer = new Tracer(1, 4);
+        tracer.setOutput(file);
+        tracer.record(0, Tracer.Type.TICK, 1, 1, 1, 1);
+        tracer.record(0, Tracer.Type.INT_TIME_SLICE, 2, 1, 2, 3);
+        tracer.drain();
+        for (int i = 0; i < 6; ++i) {
+            tracer.record(0, Tracer.Type.IO_REQUEST, 3 + i, 1, 2, 3);
+        }
+        tracer.close();
+        List<Tracer.Record> records = Tracer.decode(file);
+        // TICK is disabled by default, and 3 records are lapped before they are drained
+        assertEquals(4, records.size());
+        assertEquals(Tracer.Type.INT_TIME_SLICE, records.get(0).getType());
+        assertEquals(6, records.get(1).getTick());
+        assertEquals(3, tracer.getLostCount());
+    }
+}